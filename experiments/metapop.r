@@ -29,6 +29,56 @@ axis.cex <- 1.2
 pch.cex <- 1.5
 fit.col <- "darkorange"
 
+# Reads a states.tab.gz, which holds one tab file per saved timestep, each
+# with its own header line, as one data frame.  Strains missing from a
+# timestep are NA.  The file is read from the gzfile connection a chunk of
+# lines at a time and parsed one timestep at a time, so only the rows kept
+# and the lines of the current timestep are held in memory; reading stops
+# once nrows rows have been read.
+metapop.read.gz <- function(path, nrows=-1, chunk=10000) {
+    con <- gzfile(path, open="r")
+    on.exit(close(con))
+    records <- list()
+    n <- 0
+    pending <- character(0)
+    starts <- integer(0)
+    repeat {
+        lines <- readLines(con, n=chunk)
+        done <- length(lines) == 0
+        starts <- c(starts, grep("^timestep\t", lines) + length(pending))
+        pending <- c(pending, lines)
+
+        # The last timestep may go on in the next chunk.
+        complete <- if (done) length(starts) else max(0, length(starts) - 1)
+        for (i in seq_len(complete)) {
+            end <- if (i < length(starts)) starts[i+1] - 1 else length(pending)
+            rec <- read.delim(text=pending[starts[i]:end],
+                              stringsAsFactors=FALSE)
+            records[[length(records) + 1]] <- rec
+            n <- n + nrow(rec)
+            if (nrows >= 0 && n >= nrows) {
+                done <- TRUE
+                break
+            }
+        }
+        if (done) break
+        if (complete > 0) {
+            first <- starts[complete+1]
+            pending <- pending[first:length(pending)]
+            starts <- starts[-seq_len(complete)] - first + 1
+        }
+    }
+    if (length(records) == 0) return(data.frame())
+
+    cols <- unique(unlist(lapply(records, names)))
+    dat <- do.call(rbind, lapply(records, function(rec) {
+        rec[setdiff(cols, names(rec))] <- NA
+        rec[cols]
+    }))
+    if (nrows >= 0) dat <- head(dat, nrows)
+    dat
+}
+
 metapop.process <- function(path, nrows=-1) {
     if (is.na(file.info(path)$size)) {
         cat("\nFile", path, "is not a file.\n")
@@ -39,7 +89,11 @@ metapop.process <- function(path, nrows=-1) {
         return()
     }
 
-    dat <- read.delim(path, stringsAsFactors=FALSE, nrows=nrows)
+    if (grepl("\\.gz$", path)) {
+        dat <- metapop.read.gz(path, nrows=nrows)
+    } else {
+        dat <- read.delim(path, stringsAsFactors=FALSE, nrows=nrows)
+    }
     dat[is.na(dat)] <- 0
     dat <- within(dat, 
     coop.anc <- coop_0.450_10.0)
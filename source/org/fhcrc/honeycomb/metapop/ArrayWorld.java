@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.dilution.DilutionRule;
+import org.fhcrc.honeycomb.metapop.environment.EnvironmentChanger;
+import org.fhcrc.honeycomb.metapop.stop.StopCondition;
+import org.fhcrc.honeycomb.metapop.mutation.MutationRule;
+import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link World} whose sizes, resource and capacity are held by a dense
+ * {@link WorldState}, and grown there instead of by walking the
+ * {@code Population} and {@code Subpopulation} objects.  Those objects
+ * become views of the state, so dilution, mutation, migration and the stop
+ * condition still see the usual {@code Population}s, and nothing is copied
+ * between the two.  Growth can be spread
+ * over several threads, and the patches can be integrated in batches.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class ArrayWorld extends World {
+    private static final int TASKS_PER_THREAD = 4;
+
+    protected final WorldState state;
+    protected final int n_threads;
+    protected final long grow_seed;
+    protected ExecutorService pool;
+
+    /**
+     * Constructs an {@code ArrayWorld} that grows on {@code n_threads}
+     * threads.  Births and deaths in each patch are drawn from that patch's
+     * own random number stream, derived from {@code grow_seed}, so the result
+     * is identical for any number of threads.
+     */
+    public ArrayWorld(int rows, int cols,
+                      List<Population> initial_populations,
+                      EnvironmentChanger env_changer,
+                      DilutionRule dilution_rule,
+                      MutationRule mutation_rule,
+                      MigrationRule migration_rule,
+                      StopCondition stop_condition,
+                      File data_path,
+                      int timestep_scale,
+                      int n_threads,
+                      long grow_seed)
+    {
+        super(rows, cols, initial_populations, env_changer, dilution_rule,
+              mutation_rule, migration_rule, stop_condition, data_path,
+              timestep_scale);
+        if (n_threads < 1) {
+            throw new IllegalArgumentException("n_threads < 1.");
+        }
+        this.state = new WorldState(rows, cols);
+        this.state.usePatchStreams(grow_seed);
+        this.state.setCensus(census);
+        this.occupied_locations.setState(state);
+        this.n_threads = n_threads;
+        this.grow_seed = grow_seed;
+        if (n_threads > 1) {
+            this.pool = Executors.newFixedThreadPool(n_threads,
+                                                     new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "grow");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    public ArrayWorld(int rows, int cols,
+                      List<Population> initial_populations,
+                      EnvironmentChanger env_changer,
+                      DilutionRule dilution_rule,
+                      MutationRule mutation_rule,
+                      MigrationRule migration_rule,
+                      StopCondition stop_condition,
+                      File data_path,
+                      int timestep_scale)
+    {
+        super(rows, cols, initial_populations, env_changer, dilution_rule,
+              mutation_rule, migration_rule, stop_condition, data_path,
+              timestep_scale);
+        this.state = new WorldState(rows, cols);
+        this.state.setCensus(census);
+        this.occupied_locations.setState(state);
+        this.n_threads = 1;
+        this.grow_seed = 0;
+    }
+
+    public ArrayWorld(int rows, int cols,
+                      List<Population> initial_populations,
+                      EnvironmentChanger env_changer,
+                      DilutionRule dilution_rule,
+                      MutationRule mutation_rule,
+                      MigrationRule migration_rule,
+                      StopCondition stop_condition,
+                      File data_path)
+    {
+        this(rows, cols, initial_populations, env_changer,
+             dilution_rule, mutation_rule, migration_rule, stop_condition,
+             data_path, 1);
+    }
+
+    @Override
+    public void grow() {
+        state.setStep(getStep());
+        if (pool == null) {
+            state.grow();
+        } else {
+            state.grow(pool, n_threads*TASKS_PER_THREAD);
+        }
+        solves_skipped += state.getSkipped();
+    }
+
+    /**
+     * integrates the patches grown by each thread together, as one batch,
+     * instead of one at a time.
+     *
+     * @param batched {@code true} to integrate in batches.
+     */
+    public void setBatched(boolean batched) {
+        state.useBatchedSolver(batched);
+    }
+
+    /**
+     * draws births and deaths from counter-based streams keyed by the grow
+     * seed, the step, the patch, the strain and the event, instead of from
+     * one stream per patch.  Any step can then be reproduced on its own.
+     *
+     * @param counter_based {@code true} for counter-based streams.
+     * @see WorldState#useCounterStreams
+     */
+    public void setCounterBased(boolean counter_based) {
+        if (counter_based) {
+            state.useCounterStreams(grow_seed);
+        } else {
+            state.usePatchStreams(grow_seed);
+        }
+    }
+
+    /** stops the growing threads, if any. */
+    public void shutdown() {
+        if (pool != null) pool.shutdown();
+    }
+
+    public WorldState getState() { return state; }
+    public int getNThreads() { return n_threads; }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Running totals of the cells in a {@link World}: in all, in each patch, of
+ * each strain and of each type.  The {@link Subpopulation}s of the tracked
+ * {@link Population}s report every change of size as it is made, so the
+ * totals are always current and never need a pass over the
+ * Subpopulations.  Patches are indexed densely, as by
+ * {@link OccupiedLocations#index}; strains by handle in the World's
+ * {@link StrainRegistry}; types by a small index given out as they are
+ * first seen.
+ *
+ * Not thread-safe: sizes must be changed on one thread at a time.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+class Census {
+    private final StrainRegistry registry;
+    private final int[] patch_size;
+    private int total = 0;
+    private int n_occupied = 0;
+
+    // Sizes being watched, and the number of occupied patches smaller than
+    // each, so that asking costs nothing however many patches there are.
+    private int[] floors = new int[0];
+    private int[] n_below = new int[0];
+
+    private int[] by_strain = new int[0];
+    private int[] by_type = new int[0];
+
+    // The type index of each strain, plus two, by handle: zero for strains
+    // not seen yet and one for strains without a type.
+    private int[] type_of_strain = new int[0];
+    private final Map<String, Integer> type_index =
+        new HashMap<String, Integer>();
+
+    Census(int n_patches, StrainRegistry registry) {
+        this.patch_size = new int[n_patches];
+        this.registry = registry;
+    }
+
+    /** returns the registry the strains counted are in. */
+    StrainRegistry getRegistry() { return registry; }
+
+    /**
+     * records that the number of cells of {@code strain} in {@code patch}
+     * changed by {@code delta}.
+     *
+     * @param patch the patch index.
+     * @param strain the handle of the strain in the registry.
+     * @param delta the change.
+     */
+    void add(int patch, int strain, int delta) {
+        if (delta == 0) return;
+
+        int before = patch_size[patch];
+        int after = before + delta;
+        patch_size[patch] = after;
+        if (before == 0) {
+            n_occupied++;
+        } else if (after == 0) {
+            n_occupied--;
+        }
+        total += delta;
+        for (int i = 0; i < floors.length; i++) {
+            boolean was = before > 0 && before < floors[i];
+            boolean is = after > 0 && after < floors[i];
+            if (was != is) n_below[i] += is ? 1 : -1;
+        }
+
+        if (strain >= by_strain.length) {
+            int length = Math.max(strain+1, registry.size());
+            by_strain = Arrays.copyOf(by_strain, length);
+            type_of_strain = Arrays.copyOf(type_of_strain, length);
+        }
+        by_strain[strain] += delta;
+
+        if (type_of_strain[strain] == 0) {
+            type_of_strain[strain] = resolveType(strain) + 2;
+        }
+        int type = type_of_strain[strain] - 2;
+        if (type >= 0) by_type[type] += delta;
+    }
+
+    private int resolveType(int strain) {
+        String type = registry.get(strain).getType();
+        if (type == null) return -1;
+
+        Integer index = type_index.get(type);
+        if (index == null) {
+            index = type_index.size();
+            type_index.put(type, index);
+            by_type = Arrays.copyOf(by_type, index+1);
+        }
+        return index;
+    }
+
+    int getTotal() { return total; }
+    int getNOccupied() { return n_occupied; }
+    int getPatchSize(int patch) { return patch_size[patch]; }
+
+    /**
+     * returns the number of occupied patches holding fewer than {@code size}
+     * cells.  The first time a size is asked for, this is a pass over the
+     * patches; from then on the count is kept up to date as sizes change.
+     */
+    int getNOccupiedBelow(int size) {
+        for (int i = 0; i < floors.length; i++) {
+            if (floors[i] == size) return n_below[i];
+        }
+
+        int count = 0;
+        for (int patch_n:patch_size) {
+            if (patch_n > 0 && patch_n < size) count++;
+        }
+        floors = Arrays.copyOf(floors, floors.length+1);
+        n_below = Arrays.copyOf(n_below, n_below.length+1);
+        floors[floors.length-1] = size;
+        n_below[n_below.length-1] = count;
+        return count;
+    }
+
+    /**
+     * returns the index of a type, or -1 if no strain of that type has been
+     * counted.
+     */
+    int getTypeIndex(String type) {
+        Integer index = type_index.get(type);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * copies the sizes by strain into {@code to}, or into a new array if it
+     * is too short, and returns it.
+     */
+    int[] copyStrainSizes(int[] to) {
+        return copy(by_strain, to);
+    }
+
+    /**
+     * copies the sizes by type index into {@code to}, or into a new array if
+     * it is too short, and returns it.
+     */
+    int[] copyTypeSizes(int[] to) {
+        return copy(by_type, to);
+    }
+
+    private static int[] copy(int[] from, int[] to) {
+        if (to.length < from.length) to = new int[from.length];
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+}
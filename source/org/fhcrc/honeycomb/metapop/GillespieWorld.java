@@ -0,0 +1,408 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.SpecifiedPicker;
+import org.fhcrc.honeycomb.metapop.dilution.DilutionRule;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.dilution.PeriodicDilution;
+import org.fhcrc.honeycomb.metapop.environment.EnvironmentChanger;
+import org.fhcrc.honeycomb.metapop.stop.StopCondition;
+import org.fhcrc.honeycomb.metapop.mutation.MutationRule;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
+import org.fhcrc.honeycomb.metapop.migration.IndividualMigration;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+
+import java.io.File;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * A {@link World} that simulates births, deaths and migration exactly, in
+ * continuous time, with the next reaction method of Gibson and Bruck.  Every
+ * strain in every patch has a birth, a death and a migration channel whose
+ * next firing time is kept in an {@link IndexedPriorityQueue}; firing a
+ * channel only updates the channels of the patches it touches.  The time
+ * taken is proportional to the number of events rather than the number of
+ * time steps, which pays off when populations are small.
+ *
+ * Time is measured in steps of the discrete {@code World}, and the rates
+ * are those of its {@code FitnessCalculator}s and {@link MigrationRule},
+ * read as rates rather than per-step probabilities.  It differs from the discrete model in that
+ * <ul>
+ * <li>each birth consumes {@code gamma} resource at once, and resource
+ * released since a patch last changed is added when it next changes, so
+ * rates use the resource as of the patch's last event;</li>
+ * <li>as in {@link IndividualMigration}, a migrant is a copy of a cell of
+ * the source patch, which keeps its size;</li>
+ * <li>the state is written out, and the {@link StopCondition} checked, at
+ * save steps and whenever a strain dies out everywhere.</li>
+ * </ul>
+ *
+ * Only {@link IndividualMigration}, with any picker but a
+ * {@link SpecifiedPicker}, and {@link NoMigration},
+ * {@link PeriodicDilution} and {@link NoDilution}, {@link NoMutation} and
+ * environments that do not change are supported.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class GillespieWorld extends World {
+    private static final int BIRTH = 0;
+    private static final int DEATH = 1;
+    private static final int MIGRATION = 2;
+    private static final int N_KINDS = 3;
+
+    private final RandomNumberUser rng;
+    private final WorldState state;
+    private final int n_strains;
+    private final boolean[] has_pop;
+    private final long[] strain_totals;
+
+    private final double migration_rate;
+    private final double dilution_fraction;
+    private final int dilute_every;
+
+    // Reaction channels, indexed (patch*n_strains + strain)*N_KINDS + kind.
+    private final double[] propensity;
+    private final IndexedPriorityQueue queue;
+
+    // Time at which each patch's resource was last brought up to date.
+    private final double[] updated;
+    private double time = 0.0;
+    private long events = 0;
+
+    public GillespieWorld(int rows, int cols,
+                          List<Population> initial_populations,
+                          EnvironmentChanger env_changer,
+                          DilutionRule dilution_rule,
+                          MutationRule mutation_rule,
+                          MigrationRule migration_rule,
+                          StopCondition stop_condition,
+                          File data_path,
+                          int timestep_scale,
+                          RandomNumberUser rng)
+    {
+        super(rows, cols, initial_populations, env_changer, dilution_rule,
+              mutation_rule, migration_rule, stop_condition, data_path,
+              timestep_scale);
+        this.rng = rng;
+
+        if (env_changer.getProb() > 0) {
+            throw new IllegalArgumentException(
+                "GillespieWorld does not support environment changes.");
+        }
+        if (!(mutation_rule instanceof NoMutation)) {
+            throw new IllegalArgumentException(
+                "GillespieWorld does not support " + mutation_rule);
+        }
+        if (migration_rule instanceof IndividualMigration) {
+            if (migration_rule.getPicker() instanceof SpecifiedPicker) {
+                throw new IllegalArgumentException(
+                    "GillespieWorld picks migrant destinations by patch " +
+                    "index, which a SpecifiedPicker cannot do.");
+            }
+            migration_rate = migration_rule.getRate();
+        } else if (migration_rule instanceof NoMigration) {
+            migration_rate = 0.0;
+        } else {
+            throw new IllegalArgumentException(
+                "GillespieWorld does not support " + migration_rule);
+        }
+        if (dilution_rule instanceof PeriodicDilution) {
+            PeriodicDilution periodic = (PeriodicDilution) dilution_rule;
+            dilution_fraction = periodic.getFraction();
+            dilute_every = periodic.getEvery();
+        } else if (dilution_rule instanceof NoDilution) {
+            dilution_fraction = 0.0;
+            dilute_every = 0;
+        } else {
+            throw new IllegalArgumentException(
+                "GillespieWorld does not support " + dilution_rule);
+        }
+
+        int n_patches = rows*cols;
+        state = new WorldState(rows, cols);
+        state.gather(occupied_locations);
+        n_strains = state.getNStrains();
+
+        has_pop = new boolean[n_patches];
+        for (int i=0; i<state.getNTracked(); i++) {
+            has_pop[state.getTracked(i)] = true;
+        }
+        for (int patch=0; patch<n_patches; patch++) {
+            if (!has_pop[patch]) {
+                state.setCapacity(patch, Population.DEFAULT_CAPACITY);
+            }
+        }
+
+        strain_totals = new long[n_strains];
+        for (int patch=0; patch<n_patches; patch++) {
+            for (int s=0; s<n_strains; s++) {
+                strain_totals[s] += state.getCount(patch, s);
+            }
+        }
+
+        propensity = new double[n_patches*n_strains*N_KINDS];
+        queue = new IndexedPriorityQueue(propensity.length);
+        updated = new double[n_patches];
+        for (int patch=0; patch<n_patches; patch++) refresh(patch, -1);
+    }
+
+    @Override
+    public void iterate(List<Double> new_freqs, int iterations, int save_every)
+    {
+        long next_save = save_every;
+
+        // World dilutes at the start of a step, i.e. at the end of the last.
+        long next_dilution = (dilute_every > 0) ? dilute_every-1 :
+                                                  Long.MAX_VALUE;
+        try {
+            while (true) {
+                long boundary = Math.min(iterations,
+                                         Math.min(next_save, next_dilution));
+                if (queue.minKey() > boundary) {
+                    advanceTo(boundary, iterations);
+                    if (boundary == next_dilution) {
+                        dilutePatches();
+                        next_dilution += dilute_every;
+                        if (stopped()) break;
+                    }
+                    if (boundary == next_save) {
+                        publish();
+                        updateWorldSize();
+                        saveState();
+                        next_save += save_every;
+                    }
+                    if (boundary >= iterations) {
+                        publish();
+                        updateWorldSize();
+                        break;
+                    }
+                    continue;
+                }
+
+                int channel = queue.min();
+                time = queue.minKey();
+                step = (int) Math.ceil(time);
+                if (fire(channel) && stopped()) break;
+            }
+        } catch (Exception e) {
+            System.out.println(
+                    "\nCaught exception at step " + getStep() + ":\n");
+            publish();
+            saveState();
+            close();
+            e.printStackTrace();
+            System.exit(1);
+        }
+        close();
+    }
+
+    /**
+     * fires a channel.
+     *
+     * @return {@code true} if a strain died out.
+     */
+    private boolean fire(int channel) {
+        events++;
+        int kind = channel % N_KINDS;
+        int patch_strain = channel / N_KINDS;
+        int patch = patch_strain / n_strains;
+        int s = patch_strain % n_strains;
+
+        bringUpToDate(patch);
+        int n = state.getCount(patch, s);
+        if (kind == BIRTH) {
+            state.setCount(patch, s, n+1);
+            strain_totals[s]++;
+            double res = state.getResource(patch) -
+                         state.getStrain(s).getGamma();
+            state.setResource(patch, Math.max(res, 0.0));
+        } else if (kind == DEATH) {
+            state.setCount(patch, s, n-1);
+            strain_totals[s]--;
+        } else {
+            migration_rule.setCoordinate(coordinateOf(patch));
+            int dest = migration_rule.getPicker().pickIndex();
+            bringUpToDate(dest);
+            state.setCount(dest, s, state.getCount(dest, s)+1);
+            strain_totals[s]++;
+            refresh(dest, -1);
+        }
+        refresh(patch, channel);
+        return kind == DEATH && strain_totals[s] == 0;
+    }
+
+    /** adds the resource released in a patch since it last changed. */
+    private void bringUpToDate(int patch) {
+        double elapsed = time - updated[patch];
+        updated[patch] = time;
+        if (elapsed <= 0) return;
+
+        int size = state.getPatchSize(patch);
+        if (size == 0) return;
+        double scale = 1 - size/state.getCapacity(patch);
+        double released = 0.0;
+        for (int s=0; s<n_strains; s++) {
+            released += state.getCount(patch, s) *
+                        state.getStrain(s).getReleaseRate() * scale;
+        }
+        double res = state.getResource(patch) + released*elapsed;
+        state.setResource(patch, Math.max(res, 0.0));
+    }
+
+    /**
+     * recomputes the propensities of a patch's channels and reschedules
+     * them.  The channel that just fired, if any, gets a new waiting time;
+     * the others rescale what is left of theirs.
+     */
+    private void refresh(int patch, int fired) {
+        int size = state.getPatchSize(patch);
+        double res = state.getResource(patch);
+        boolean full = size >= state.getCapacity(patch);
+        int first = patch*n_strains*N_KINDS;
+        for (int s=0; s<n_strains; s++) {
+            Subpopulation strain = state.getStrain(s);
+            int n = state.getCount(patch, s);
+            int c = first + s*N_KINDS;
+            if (n == 0) {
+                reschedule(c+BIRTH, 0.0, fired);
+                reschedule(c+DEATH, 0.0, fired);
+                reschedule(c+MIGRATION, 0.0, fired);
+            } else {
+                reschedule(c+BIRTH, full ? 0.0 : n*strain.getGrowthRate(res),
+                           fired);
+                reschedule(c+DEATH, n*strain.getDeathRate(res), fired);
+                reschedule(c+MIGRATION, n*migration_rate, fired);
+            }
+        }
+    }
+
+    private void reschedule(int channel, double a_new, int fired) {
+        double a_old = propensity[channel];
+        propensity[channel] = a_new;
+        double next;
+        if (a_new <= 0.0) {
+            next = Double.POSITIVE_INFINITY;
+        } else if (channel == fired || a_old <= 0.0) {
+            next = time + rng.getNextExponential()/a_new;
+        } else if (a_old == a_new) {
+            return;
+        } else {
+            next = time + (a_old/a_new)*(queue.getKey(channel)-time);
+        }
+        queue.update(channel, next);
+    }
+
+    /** moves to an exact step with no event, and brings every patch there. */
+    private void advanceTo(long boundary, int iterations) {
+        time = boundary;
+        step = (int) boundary;
+        printStep(iterations);
+        for (int patch=0; patch<state.getNPatches(); patch++) {
+            if (state.getPatchSize(patch) == 0) {
+                updated[patch] = time;
+                continue;
+            }
+            bringUpToDate(patch);
+            refresh(patch, -1);
+        }
+    }
+
+    /** dilutes every patch as the {@link PeriodicDilution} does. */
+    private void dilutePatches() {
+        for (int patch=0; patch<state.getNPatches(); patch++) {
+            for (int s=0; s<n_strains; s++) {
+                int n = state.getCount(patch, s);
+                if (n == 0) continue;
+                int removed = rng.getNextBinomial(n, dilution_fraction);
+                state.setCount(patch, s, n-removed);
+                strain_totals[s] -= removed;
+            }
+            double res = state.getResource(patch)*(1-dilution_fraction);
+            if (res < Population.MIN_RESOURCE) res = 0.0;
+            state.setResource(patch, res);
+            refresh(patch, -1);
+        }
+    }
+
+    /** writes the state back to the Populations and checks for stopping. */
+    private boolean stopped() {
+        publish();
+        updateWorldSize();
+        if (all_extinct || stop_condition.isMet()) {
+            saveState();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * writes the state back to the {@link Population}s, adding one for every
+     * patch that was colonised.
+     */
+    private void publish() {
+        for (Population pop:occupied_locations.getList()) {
+            int patch = state.index(pop.getCoordinate());
+            for (int s=0; s<n_strains; s++) {
+                Subpopulation strain = state.getStrain(s);
+                if (state.getCount(patch, s) > 0 &&
+                    pop.getSubpop(strain.getStrain()) == null)
+                {
+                    Subpopulation added = new Subpopulation(strain);
+                    added.setSize(0);
+                    pop.addNewSubpopulation(added);
+                }
+            }
+        }
+        state.scatter(occupied_locations);
+
+        for (int patch=0; patch<state.getNPatches(); patch++) {
+            if (has_pop[patch] || state.getPatchSize(patch) == 0) continue;
+
+            List<Subpopulation> subpops =
+                new ArrayList<Subpopulation>(n_strains);
+            for (int s=0; s<n_strains; s++) {
+                Subpopulation sub = new Subpopulation(state.getStrain(s));
+                sub.setSize(state.getCount(patch, s));
+                subpops.add(sub);
+            }
+            occupied_locations.add(
+                new Population(subpops, coordinateOf(patch),
+                               state.getResource(patch),
+                               state.getCapacity(patch),
+                               state.getStrain(0).getRNG()));
+            has_pop[patch] = true;
+        }
+    }
+
+    private Coordinate coordinateOf(int patch) {
+        return new Coordinate(patch/cols + 1, patch%cols + 1);
+    }
+
+    /** returns the current time, in steps. */
+    public double getTime() { return time; }
+
+    /** returns the number of events so far. */
+    public long getEvents() { return events; }
+}
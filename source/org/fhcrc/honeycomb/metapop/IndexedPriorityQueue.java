@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over the items {@code 0..n-1}, each with a
+ * {@code double} key, that can change the key of any item in
+ * {@code O(log n)}.  Used to find the next reaction in a
+ * {@link GillespieWorld}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class IndexedPriorityQueue {
+    private final double[] keys;
+    private final int[] heap;
+    private final int[] position;
+
+    /**
+     * constructs a queue of {@code n} items, all with an infinite key.
+     *
+     * @param n the number of items.
+     */
+    public IndexedPriorityQueue(int n) {
+        keys = new double[n];
+        heap = new int[n];
+        position = new int[n];
+        Arrays.fill(keys, Double.POSITIVE_INFINITY);
+        for (int i=0; i<n; i++) {
+            heap[i] = i;
+            position[i] = i;
+        }
+    }
+
+    public int size() { return heap.length; }
+
+    /** returns the item with the smallest key. */
+    public int min() { return heap[0]; }
+
+    /** returns the smallest key. */
+    public double minKey() { return keys[heap[0]]; }
+
+    public double getKey(int item) { return keys[item]; }
+
+    /**
+     * changes the key of an item.
+     *
+     * @param item the item.
+     * @param key the new key.
+     */
+    public void update(int item, double key) {
+        double old = keys[item];
+        keys[item] = key;
+        if (key < old) {
+            siftUp(position[item]);
+        } else if (key > old) {
+            siftDown(position[item]);
+        }
+    }
+
+    private void siftUp(int i) {
+        int item = heap[i];
+        double key = keys[item];
+        while (i > 0) {
+            int parent = (i-1) >>> 1;
+            int p_item = heap[parent];
+            if (keys[p_item] <= key) break;
+            heap[i] = p_item;
+            position[p_item] = i;
+            i = parent;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+
+    private void siftDown(int i) {
+        int n = heap.length;
+        int item = heap[i];
+        double key = keys[item];
+        while (true) {
+            int child = 2*i + 1;
+            if (child >= n) break;
+            if (child+1 < n && keys[heap[child+1]] < keys[heap[child]]) {
+                child++;
+            }
+            int c_item = heap[child];
+            if (keys[c_item] >= key) break;
+            heap[i] = c_item;
+            position[c_item] = i;
+            i = child;
+        }
+        heap[i] = item;
+        position[item] = i;
+    }
+}
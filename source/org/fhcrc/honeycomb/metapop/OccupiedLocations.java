@@ -22,6 +22,7 @@ package org.fhcrc.honeycomb.metapop;
 import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -31,6 +32,10 @@ import java.util.HashMap;
  * if the size of a Population falls to zero, it is still tracked, as it might
  * contain resource.
  *
+ * When the dimensions of the world are known, Populations are also indexed
+ * densely by {@code (row-1)*cols + (col-1)}, so that looking one up is an
+ * array access; otherwise they are looked up in a map.
+ *
  * Created on 25 Apr, 2013
  * @author Adam Waite
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
@@ -40,16 +45,44 @@ public class OccupiedLocations {
     private List<Population> list;
     private Map<Coordinate, Population> map;
 
+    // Dense index, if the dimensions are known.
+    private int rows;
+    private int cols;
+    private Population[] patches;
+    private BitSet tracked;
+    private Census census;
+    private WorldState state;
+
     /** Constructor */
     public OccupiedLocations(List<Population> pops, int max_size) {
-        list = new ArrayList<Population>(max_size);
-        map = new HashMap<Coordinate, Population>(max_size);
         list = Population.copyPopulations(pops);
+        map = new HashMap<Coordinate, Population>(max_size);
         for (Population pop:list) {
             map.put(pop.getCoordinate(), pop);
         }
     }
 
+    /**
+     * tracks {@code pops} in a world of {@code rows} by {@code cols}
+     * locations, indexed densely.
+     *
+     * @param pops the Populations, which are copied.
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     */
+    public OccupiedLocations(List<Population> pops, int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.patches = new Population[rows*cols];
+        this.tracked = new BitSet(rows*cols);
+        list = Population.copyPopulations(pops);
+        for (Population pop:list) {
+            int patch = index(pop.getCoordinate());
+            patches[patch] = pop;
+            tracked.set(patch);
+        }
+    }
+
     /**
      * gets a List representation of the OccupiedLocations.
      *
@@ -93,11 +126,47 @@ public class OccupiedLocations {
 
     /**
      * gets a Map representation of the OccupiedLocations that indicates where
-     * each Population is.
+     * each Population is.  With a dense index the map is built from it, and
+     * changes to the map are not reflected here.
      *
      * @return a Map of Populations.
      */
-    public Map<Coordinate, Population> getMap() { return map; }
+    public Map<Coordinate, Population> getMap() {
+        if (patches == null) return map;
+
+        Map<Coordinate, Population> view =
+            new HashMap<Coordinate, Population>(list.size());
+        for (int i=tracked.nextSetBit(0); i>=0; i=tracked.nextSetBit(i+1)) {
+            view.put(patches[i].getCoordinate(), patches[i]);
+        }
+        return view;
+    }
+
+    /**
+     * returns whether locations are indexed densely.
+     *
+     * @return {@code true} if the dimensions were given.
+     */
+    public boolean isDense() { return patches != null; }
+
+    /**
+     * returns the dense index of {@code coordinate}.
+     *
+     * @param coordinate the Coordinate.
+     * @return {@code (row-1)*cols + (col-1)}.
+     */
+    public int index(Coordinate coordinate) {
+        return index(coordinate.getRow(), coordinate.getCol());
+    }
+
+    private int index(int row, int col) {
+        if (row < 1 || row > rows || col < 1 || col > cols) {
+            throw new IllegalArgumentException(
+                "row " + row + " col " + col + " is outside the " + rows +
+                "x" + cols + " world.");
+        }
+        return (row-1)*cols + (col-1);
+    }
 
     /**
      * checks whether the passed Coordinate is currently being tracked.
@@ -106,7 +175,7 @@ public class OccupiedLocations {
      * @return whether the coordinate is being tracked.
      */
     public boolean isOccupied(Coordinate coordinate) {
-        return (map.get(coordinate) == null) ? false : true;
+        return getPopulationAt(coordinate) != null;
     }
 
     /**
@@ -116,7 +185,30 @@ public class OccupiedLocations {
      * @return the Population at this Coordinate.
      */
     public Population getPopulationAt(Coordinate coordinate) {
-        return map.get(coordinate);
+        if (patches == null) return map.get(coordinate);
+        return patches[index(coordinate)];
+    }
+
+    /**
+     * gets the Population at {@code row} and {@code col}, or {@code null}.
+     *
+     * @param row the row.
+     * @param col the column.
+     * @return the Population there.
+     */
+    public Population getPopulationAt(int row, int col) {
+        if (patches == null) return map.get(new Coordinate(row, col));
+        return patches[index(row, col)];
+    }
+
+    /**
+     * gets the Population at dense index {@code patch}, or {@code null}.
+     *
+     * @param patch the index.
+     * @return the Population there.
+     */
+    public Population getPopulationAt(int patch) {
+        return patches[patch];
     }
 
     /**
@@ -139,7 +231,7 @@ public class OccupiedLocations {
      * @param incoming_pop the population to mix or add.
      */
     public void addOrMix(Population incoming_pop) {
-        Population pop = map.get(incoming_pop.getCoordinate());
+        Population pop = getPopulationAt(incoming_pop.getCoordinate());
         if (pop == null) {
             add(incoming_pop);
         } else {
@@ -154,12 +246,52 @@ public class OccupiedLocations {
      */
     public void add(Population pop) {
         list.add(pop);
-        map.put(pop.getCoordinate(), pop);
+        if (patches == null) {
+            map.put(pop.getCoordinate(), pop);
+        } else {
+            int patch = index(pop.getCoordinate());
+            patches[patch] = pop;
+            tracked.set(patch);
+            if (census != null) pop.attach(census, patch);
+            if (state != null) pop.bind(state);
+        }
+    }
+
+    /**
+     * keeps {@code census} up to date with the cells of every Population
+     * tracked, now and from now on.  Locations must be indexed densely.
+     *
+     * @param census the Census.
+     */
+    void setCensus(Census census) {
+        if (patches == null) {
+            throw new IllegalStateException(
+                "a Census needs densely indexed locations.");
+        }
+        this.census = census;
+        for (Population pop:list) {
+            pop.attach(census, index(pop.getCoordinate()));
+        }
+    }
+
+    /**
+     * moves the sizes, resource and capacity of every Population tracked,
+     * now and from now on, into {@code state}; see {@link Population#bind}.
+     * Locations must be indexed densely.
+     *
+     * @param state the WorldState.
+     */
+    void setState(WorldState state) {
+        if (patches == null) {
+            throw new IllegalStateException(
+                "a WorldState needs densely indexed locations.");
+        }
+        this.state = state;
+        for (Population pop:list) pop.bind(state);
     }
 
     @Override
     public String toString() {
-        return map.toString();
+        return getMap().toString();
     }
 }
-
@@ -21,11 +21,13 @@ package org.fhcrc.honeycomb.metapop;
 
 import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.CoordinatePicker;
-import org.fhcrc.honeycomb.metapop.ode.ConsumptionODE;
+import org.fhcrc.honeycomb.metapop.ode.PopulationDynamicsSolver;
+import org.fhcrc.honeycomb.metapop.ode.SolverPool;
 
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -40,11 +42,9 @@ import java.math.BigDecimal;
  *
  */
 public class Population {
-    private static final double RESOURCE_TOL = -1e-6;
-    private static final double MIN_RESOURCE = 1e-6;
-    private static final double DEFAULT_CAPACITY = 1e6;
-
-    private static ConsumptionODE ode;
+    static final double RESOURCE_TOL = -1e-6;
+    static final double MIN_RESOURCE = 1e-6;
+    static final double DEFAULT_CAPACITY = 1e6;
 
     private List<Subpopulation> subpopulations;
     private double capacity;
@@ -52,8 +52,22 @@ public class Population {
     private double prev_resource;
     private Coordinate coordinate;
     private int n_subpopulations;
-    private HashMap<String, Integer> size_by_id;
+
+    // The registry of the strains of the Subpopulations, and the position
+    // of the first Subpopulation of each strain, plus one, by handle; zero
+    // where there is none; and whether some strain has more than one
+    // Subpopulation.
+    private StrainRegistry registry;
+    private int[] slots = new int[0];
+    private boolean repeated = false;
     private RandomNumberUser rng;
+    private boolean last_grow_skipped = false;
+
+    // The Census of the World this Population is in, if any, and its patch.
+    private Census census;
+    private int patch;
+    // The WorldState that holds the sizes and resource, if any.
+    private WorldState state;
 
     /** Constructor. */
     public Population(final List<Subpopulation> subpopulations,
@@ -70,13 +84,15 @@ public class Population {
         this.resource = resource;
         this.prev_resource = resource;
         this.capacity = capacity;
-        this.size_by_id = new HashMap<String, Integer>(n_subpopulations);
         this.rng = rng;
 
-        updateSizeById();
-        if (ode == null) {
-            this.ode = new ConsumptionODE(this);
-        }
+        this.registry = this.subpopulations.isEmpty()
+                      ? StrainRegistry.shared()
+                      : this.subpopulations.get(0).getDescriptor()
+                                                  .getRegistry();
+        for (Subpopulation sub:this.subpopulations) sub.adopt(registry);
+
+        reindex();
     }
     public Population(final List<Subpopulation> subpopulations,
                       final Coordinate coordinate,
@@ -109,7 +125,6 @@ public class Population {
         }
 
         this.coordinate = cp.pick();
-        updateSizeById();
     }
 
     /**
@@ -182,7 +197,9 @@ public class Population {
      * returns the maximum size.
      * @return the maximum size.
      */
-    public double getCapacity() { return capacity; }
+    public double getCapacity() {
+        return (state == null) ? capacity : state.getCapacity(patch);
+    }
 
     /**
      * returns the {@link RandomNumberUser}.
@@ -194,20 +211,37 @@ public class Population {
      * returns the amount of resource.
      * @return the amount of resource.
      */
-    public double getResource() { return resource; }
+    public double getResource() {
+        return (state == null) ? resource : state.getResource(patch);
+    }
+
+    /**
+     * returns whether the last {@link #grow} skipped integrating because the
+     * {@code Population} was quiescent.
+     * @return {@code true} if integration was skipped.
+     */
+    public boolean lastGrowSkipped() { return last_grow_skipped; }
 
     /**
      * sets the amount of resource.
      */
     public void setResource(double new_resource) {
-        this.resource = new_resource;
+        if (state != null) {
+            state.setResource(patch, new_resource);
+        } else {
+            this.resource = new_resource;
+        }
     }
 
     /**
      * sets the carrying capacity.
      */
     public void setCapacity(double new_capacity) {
-        this.capacity = new_capacity;
+        if (state != null) {
+            state.setCapacity(patch, new_capacity);
+        } else {
+            this.capacity = new_capacity;
+        }
     }
 
     /**
@@ -234,18 +268,31 @@ public class Population {
     public void grow() { grow(1.0); }
 
     /** 
-     * Updates subpopulation sizes.  Uses {@link ConsumptionODE} to determine
-     * the average amount of resource available during the time step, then
-     * uses this to calculate the (whole) number of births and deaths.
+     * Updates subpopulation sizes.  Uses a {@link PopulationDynamicsSolver}
+     * to determine the average amount of resource available during the time
+     * step, then uses this to calculate the (whole) number of births and
+     * deaths.
+     *
+     * @param timestep_length the number of time steps to grow for.  Births
+     * and deaths over several steps are drawn at once, with probabilities
+     * scaled by the length (see {@link Subpopulation#getBirths(double,
+     * double)}), so the length should be short compared to the time over
+     * which the rates change.
      */
     public void grow(double timestep_length) {
+        last_grow_skipped = false;
         if (getSize() == 0) return;
 
+        double resource = getResource();
+        double capacity = getCapacity();
         prev_resource = resource;
         if (getSize() < capacity) {
 
-            //ConsumptionODE ode = new ConsumptionODE(this);
+            PopulationDynamicsSolver ode = SolverPool.get(n_subpopulations);
+            ode.setTimestepLength(timestep_length);
+            ode.load(subpopulations, capacity);
             ode.integrate(this);
+            last_grow_skipped = ode.wasSkipped();
             resource = ode.integrateResource();
 
             if (resource < RESOURCE_TOL) {
@@ -258,17 +305,18 @@ public class Population {
                 throw new RuntimeException(fail);
 
             } else if (resource < 0) {
-                removeResidualResource();
+                resource = 0.0;
             }
+            setResource(resource);
             for (Subpopulation subpop:subpopulations) {
-                int births = subpop.getBirths(resource);
-                int deaths = subpop.getDeaths(resource);
+                int births = subpop.getBirths(resource, timestep_length);
+                int deaths = subpop.getDeaths(resource, timestep_length);
 
                 subpop.setSize(subpop.getSize() + births - deaths);
             }
         } else {
             for (Subpopulation subpop:subpopulations) {
-                int deaths = subpop.getDeaths(resource);
+                int deaths = subpop.getDeaths(resource, timestep_length);
 
                 subpop.setSize(subpop.getSize() - deaths);
             }
@@ -283,12 +331,8 @@ public class Population {
      */
     public void dilute(double fraction) {
         collectMigrants(fraction);
-        resource *= (1-fraction);
-        removeResidualResource();
-    }
-
-    private void removeResidualResource() {
-        if (resource < MIN_RESOURCE) resource = 0.0;
+        double diluted = getResource()*(1-fraction);
+        setResource((diluted < MIN_RESOURCE) ? 0.0 : diluted);
     }
 
     /**
@@ -321,18 +365,80 @@ public class Population {
      */
     public void mix(final Population incoming) {
         for (Subpopulation in_sub:incoming.getSubpopulations()) {
-            String in_sub_id = in_sub.getId();
-            Subpopulation res_sub = getSubpopById(in_sub_id);
+            Subpopulation res_sub = getSubpop(handleOf(in_sub));
             if (res_sub == null) {
-                subpopulations.add(new Subpopulation(in_sub));
-                n_subpopulations += 1;
-                size_by_id.put(in_sub.getId(), in_sub.getSize());
+                addNewSubpopulation(in_sub);
             } else {
                 res_sub.setSize(res_sub.getSize() + in_sub.getSize());
             }
         }
     }
 
+    /**
+     * adds {@code n} cells of the strain of {@code sub}, just as {@link #mix}
+     * would for an incoming Population holding only those cells.
+     *
+     * @param sub the Subpopulation the cells belong to.
+     * @param n the number of cells.
+     */
+    public void addMigrants(final Subpopulation sub, final int n) {
+        Subpopulation res_sub = getSubpop(handleOf(sub));
+        if (res_sub == null) {
+            Subpopulation new_sub = new Subpopulation(sub);
+            new_sub.setSize(n);
+            addNewSubpopulation(new_sub);
+        } else {
+            res_sub.setSize(res_sub.getSize() + n);
+        }
+    }
+
+    // The handle in this Population's registry of the strain of a
+    // Subpopulation, which may come from another.
+    private int handleOf(Subpopulation sub) {
+        return registry.adopt(sub.getDescriptor()).getHandle();
+    }
+
+    /**
+     * reports the cells of this Population, and from now on every change in
+     * their numbers, to {@code census} as being in {@code patch}.  The
+     * strains move into the census' registry first.
+     */
+    void attach(Census census, int patch) {
+        this.census = census;
+        this.patch = patch;
+        this.registry = census.getRegistry();
+        for (Subpopulation sub:subpopulations) sub.attach(census, patch);
+        reindex();
+    }
+
+    /**
+     * moves the sizes, resource and capacity of this Population into
+     * {@code state}, which holds them from then on; the Population and its
+     * Subpopulations become views of it.  A Subpopulation that repeats the
+     * strain of an earlier one gives its cells to that one and is left
+     * empty.
+     *
+     * @param state the WorldState.
+     */
+    void bind(WorldState state) {
+        int patch = state.index(coordinate);
+        state.track(patch);
+        state.setResource(patch, resource);
+        state.setCapacity(patch, capacity);
+        this.state = state;
+        this.patch = patch;
+
+        for (Subpopulation sub:subpopulations) {
+            Subpopulation first = getSubpop(sub.getStrain());
+            if (first == sub) {
+                sub.bind(state, patch);
+            } else {
+                first.setSize(first.getSize() + sub.getSize());
+                sub.setSize(0);
+            }
+        }
+    }
+
     /** 
      * sets the Coordinate.
      *
@@ -348,9 +454,13 @@ public class Population {
      *@param new_sub the Subpopulation to be added.
     */
     public void addNewSubpopulation(Subpopulation new_sub) {
-        subpopulations.add(new Subpopulation(new_sub));
+        Subpopulation added = new Subpopulation(new_sub);
+        added.adopt(registry);
+        subpopulations.add(added);
+        if (census != null) added.attach(census, patch);
+        if (state != null) added.bind(state, patch);
         this.n_subpopulations++;
-        size_by_id.put(new_sub.getId(), new_sub.getSize());
+        index(subpopulations.size()-1);
     }
 
     /** 
@@ -361,43 +471,83 @@ public class Population {
      *
      */
     public Subpopulation getSubpopById(String id) {
-        for (Subpopulation subpop:subpopulations) {
-            if (subpop.getId().equals(id)) {
-                return subpop;
-            }
+        for (int strain = registry.lookup(id); strain >= 0;
+             strain = registry.get(strain).getPrevious())
+        {
+            Subpopulation sub = getSubpop(strain);
+            if (sub != null) return sub;
         }
         return null;
     }
 
+    /** 
+     * gets the first Subpopulation of a strain.  Returns {@code null} if the
+     * strain is not in this Population.
+     *
+     * @param strain the handle of the strain in the {@link StrainRegistry}
+     *               of this Population's Subpopulations.
+     */
+    public Subpopulation getSubpop(int strain) {
+        if (strain >= slots.length) return null;
+        int slot = slots[strain] - 1;
+        if (slot < 0) return null;
+
+        Subpopulation sub = (slot < subpopulations.size())
+                          ? subpopulations.get(slot) : null;
+        if (sub == null || sub.getStrain() != strain) {
+            // The list was changed from outside; start again.
+            reindex();
+            slot = (strain < slots.length) ? slots[strain] - 1 : -1;
+            return (slot < 0) ? null : subpopulations.get(slot);
+        }
+        return sub;
+    }
+
+    private void reindex() {
+        int max = -1;
+        for (Subpopulation sub:subpopulations) {
+            max = Math.max(max, sub.getStrain());
+        }
+        slots = new int[max+1];
+        repeated = false;
+        for (int i=subpopulations.size()-1; i>=0; i--) {
+            int strain = subpopulations.get(i).getStrain();
+            if (slots[strain] != 0) repeated = true;
+            slots[strain] = i+1;
+        }
+    }
+
+    private void index(int slot) {
+        int strain = subpopulations.get(slot).getStrain();
+        if (strain >= slots.length) {
+            slots = Arrays.copyOf(slots,
+                                  Math.max(strain+1, 2*slots.length));
+        }
+        if (slots[strain] == 0) {
+            slots[strain] = slot+1;
+        } else {
+            repeated = true;
+        }
+    }
+
     //Returns a list of subpopulations with type "coop" or "cheat".
     public List<Subpopulation> getSubpopsByType(String type) {
         List<Subpopulation> subpops = new ArrayList<Subpopulation>();
         for (Subpopulation subpop:subpopulations) {
-            String id = subpop.getId();
-            String sub_type = id.substring(0, id.indexOf('_'));
-            if (sub_type.equals(type)) {
-                subpops.add(subpop);
-            }
+            if (type.equals(subpop.getType())) subpops.add(subpop);
         }
         return subpops;
     }
 
     //Returns the total size of all subpopulations with type "coop" or "cheat".
     public int getSizeByType(String type) {
-        List<Subpopulation> subpops = new ArrayList<Subpopulation>();
-        for (Subpopulation subpop:subpopulations) {
-            String id = subpop.getId();
-            String sub_type = id.substring(0, id.indexOf('_'));
-            if (sub_type.equals(type)) {
-                subpops.add(subpop);
-            }
-        }
         int total = 0;
-        for (Subpopulation subpop:subpops) {
-            total += subpop.getSize();
+        for (Subpopulation subpop:subpopulations) {
+            if (type.equals(subpop.getType())) total += subpop.getSize();
         }
         return total;
     }
+
     /**
      * returns the size of all {@link Subpopulation}(s) with the given Id.
      * Returns zero if the id is not found.
@@ -406,34 +556,45 @@ public class Population {
      * @return   the size of the Subpopulation(s) with this Id.
      */
     public int getSizeById(String id) {
-        Integer size = updateSizeById().get(id);
-        return (size == null) ? 0 : size;
+        int total = 0;
+        for (int strain = registry.lookup(id); strain >= 0;
+             strain = registry.get(strain).getPrevious())
+        {
+            total += sizeOfStrain(strain);
+        }
+        return total;
     }
 
-    /**
-     * Currently identical to {@link #updateSizeById}, but kept in case
-     * getting should be separate from updating.
-     *
-     * @return the updated Map.
-     */
-    public Map<String, Integer> getSizeById() {
-        return updateSizeById();
+    // The size of a strain: that of its first Subpopulation, unless some
+    // strain is repeated.
+    private int sizeOfStrain(int strain) {
+        Subpopulation sub = getSubpop(strain);
+        if (sub == null) return 0;
+        if (!repeated) return sub.getSize();
+
+        int total = 0;
+        for (int i=slots[strain]-1; i<subpopulations.size(); i++) {
+            Subpopulation other = subpopulations.get(i);
+            if (other.getStrain() == strain) total += other.getSize();
+        }
+        return total;
     }
 
     /**
-     * update the data structure relating the size of each Subpopulation id.
+     * returns the size of each Subpopulation id, in a Map made for the
+     * caller.  Nothing is kept between calls.
      *
-     * @return the updated Map.
+     * @return the sizes by id.
      */
-    public Map<String, Integer> updateSizeById() { 
-        size_by_id.clear();
-        for (Subpopulation sub:subpopulations) {
-            String id = sub.getId();
-            if (size_by_id.containsKey(id)) {
-                size_by_id.put(id, size_by_id.get(id) + sub.getSize());
-            } else {
-                size_by_id.put(id, sub.getSize());
-            }
+    public Map<String, Integer> getSizeById() {
+        Map<String, Integer> size_by_id =
+            new HashMap<String, Integer>(n_subpopulations);
+        for (int strain=0; strain<slots.length; strain++) {
+            if (slots[strain] == 0) continue;
+            String id = registry.get(strain).getId();
+            int size = sizeOfStrain(strain);
+            Integer before = size_by_id.get(id);
+            size_by_id.put(id, (before == null) ? size : before + size);
         }
         return size_by_id;
     }
@@ -448,7 +609,8 @@ public class Population {
                                   getCoordinate(), getSize(), getResource(),
                                   getCapacity(), getNSubpopulations()));
 
-        report.append(spacer).append((new ConsumptionODE(this)).toString());
+        report.append(spacer)
+              .append(SolverPool.get(n_subpopulations).toString());
         for (Subpopulation sub:subpopulations) {
             report.append(spacer).append(sub).append("\n");
         }
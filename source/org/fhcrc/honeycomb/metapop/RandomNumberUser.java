@@ -19,13 +19,24 @@
 
 package org.fhcrc.honeycomb.metapop;
 
+import org.fhcrc.honeycomb.metapop.sampler.BinomialSampler;
+import org.fhcrc.honeycomb.metapop.sampler.PoissonSampler;
+import org.fhcrc.honeycomb.metapop.rng.PhiloxGenerator;
+import org.fhcrc.honeycomb.metapop.rng.SplitMix64;
+import org.fhcrc.honeycomb.metapop.rng.SplittableGenerator;
+import org.fhcrc.honeycomb.metapop.rng.Xoshiro256StarStar;
+
 import java.util.List;
 import org.apache.commons.math3.random.RandomDataGenerator;
 import org.apache.commons.math3.random.RandomGenerator;
 import org.apache.commons.math3.random.Well19937c;
 
 /** 
- * A wrapper class for all random number generation.
+ * A wrapper class for all random number generation.  The underlying
+ * generator, or engine, is one of {@value #WELL19937C}, the original,
+ * {@value #XOSHIRO256SS}, {@value #SPLITMIX64} or {@value #PHILOX4X32}.  The
+ * last three keep only a few words of state and split off independent
+ * streams cheaply; Philox can also be positioned at any draw.
  *
  * Created on 12 Feb, 2012
  * @author Adam Waite
@@ -33,14 +44,60 @@ import org.apache.commons.math3.random.Well19937c;
  *
  */
 public class RandomNumberUser {
+    public static final String WELL19937C = "well19937c";
+    public static final String XOSHIRO256SS = "xoshiro256**";
+    public static final String SPLITMIX64 = "splitmix64";
+    public static final String PHILOX4X32 = "philox4x32";
+    public static final String DEFAULT_ENGINE = WELL19937C;
+
     protected final long DEFAULT_SEED = System.nanoTime();
 
+    private static String default_engine = DEFAULT_ENGINE;
+
+    // Variance n*p*(1-p) above which hybrid binomial draws are approximated.
+    // Infinite thresholds keep every draw exact.
+    private static double default_normal_threshold =
+        Double.POSITIVE_INFINITY;
+    private static double default_deterministic_threshold =
+        Double.POSITIVE_INFINITY;
+
+    // Whether new RandomNumberUsers draw binomials and Poissons through
+    // RandomDataGenerator instead of the samplers.  On by default, so that
+    // a seed gives the same run as it always has.
+    private static boolean default_legacy = true;
+
     protected RandomDataGenerator rng = null;
+    protected RandomGenerator generator = null;
+    protected BinomialSampler binomial = null;
+    protected PoissonSampler poisson = null;
+    protected boolean legacy = default_legacy;
+    protected String engine;
     protected long seed;
+    private long splits = 0;
+
+    private double normal_threshold = default_normal_threshold;
+    private double deterministic_threshold = default_deterministic_threshold;
+    private long exact_draws = 0;
+    private long normal_draws = 0;
+    private long deterministic_draws = 0;
+
+    public RandomNumberUser(long seed, String engine) {
+        this(makeGenerator(engine, seed), engine, seed);
+    }
 
     public RandomNumberUser(long seed) {
+        this(seed, default_engine);
+    }
+
+    private RandomNumberUser(RandomGenerator generator, String engine,
+                             long seed)
+    {
         this.seed = seed;
-        this.rng = new RandomDataGenerator(new Well19937c(seed));
+        this.engine = engine;
+        this.generator = generator;
+        this.rng = new RandomDataGenerator(generator);
+        this.binomial = new BinomialSampler(generator);
+        this.poisson = new PoissonSampler(generator);
     }
 
     public RandomNumberUser() {
@@ -55,27 +112,311 @@ public class RandomNumberUser {
         return rng.nextUniform(min, max);
     }
 
+    /**
+     * draws from the exponential distribution with mean 1, by inversion and
+     * without going through {@code RandomDataGenerator}, which builds a
+     * distribution object per draw.
+     *
+     * @return the draw.
+     */
+    public double getNextExponential() {
+        return -Math.log(1.0 - generator.nextDouble());
+    }
+
     public int getNextBinomial(int n, double p) {
-        return rng.nextBinomial(n, p);
+        if (legacy) return rng.nextBinomial(n, p);
+        return binomial.sample(n, p);
     }
 
     public int getNextBinomial(int n, Double p) {
-        return rng.nextBinomial(n, p.doubleValue());
+        return getNextBinomial(n, p.doubleValue());
+    }
+
+    /**
+     * fills {@code draws} with a binomial draw for each pair of {@code n[i]}
+     * and {@code p[i]}.
+     *
+     * @param n the numbers of trials.
+     * @param p the probabilities of success.
+     * @param draws where the draws are put.
+     */
+    public void getNextBinomials(int[] n, double[] p, int[] draws) {
+        if (!legacy) {
+            binomial.sample(n, p, draws);
+            return;
+        }
+        for (int i=0; i<n.length; i++) draws[i] = rng.nextBinomial(n[i], p[i]);
+    }
+
+    /**
+     * draws from a binomial distribution, approximating the draw when it is
+     * large enough for the approximation to be indistinguishable.  With
+     * variance {@code v = n*p*(1-p)}:
+     * <ul>
+     * <li>below the normal threshold the draw is exact, so small
+     * populations, and their extinctions, are sampled faithfully;</li>
+     * <li>below the deterministic threshold it is drawn from the normal
+     * distribution with the same mean and variance;</li>
+     * <li>otherwise it is the expectation {@code n*p}, rounded up or down at
+     * random so that its mean is unchanged.</li>
+     * </ul>
+     * Approximate draws are rounded and clamped to {@code [0, n]}.
+     *
+     * @param n the number of trials.
+     * @param p the probability of success.
+     * @return the number of successes.
+     */
+    public int getNextHybridBinomial(int n, double p) {
+        double variance = n*p*(1-p);
+        if (variance <= normal_threshold) {
+            exact_draws++;
+            return getNextBinomial(n, p);
+        }
+
+        double mean = n*p;
+        double draw;
+        if (variance <= deterministic_threshold) {
+            normal_draws++;
+            draw = Math.rint(mean + Math.sqrt(variance) *
+                             generator.nextGaussian());
+        } else {
+            deterministic_draws++;
+            draw = Math.floor(mean);
+            if (generator.nextDouble() < mean - draw) draw++;
+        }
+        return (int) Math.max(0.0, Math.min(n, draw));
+    }
+
+    /**
+     * sets the variances above which {@link #getNextHybridBinomial} draws from
+     * the normal approximation and uses the expectation.
+     *
+     * @param normal_threshold the variance above which draws are normal.
+     * @param deterministic_threshold the variance above which draws are the
+     *                                expectation.
+     */
+    public void setHybridThresholds(double normal_threshold,
+                                    double deterministic_threshold)
+    {
+        checkThresholds(normal_threshold, deterministic_threshold);
+        this.normal_threshold = normal_threshold;
+        this.deterministic_threshold = deterministic_threshold;
+    }
+
+    /**
+     * sets the thresholds given to {@code RandomNumberUser}s constructed
+     * from now on.
+     *
+     * @see #setHybridThresholds
+     */
+    public static void setDefaultHybridThresholds(
+            double normal_threshold, double deterministic_threshold)
+    {
+        checkThresholds(normal_threshold, deterministic_threshold);
+        default_normal_threshold = normal_threshold;
+        default_deterministic_threshold = deterministic_threshold;
+    }
+
+    private static void checkThresholds(double normal_threshold,
+                                        double deterministic_threshold)
+    {
+        if (normal_threshold < 0 ||
+            deterministic_threshold < normal_threshold)
+        {
+            throw new IllegalArgumentException(
+                "need 0 <= normal threshold <= deterministic threshold.");
+        }
+    }
+
+    public double getNormalThreshold() { return normal_threshold; }
+    public double getDeterministicThreshold() {
+        return deterministic_threshold;
+    }
+
+    /** the number of hybrid binomial draws made exactly. */
+    public long getExactDraws() { return exact_draws; }
+
+    /** the number of hybrid binomial draws made from the normal. */
+    public long getNormalDraws() { return normal_draws; }
+
+    /** the number of hybrid binomial draws set to their expectation. */
+    public long getDeterministicDraws() { return deterministic_draws; }
+
+    public void resetDrawCounts() {
+        exact_draws = 0;
+        normal_draws = 0;
+        deterministic_draws = 0;
     }
 
     public long getNextPoisson(double m) {
-        return (m==0) ? 0 : rng.nextPoisson(m);
+        if (m == 0) return 0;
+        if (legacy) return rng.nextPoisson(m);
+        return poisson.sample(m);
+    }
+
+    /**
+     * chooses whether binomial and Poisson draws go through commons-math's
+     * {@code RandomDataGenerator}, the default, instead of the faster
+     * samplers.  The two give different streams from the same seed, so
+     * runs made before the samplers existed are only reproduced with
+     * legacy sampling.
+     *
+     * @param legacy {@code true} to use {@code RandomDataGenerator}.
+     */
+    public void setLegacySampling(boolean legacy) { this.legacy = legacy; }
+    public boolean isLegacySampling() { return legacy; }
+
+    /**
+     * sets whether {@code RandomNumberUser}s constructed from now on use
+     * legacy sampling, which they do unless told otherwise.
+     *
+     * @see #setLegacySampling
+     */
+    public static void setDefaultLegacySampling(boolean legacy) {
+        default_legacy = legacy;
     }
 
     public int[] getNextPermutation(int n, int k) {
         return rng.nextPermutation(n, k);
     }
 
+    /**
+     * makes a generator.
+     *
+     * @param engine the name of the generator.
+     * @param seed the seed.
+     * @return the generator.
+     */
+    public static RandomGenerator makeGenerator(String engine, long seed) {
+        switch (engine) {
+            case WELL19937C:
+                return new Well19937c(seed);
+            case XOSHIRO256SS:
+                return new Xoshiro256StarStar(seed);
+            case SPLITMIX64:
+                return new SplitMix64(seed);
+            case PHILOX4X32:
+                return new PhiloxGenerator(seed);
+            default:
+                throw new IllegalArgumentException(
+                    "Unknown RNG engine '" + engine + "'.  Choose " +
+                    WELL19937C + ", " + XOSHIRO256SS + ", " + SPLITMIX64 +
+                    " or " + PHILOX4X32 + ".");
+        }
+    }
+
+    /**
+     * sets the engine of {@code RandomNumberUser}s constructed from now on
+     * without one.
+     *
+     * @param engine the name of the engine.
+     */
+    public static void setDefaultEngine(String engine) {
+        makeGenerator(engine, 0);
+        default_engine = engine;
+    }
+
+    public static String getDefaultEngine() { return default_engine; }
+
+    /**
+     * returns a new {@code RandomNumberUser} whose stream is independent of
+     * this one's and of those split off before.  Splittable engines split
+     * their generator; Well19937c is reseeded from a seed derived from this
+     * one's.  Either way the result depends only on the seed and the number
+     * of earlier splits.
+     *
+     * @return the new {@code RandomNumberUser}.
+     */
+    public RandomNumberUser split() {
+        RandomNumberUser child;
+        if (generator instanceof SplittableGenerator) {
+            child = new RandomNumberUser(
+                    ((SplittableGenerator) generator).split(), engine,
+                    deriveSeed(~seed, splits));
+        } else {
+            child = new RandomNumberUser(deriveSeed(~seed, splits), engine);
+        }
+        splits++;
+        child.useSettingsOf(this);
+        return child;
+    }
+
+    /**
+     * returns a new {@code RandomNumberUser} for stream {@code stream},
+     * seeded with {@link #deriveSeed}{@code (seed, stream)} and using the
+     * same engine and settings as this one.  Unlike {@link #split} it does
+     * not depend on what has been drawn or split before.
+     *
+     * @param stream the stream number.
+     * @return the new {@code RandomNumberUser}.
+     */
+    public RandomNumberUser stream(long stream) {
+        RandomNumberUser child =
+            new RandomNumberUser(deriveSeed(seed, stream), engine);
+        child.useSettingsOf(this);
+        return child;
+    }
+
+    /**
+     * copies the hybrid thresholds and the legacy flag of {@code other}.
+     *
+     * @param other the {@code RandomNumberUser} to copy from.
+     */
+    public void useSettingsOf(RandomNumberUser other) {
+        normal_threshold = other.normal_threshold;
+        deterministic_threshold = other.deterministic_threshold;
+        legacy = other.legacy;
+    }
+
+    /**
+     * moves a {@value #PHILOX4X32} engine to the draws for {@code event} of
+     * {@code strain} in {@code patch} at {@code step}.
+     *
+     * @see PhiloxGenerator#setCounter
+     */
+    public void setCounter(long step, int patch, int strain, int event) {
+        if (!(generator instanceof PhiloxGenerator)) {
+            throw new IllegalStateException(
+                "setCounter needs the " + PHILOX4X32 + " engine, not " +
+                engine + ".");
+        }
+        ((PhiloxGenerator) generator).setCounter(step, patch, strain, event);
+    }
+
     public void reSeed(long seed) { 
         this.seed = seed;
+        this.splits = 0;
         rng.reSeed(seed);
     }
 
+    /**
+     * derives an independent seed for stream {@code stream} from
+     * {@code seed}, using the SplitMix64 finalizer so that neighbouring
+     * streams get unrelated seeds.
+     *
+     * @param seed the master seed.
+     * @param stream the stream number.
+     * @return the derived seed.
+     */
+    public static long deriveSeed(long seed, long stream) {
+        return SplitMix64.mix(seed + (stream+1)*0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * returns the probability that an event with per-step probability
+     * {@code p} happens at least once in {@code steps} steps.
+     *
+     * @param p the per-step probability.
+     * @param steps the number of steps.
+     * @return {@code 1-(1-p)^steps}.
+     */
+    public static double overSteps(double p, int steps) {
+        if (steps == 1 || p == 0.0) return p;
+        return -Math.expm1(steps*Math.log1p(-p));
+    }
+
     public long getSeed() { return seed; }
+    public String getEngine() { return engine; }
+    public RandomGenerator getGenerator() { return generator; }
     public RandomDataGenerator getRNG() { return rng; }
 }
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A copy of the state of a {@link World} at one step in primitive arrays:
+ * the location and resource of every occupied patch and the count of every
+ * strain in it.  Strains are columns, in the order of {@link #getIds}; a
+ * strain a patch doesn't hold has a count of zero.  A {@code Snapshot} is
+ * meant to be reused: {@link #reset} only reallocates when it has to grow.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class Snapshot {
+    private int step;
+    private boolean env_changed;
+    private int n_patches;
+    private int n_strains;
+    private final List<String> ids = new ArrayList<String>();
+
+    private int[] rows = new int[0];
+    private int[] cols = new int[0];
+    private double[] resource = new double[0];
+    // Patch-major: the count of strain s in patch p is at p*n_strains + s.
+    private int[] counts = new int[0];
+
+    /**
+     * empties this snapshot and sizes it for {@code n_patches} patches and
+     * the strains in {@code ids}.
+     *
+     * @param step the step.
+     * @param env_changed whether the environment changed at this step.
+     * @param ids the strain ids, in column order.
+     * @param n_patches the number of patches.
+     */
+    public void reset(int step, boolean env_changed, List<String> ids,
+                      int n_patches)
+    {
+        this.step = step;
+        this.env_changed = env_changed;
+        this.n_patches = n_patches;
+        this.n_strains = ids.size();
+        if (this.ids != ids) {
+            this.ids.clear();
+            this.ids.addAll(ids);
+        }
+
+        if (rows.length < n_patches) {
+            int capacity = Math.max(n_patches, 2*rows.length);
+            rows = new int[capacity];
+            cols = new int[capacity];
+            resource = new double[capacity];
+        }
+        int n_counts = n_patches*n_strains;
+        if (counts.length < n_counts) {
+            counts = new int[Math.max(n_counts, 2*counts.length)];
+        } else {
+            Arrays.fill(counts, 0, n_counts, 0);
+        }
+    }
+
+    /**
+     * sets the location and resource of a patch.
+     *
+     * @param patch the patch, from zero.
+     * @param row the row.
+     * @param col the column.
+     * @param resource the amount of resource.
+     */
+    public void setPatch(int patch, int row, int col, double resource) {
+        rows[patch] = row;
+        cols[patch] = col;
+        this.resource[patch] = resource;
+    }
+
+    /**
+     * adds {@code n} to the count of a strain in a patch.
+     *
+     * @param patch the patch, from zero.
+     * @param strain the strain column.
+     * @param n the number to add.
+     */
+    public void addCount(int patch, int strain, int n) {
+        counts[patch*n_strains + strain] += n;
+    }
+
+    /**
+     * makes this snapshot a copy of another.
+     *
+     * @param other the snapshot to copy.
+     */
+    public void copyFrom(Snapshot other) {
+        reset(other.step, other.env_changed, other.ids, other.n_patches);
+        System.arraycopy(other.rows, 0, rows, 0, n_patches);
+        System.arraycopy(other.cols, 0, cols, 0, n_patches);
+        System.arraycopy(other.resource, 0, resource, 0, n_patches);
+        System.arraycopy(other.counts, 0, counts, 0, n_patches*n_strains);
+    }
+
+    public int getStep() { return step; }
+    public boolean isEnvChanged() { return env_changed; }
+    public int getNPatches() { return n_patches; }
+    public int getNStrains() { return n_strains; }
+
+    /** returns the strain ids, in column order. */
+    public List<String> getIds() { return ids; }
+
+    public int getRow(int patch) { return rows[patch]; }
+    public int getCol(int patch) { return cols[patch]; }
+    public double getResource(int patch) { return resource[patch]; }
+
+    public int getCount(int patch, int strain) {
+        return counts[patch*n_strains + strain];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Snapshot: step=%d, patches=%d, strains=%d",
+                             step, n_patches, n_strains);
+    }
+}
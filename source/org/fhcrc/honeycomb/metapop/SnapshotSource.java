@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.output.ChannelBuffer;
+
+import java.io.IOException;
+
+/**
+ * A {@link Saveable} that can also copy its state into a {@link Snapshot},
+ * for the binary and asynchronous outputs of {@link StateSaver}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public interface SnapshotSource extends Saveable {
+
+    /** 
+     * copies the current state into {@code snapshot}, replacing what it
+     * held.
+     */
+    public void capture(Snapshot snapshot);
+
+    /** 
+     * writes a snapshot exactly as {@link #getData} would have when the
+     * snapshot was captured.
+     */
+    public void writeData(Snapshot snapshot, ChannelBuffer out)
+        throws IOException;
+}
@@ -19,28 +19,134 @@
 
 package org.fhcrc.honeycomb.metapop;
 
+import org.fhcrc.honeycomb.metapop.output.ChannelBuffer;
+import org.fhcrc.honeycomb.metapop.output.ColumnarWriter;
+import org.fhcrc.honeycomb.metapop.output.GzipWriter;
+
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 
 /**
- * Saves the state of {@code Saveable} objects.
+ * Saves the state of {@code Saveable} objects.  The state is written in one
+ * of three formats:
+ * <ul>
+ * <li>{@link #TAB}, the default: a tab-separated {@code <step>.tab} file
+ * per save.</li>
+ * <li>{@link #COLUMNAR}: every save is appended to a single binary
+ * {@value #COLUMNAR_FILENAME}, written by a {@link ColumnarWriter}.  The
+ * {@code Saveable} must be a {@link SnapshotSource}.  {@link #close} must
+ * be called at the end of a run to write the file's index.</li>
+ * <li>{@link #GZIP}: every save is appended to a single
+ * {@value #GZIP_FILENAME} as one gzip member, named after the tab file it
+ * would otherwise be and holding the same headers and rows.  The members
+ * are compressed on a background thread by a {@link GzipWriter}, at the
+ * level set by {@link #setDefaultGzipLevel}.  {@code zcat}, or R's
+ * {@code gzfile}, reads the whole file as the tab files one after the
+ * other.  {@link #close} must be called at the end of a run.</li>
+ * </ul>
+ *
+ * Any of the three formats can be written asynchronously, given a queue
+ * size (see {@link #setDefaultQueueSize}).  {@link #saveState} then only
+ * copies the state of a {@link SnapshotSource} into a reusable
+ * {@link Snapshot} and queues it; a background thread formats and writes
+ * it.
+ *
+ * Tab files of a {@link StreamingSaveable}, or written in the background,
+ * are encoded straight into a reusable buffer rather than built as one
+ * String.  When the queue is
+ * full, {@code saveState} waits for the writer.  {@link #flush} and
+ * {@link #close} wait until everything queued is written.
  *
  * Created on 28 Apr, 2013.
  * @author Adam Waite
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
  */
 public class StateSaver {
+    public static final String TAB = "tab";
+    public static final String COLUMNAR = "columnar";
+    public static final String COLUMNAR_FILENAME = "snapshots.col";
+    public static final String GZIP = "tab.gz";
+    public static final String GZIP_FILENAME = "states.tab.gz";
+
+    private static volatile String default_format = TAB;
+    private static volatile int default_queue_size = 0;
+    private static volatile int default_gzip_level =
+        Deflater.DEFAULT_COMPRESSION;
+
     private final Saveable saveable;
+    private final String format;
     private final File data_path;
     private final Map<String, String> initialization_data;
     private String headers;
 
+    private final int gzip_level;
+    private ColumnarWriter columnar;
+    private GzipWriter gzip;
+    private Snapshot snapshot;
+    private ChannelBuffer out;
+
+    // Asynchronous writing.  Snapshots go round from free to queue to the
+    // writer and back to free, so there are never more than queue_size+1.
+    private final int queue_size;
+    private BlockingQueue<Snapshot> free;
+    private BlockingQueue<Job> queue;
+    private Thread writer_thread;
+    private int pending = 0;
+    private Exception failure;
+
+    /** a snapshot waiting to be written, with what's needed to write it. */
+    private static class Job {
+        final Snapshot snapshot;
+        final String headers;
+        final String filename;
+
+        Job(Snapshot snapshot, String headers, String filename) {
+            this.snapshot = snapshot;
+            this.headers = headers;
+            this.filename = filename;
+        }
+    }
+
+    private static final Job STOP = new Job(null, null, null);
+
     public StateSaver(Saveable saveable) {
+        this(saveable, default_format, default_queue_size);
+    }
+
+    public StateSaver(Saveable saveable, String format) {
+        this(saveable, format, 0);
+    }
+
+    /**
+     * @param saveable what to save.
+     * @param format {@link #TAB}, {@link #COLUMNAR} or {@link #GZIP}.
+     * @param queue_size how many saves may wait to be written in the
+     *                   background, or 0 to write them as they're made.
+     */
+    public StateSaver(Saveable saveable, String format, int queue_size) {
+        checkFormat(format);
+        if (queue_size < 0) {
+            throw new IllegalArgumentException("queue_size < 0.");
+        }
+        if ((format.equals(COLUMNAR) || queue_size > 0) &&
+            !(saveable instanceof SnapshotSource))
+        {
+            throw new IllegalArgumentException(
+                "the columnar format and asynchronous writing need a " +
+                "SnapshotSource.");
+        }
+        this.format = format;
+        this.queue_size = queue_size;
+        this.gzip_level = default_gzip_level;
         this.saveable = saveable;
         this.data_path = saveable.getDataPath();
         this.headers = saveable.getHeaders();
@@ -53,6 +159,67 @@ public class StateSaver {
         }
     }
 
+    private static void checkFormat(String format) {
+        if (!TAB.equals(format) && !COLUMNAR.equals(format) &&
+            !GZIP.equals(format))
+        {
+            throw new IllegalArgumentException(
+                "unknown output format " + format);
+        }
+    }
+
+    /**
+     * selects the format of the StateSavers constructed from now on without
+     * one.
+     *
+     * @param format {@link #TAB}, {@link #COLUMNAR} or {@link #GZIP}.
+     */
+    public static void setDefaultFormat(String format) {
+        checkFormat(format);
+        default_format = format;
+    }
+
+    public static String getDefaultFormat() { return default_format; }
+
+    /**
+     * selects how many saves the StateSavers constructed from now on let
+     * wait to be written in the background.
+     *
+     * @param queue_size the queue size, or 0, the default, to write
+     *                   synchronously.
+     */
+    public static void setDefaultQueueSize(int queue_size) {
+        if (queue_size < 0) {
+            throw new IllegalArgumentException("queue_size < 0.");
+        }
+        default_queue_size = queue_size;
+    }
+
+    public static int getDefaultQueueSize() { return default_queue_size; }
+
+    /**
+     * selects the compression level of the StateSavers constructed from now
+     * on, for the {@link #GZIP} format.
+     *
+     * @param level from 0, no compression, to 9, the smallest output, or
+     *              {@link Deflater#DEFAULT_COMPRESSION}, the default.
+     */
+    public static void setDefaultGzipLevel(int level) {
+        if ((level < 0 || level > 9) &&
+            level != Deflater.DEFAULT_COMPRESSION)
+        {
+            throw new IllegalArgumentException(
+                "compression level must be from 0 to 9: " + level);
+        }
+        default_gzip_level = level;
+    }
+
+    public static int getDefaultGzipLevel() { return default_gzip_level; }
+
+    public String getFormat() { return format; }
+    public int getQueueSize() { return queue_size; }
+    public int getGzipLevel() { return gzip_level; }
+
     public void updateHeaders() {
         this.headers = this.saveable.getHeaders();
     }
@@ -94,14 +261,39 @@ public class StateSaver {
 
     public void saveState() throws IOException 
     {
+        if (queue_size > 0) {
+            enqueue();
+            return;
+        }
+        makeDataPath();
+
+        if (format.equals(COLUMNAR)) {
+            if (snapshot == null) snapshot = new Snapshot();
+            ((SnapshotSource) saveable).capture(snapshot);
+            writeSnapshot(snapshot);
+            return;
+        }
+        if (format.equals(GZIP)) {
+            writeMember(saveable.getFilename(), null);
+            return;
+        }
+        if (saveable instanceof StreamingSaveable) {
+            streamTab(saveable.getFilename(), null);
+        } else {
+            writeTab(saveable.getFilename(), report());
+        }
+    }
+
+    private void makeDataPath() throws IOException {
         if (!data_path.exists()) {
             boolean made = data_path.mkdirs();
-            if (!made) {
+            if (!made && !data_path.exists()) {
                 throw new IOException("mkdirs() failed!");
             }
         }
+    }
 
-        String file_name = saveable.getFilename();
+    private void writeTab(String file_name, String text) throws IOException {
         File write_to = new File(data_path, file_name);
         BufferedWriter writer = null; 
         try {
@@ -110,7 +302,7 @@ public class StateSaver {
                 if (!created) throw new IOException("Couldn't create file!");
             }
             writer = new BufferedWriter(new FileWriter(write_to));
-            writer.write(report());
+            writer.write(text);
             writer.close();
         } catch (IOException e) {
             System.out.println("Couldn't write to file " + 
@@ -128,6 +320,197 @@ public class StateSaver {
         }
     }
 
+    /**
+     * writes a tab file through the reusable buffer: the current state of
+     * a {@link StreamingSaveable} if {@code job} is null, or else the
+     * queued snapshot.
+     */
+    private void streamTab(String file_name, Job job) throws IOException {
+        File write_to = new File(data_path, file_name);
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(write_to);
+            if (out == null) out = new ChannelBuffer();
+            out.setChannel(stream.getChannel());
+            if (job == null) {
+                StreamingSaveable streaming = (StreamingSaveable) saveable;
+                streaming.writeHeaders(out);
+                out.put((byte) '\n');
+                streaming.writeData(out);
+            } else {
+                out.put(job.headers).put((byte) '\n');
+                ((SnapshotSource) saveable).writeData(job.snapshot, out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Couldn't write to file " + 
+                               write_to.toString());
+            e.printStackTrace();
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (Exception e2) {
+                }
+            }
+        }
+    }
+
+    /**
+     * appends a tab file to the gzip file as one member, encoded like
+     * {@link #streamTab}.
+     */
+    private void writeMember(String file_name, Job job) throws IOException {
+        if (gzip == null) {
+            gzip = new GzipWriter(new File(data_path, GZIP_FILENAME),
+                                  gzip_level);
+        }
+        if (out == null) out = new ChannelBuffer();
+        out.setChannel(gzip);
+        gzip.begin(file_name);
+        boolean ended = false;
+        try {
+            if (job != null) {
+                out.put(job.headers).put((byte) '\n');
+                ((SnapshotSource) saveable).writeData(job.snapshot, out);
+            } else if (saveable instanceof StreamingSaveable) {
+                StreamingSaveable streaming = (StreamingSaveable) saveable;
+                streaming.writeHeaders(out);
+                out.put((byte) '\n');
+                streaming.writeData(out);
+            } else {
+                out.put(report());
+            }
+            out.flush();
+            gzip.end();
+            ended = true;
+        } finally {
+            if (!ended) gzip.discard();
+        }
+    }
+
+    private void writeSnapshot(Snapshot snapshot) throws IOException {
+        if (columnar == null) {
+            columnar = new ColumnarWriter(new File(data_path,
+                                                   COLUMNAR_FILENAME));
+        }
+        columnar.write(snapshot);
+    }
+
+    /**
+     * captures the state and queues it, waiting for a free snapshot if the
+     * queue is full.
+     */
+    private void enqueue() throws IOException {
+        checkFailure();
+        if (writer_thread == null) startWriter();
+
+        Snapshot next;
+        try {
+            next = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting to save.");
+        }
+        ((SnapshotSource) saveable).capture(next);
+        synchronized (this) { pending++; }
+        queue.add(new Job(next, headers, saveable.getFilename()));
+    }
+
+    private void startWriter() {
+        if (free == null) {
+            free = new ArrayBlockingQueue<Snapshot>(queue_size+1);
+            for (int i=0; i<=queue_size; i++) free.add(new Snapshot());
+            queue = new ArrayBlockingQueue<Job>(queue_size+1);
+        }
+        writer_thread = new Thread(new Runnable() {
+            @Override
+            public void run() { drain(); }
+        }, "state-saver");
+        writer_thread.setDaemon(true);
+        writer_thread.start();
+    }
+
+    /** writes queued snapshots until told to stop.  Runs on the writer. */
+    private void drain() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == STOP) return;
+
+            try {
+                makeDataPath();
+                if (format.equals(COLUMNAR)) {
+                    writeSnapshot(job.snapshot);
+                } else if (format.equals(GZIP)) {
+                    writeMember(job.filename, job);
+                } else {
+                    streamTab(job.filename, job);
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (failure == null) failure = e;
+                }
+            } finally {
+                free.add(job.snapshot);
+                synchronized (this) {
+                    pending--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private synchronized void checkFailure() throws IOException {
+        if (failure != null) {
+            Exception e = failure;
+            failure = null;
+            throw new IOException("saving in the background failed.", e);
+        }
+    }
+
+    /** waits until every queued save has been written. */
+    public void flush() throws IOException {
+        synchronized (this) {
+            while (pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting to flush.");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * writes everything queued and finishes any output left open, such as
+     * the index of the columnar file or the last members of the gzip file.
+     * Saving again afterwards carries on where it left off.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (writer_thread != null) {
+                queue.add(STOP);
+                try {
+                    writer_thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                writer_thread = null;
+            }
+            if (columnar != null) columnar.close();
+            if (gzip != null) gzip.close();
+        }
+    }
+
     public String report() {
         StringBuilder report = new StringBuilder();
         report.append(headers).append("\n").append(saveable.getData());
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Gives every strain an integer handle, shared by all the
+ * {@link Subpopulation}s of that strain, and keeps the strain's descriptor:
+ * its id, type, gamma, release rate, {@link FitnessCalculator} and parent.
+ * {@code Subpopulation}s take their parameters from the descriptor, so all
+ * those of one strain behave alike.  Handles are dense, starting from zero,
+ * so they can index arrays; ids are only needed to name strains in the
+ * output.
+ *
+ * Every {@link World} has its own registry, and takes in the strains of its
+ * Populations when it is built (see {@link #adopt}), so its handles count
+ * only its own strains and a later run in the same JVM starts again from
+ * zero.  Subpopulations made outside a World are registered in the
+ * {@link #shared} registry until then.
+ *
+ * A strain is an id together with its parameters.  Registering an id again
+ * with other parameters gives a new handle, which the id then looks up to;
+ * the earlier strain of that id is its {@link Strain#getPrevious}.
+ *
+ * Not thread-safe: a registry must be used by one thread at a time.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public final class StrainRegistry {
+    /** the parent of a strain that did not arise by mutation. */
+    public static final int NO_PARENT = -1;
+
+    private static final StrainRegistry shared = new StrainRegistry();
+
+    private final List<Strain> strains = new ArrayList<Strain>();
+    private final Map<String, Integer> handles =
+        new HashMap<String, Integer>();
+
+    /** the descriptor of a strain. */
+    public static final class Strain {
+        private final StrainRegistry registry;
+        private final int handle;
+        private final String id;
+        private final String type;
+        private final double gamma;
+        private final double release_rate;
+        private final FitnessCalculator fc;
+        private final int parent;
+        private final int previous;
+
+        private Strain(StrainRegistry registry, int handle, String id,
+                       double gamma, double release_rate,
+                       FitnessCalculator fc, int parent, int previous)
+        {
+            this.registry = registry;
+            this.handle = handle;
+            this.id = id;
+            this.gamma = gamma;
+            this.release_rate = release_rate;
+            this.fc = fc;
+            this.parent = parent;
+            this.previous = previous;
+
+            int separator = id.indexOf('_');
+            this.type = (separator < 0) ? null : id.substring(0, separator);
+        }
+
+        /** returns the registry that gave out the handle. */
+        public StrainRegistry getRegistry() { return registry; }
+        public int getHandle() { return handle; }
+        public String getId() { return id; }
+
+        /**
+         * returns the type, such as "coop" or "cheat": the part of the id
+         * before the first underscore, or {@code null} if there is none.
+         */
+        public String getType() { return type; }
+        public double getGamma() { return gamma; }
+        public double getReleaseRate() { return release_rate; }
+        public FitnessCalculator getFitnessCalculator() { return fc; }
+
+        /** returns the handle of the parent, or {@link #NO_PARENT}. */
+        public int getParent() { return parent; }
+
+        /**
+         * returns the handle of the strain registered earlier with the same
+         * id and other parameters, or -1 if there is none.
+         */
+        public int getPrevious() { return previous; }
+
+        private boolean matches(double gamma, double release_rate,
+                                FitnessCalculator fc)
+        {
+            return this.gamma == gamma &&
+                   this.release_rate == release_rate &&
+                   (this.fc == fc || (this.fc != null && this.fc.equals(fc)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Strain %d: id=%s, parent=%d",
+                                 handle, id, parent);
+        }
+    }
+
+    /**
+     * returns the registry of the Subpopulations that are not in a
+     * {@link World}.
+     */
+    public static StrainRegistry shared() { return shared; }
+
+    /**
+     * returns the handle of the strain with the given id and parameters,
+     * registering it if the id has not been seen with them.  The parent is
+     * that of the first registration.
+     *
+     * @param id the id.
+     * @param gamma the amount of resource consumed to make a new cell.
+     * @param release_rate the amount of resource released per cell per
+     *                     timestep.
+     * @param fc the FitnessCalculator.
+     * @param parent the handle of the strain it mutated from, or
+     *               {@link #NO_PARENT}.
+     * @return the handle.
+     */
+    public int register(String id, double gamma, double release_rate,
+                        FitnessCalculator fc, int parent)
+    {
+        if (id == null) {
+            throw new IllegalArgumentException("id is null.");
+        }
+        Integer handle = handles.get(id);
+        if (handle != null &&
+            strains.get(handle).matches(gamma, release_rate, fc))
+        {
+            return handle;
+        }
+
+        int new_handle = strains.size();
+        strains.add(new Strain(this, new_handle, id, gamma, release_rate, fc,
+                               parent, (handle == null) ? -1 : handle));
+        handles.put(id, new_handle);
+        return new_handle;
+    }
+
+    /**
+     * returns the descriptor in this registry of a strain from any registry,
+     * registering it, and its parents, if they are not here yet.
+     *
+     * @param strain the descriptor.
+     * @return the descriptor in this registry.
+     */
+    public Strain adopt(Strain strain) {
+        if (strain.getRegistry() == this) return strain;
+
+        int parent = NO_PARENT;
+        if (strain.getParent() != NO_PARENT) {
+            Strain from = strain.getRegistry().get(strain.getParent());
+            parent = adopt(from).getHandle();
+        }
+        return get(register(strain.getId(), strain.getGamma(),
+                            strain.getReleaseRate(),
+                            strain.getFitnessCalculator(), parent));
+    }
+
+    /**
+     * returns the handle of the latest strain with the given id, or -1 if
+     * the id has not been registered.
+     *
+     * @param id the id.
+     * @return the handle, or -1.
+     */
+    public int lookup(String id) {
+        Integer handle = handles.get(id);
+        return (handle == null) ? -1 : handle;
+    }
+
+    /**
+     * returns the descriptor of a strain.
+     *
+     * @param handle the handle.
+     * @return the descriptor.
+     */
+    public Strain get(int handle) {
+        if (handle < 0 || handle >= strains.size()) {
+            throw new IllegalArgumentException("no strain " + handle);
+        }
+        return strains.get(handle);
+    }
+
+    /** returns the number of strains registered so far. */
+    public int size() { return strains.size(); }
+}
@@ -30,26 +30,58 @@ import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
  *
  */
 public class Subpopulation {
-    private String id = "Unspecified";
+    private int strain;
+    // The id, gamma, release rate and FitnessCalculator of the strain.
+    private StrainRegistry.Strain descriptor;
 
     private int size;
-    private double gamma; // amount of resource required to make a new cell
-    private double release_rate; // amount of resource released /cell/timestep.
-    private FitnessCalculator fc;
     private RandomNumberUser rng;
 
+    // The Census changes of size are reported to, and the patch they are
+    // reported for; null while the Subpopulation is not in a World.
+    private Census census;
+    private int patch;
+
+    // The WorldState that holds the size, if any, and the index of this
+    // strain in it.
+    private WorldState state;
+    private int state_strain;
+
     public Subpopulation(final int size,
                          final double gamma, 
                          final double release_rate,
                          final FitnessCalculator fc,
                          final String id,
                          final RandomNumberUser rng)
+    {
+        this(size, registerShared(id, gamma, release_rate, fc), rng);
+    }
+
+    private static StrainRegistry.Strain registerShared(String id,
+                                                        double gamma,
+                                                        double release_rate,
+                                                        FitnessCalculator fc)
+    {
+        StrainRegistry shared = StrainRegistry.shared();
+        return shared.get(shared.register(id, gamma, release_rate, fc,
+                                          StrainRegistry.NO_PARENT));
+    }
+
+    /**
+     * constructs a {@code Subpopulation} of a registered strain, which
+     * supplies its id, gamma, release rate and FitnessCalculator.
+     *
+     * @param size the number of cells.
+     * @param descriptor the strain.
+     * @param rng the random number generator.
+     */
+    public Subpopulation(final int size,
+                         final StrainRegistry.Strain descriptor,
+                         final RandomNumberUser rng)
     {
         this.size = size;
-        this.gamma = gamma;
-        this.release_rate = release_rate;
-        this.fc   = fc;
-        this.id   = id;
+        this.descriptor = descriptor;
+        this.strain = descriptor.getHandle();
         this.rng  = rng;
     }
 
@@ -62,26 +94,45 @@ public class Subpopulation {
     }
 
     public Subpopulation(final Subpopulation subpop) {
-        this(subpop.getSize(), subpop.getGamma(), 
-             subpop.getReleaseRate(), subpop.getFitnessCalculator(),
-             subpop.getId(), subpop.getRNG());
+        this(subpop.getSize(), subpop.getDescriptor(), subpop.getRNG());
+    }
+
+    public String getId() { return descriptor.getId(); }
+
+    /**
+     * returns the handle of this strain in the {@link StrainRegistry} of
+     * its descriptor.
+     */
+    public int getStrain() { return strain; }
+
+    /** returns the descriptor of this strain. */
+    public StrainRegistry.Strain getDescriptor() { return descriptor; }
+
+    /**
+     * returns the type, such as "coop" or "cheat": the part of the id
+     * before the first underscore, or {@code null} if there is none.
+     */
+    public String getType() { return descriptor.getType(); }
+    public int getSize() {
+        return (state == null) ? size : state.getCount(patch, state_strain);
     }
 
-    public String getId() { return id; }
-    public int getSize() { return size; }
+    public FitnessCalculator getFitnessCalculator() {
+        return descriptor.getFitnessCalculator();
+    }
 
-    public FitnessCalculator getFitnessCalculator() { return fc; }
     public RandomNumberUser getRNG() { return rng; }
 
     /** returns the amount of resource consumed to make a new cell. */
-    public double getGamma() { return gamma; }
+    public double getGamma() { return descriptor.getGamma(); }
 
     /** returns the amount of resource released per cell per timestep. */
-    public double getReleaseRate() { return release_rate; }
+    public double getReleaseRate() { return descriptor.getReleaseRate(); }
 
     /** returns the current growth rate. */
     public double getGrowthRate(final double resource) {
-        double fitness = fc.calculateGrowthRate(resource);
+        double fitness =
+            descriptor.getFitnessCalculator().calculateGrowthRate(resource);
 
         if (fitness < 0)
             throw new UnsupportedOperationException("Fitness < 0");
@@ -91,10 +142,51 @@ public class Subpopulation {
 
     /** returns the current death rate. */
     public double getDeathRate(final double resource) {
-        return fc.calculateDeathRate(resource);
+        return descriptor.getFitnessCalculator().calculateDeathRate(resource);
     }
 
-    public void setSize(int new_size) { this.size = new_size; }
+    public void setSize(int new_size) {
+        if (census != null) census.add(patch, strain, new_size - getSize());
+        if (state != null) {
+            state.setCount(patch, state_strain, new_size);
+        } else {
+            this.size = new_size;
+        }
+    }
+
+    /**
+     * reports this Subpopulation's cells, and from now on every change in
+     * their number, to {@code census} as being in {@code patch}.  The
+     * strain moves into the census' registry first.
+     */
+    void attach(Census census, int patch) {
+        adopt(census.getRegistry());
+        this.census = census;
+        this.patch = patch;
+        census.add(patch, strain, getSize());
+    }
+
+    /**
+     * moves this strain into {@code registry}, whose handle it has from
+     * then on.
+     */
+    void adopt(StrainRegistry registry) {
+        this.descriptor = registry.adopt(descriptor);
+        this.strain = descriptor.getHandle();
+    }
+
+    /**
+     * moves the size into {@code state}, which holds it from then on as the
+     * count of this strain in {@code patch}.  No other Subpopulation may be
+     * bound to the same strain and patch.
+     */
+    void bind(WorldState state, int patch) {
+        int size = getSize();
+        this.state_strain = state.strainIndex(this);
+        this.patch = patch;
+        this.state = state;
+        state.setCount(patch, state_strain, size);
+    }
 
     /** 
      * Generates the number of cells that would be born given the passed
@@ -105,7 +197,7 @@ public class Subpopulation {
      * @return the number of new cells.
      */
     public int getBirths(final double resource) {
-        return rng.getNextBinomial(this.size, getGrowthRate(resource));
+        return rng.getNextHybridBinomial(getSize(), getGrowthRate(resource));
     }
 
     /** 
@@ -117,7 +209,44 @@ public class Subpopulation {
      * @return the number of dead cells.
      */
     public int getDeaths(final double resource) {
-        return rng.getNextBinomial(this.size, getDeathRate(resource));
+        return rng.getNextHybridBinomial(getSize(), getDeathRate(resource));
+    }
+
+    /** 
+     * Generates the number of cells that would be born over
+     * {@code timestep_length} time steps at the passed resource.  Each cell
+     * divides at most once, with probability {@code growth rate * length}
+     * (capped at 1), so one step is the same as {@link #getBirths(double)}.
+     *
+     * @param resource the amount of resource available.
+     * @param timestep_length the number of time steps.
+     *
+     * @return the number of new cells.
+     */
+    public int getBirths(final double resource,
+                         final double timestep_length)
+    {
+        if (timestep_length == 1.0) return getBirths(resource);
+        double p = Math.min(1.0, getGrowthRate(resource)*timestep_length);
+        return rng.getNextHybridBinomial(getSize(), p);
+    }
+
+    /** 
+     * Generates the number of cells that would die over
+     * {@code timestep_length} time steps at the passed resource, each with
+     * probability {@code death rate * length} (capped at 1).
+     *
+     * @param resource the amount of resource available.
+     * @param timestep_length the number of time steps.
+     *
+     * @return the number of dead cells.
+     */
+    public int getDeaths(final double resource,
+                         final double timestep_length)
+    {
+        if (timestep_length == 1.0) return getDeaths(resource);
+        double p = Math.min(1.0, getDeathRate(resource)*timestep_length);
+        return rng.getNextHybridBinomial(getSize(), p);
     }
 
     /**
@@ -144,15 +273,16 @@ public class Subpopulation {
                 IllegalArgumentException("Fraction not between 0 and 1.");
         }
 
-        int migrants = rng.getNextBinomial(size, migration_rate);
-        size -= migrants;
-        return new Subpopulation(migrants, fc, id, rng);
+        int migrants = rng.getNextHybridBinomial(getSize(), migration_rate);
+        setSize(getSize() - migrants);
+        return new Subpopulation(migrants, descriptor, rng);
     }
 
     @Override
     public String toString() {
         return String.format(
                 "'%s', size=%d, gamma=%.2e, release_rate=%.2e. %s, seed=%d",
-                id, size, gamma, release_rate, fc, rng.getSeed());
+                getId(), getSize(), getGamma(), getReleaseRate(),
+                getFitnessCalculator(), rng.getSeed());
     }
 }
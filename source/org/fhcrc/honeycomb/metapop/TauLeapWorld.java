@@ -0,0 +1,254 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.dilution.DilutionRule;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.dilution.PeriodicDilution;
+import org.fhcrc.honeycomb.metapop.environment.EnvironmentChanger;
+import org.fhcrc.honeycomb.metapop.stop.StopCondition;
+import org.fhcrc.honeycomb.metapop.mutation.MutationRule;
+import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * A {@link World} that advances several time steps at once when the rates
+ * change slowly.  Before each leap the number of steps is chosen, in the
+ * manner of Cao, Gillespie and Petzold, so that the expected change and the
+ * standard deviation of every {@link Subpopulation}'s size, and the expected
+ * change of every {@link Population}'s resource, stay below a fraction
+ * {@code epsilon} of their current values.  Cells leaving by mutation,
+ * at the {@link MutationRule}'s largest rate, and by migration count
+ * towards a size's change.  Cells arriving are bounded conservatively:
+ * every strain of a patch may receive mutants from the whole patch, and
+ * every patch may receive migrants from the largest one, so that a leap
+ * brings about one new strain or migrant where there were none.  Growth,
+ * mutation and migration then act once with the aggregated numbers of events (see
+ * {@link Population#grow(double)}, {@link MutationRule#mutate(List, int)}
+ * and {@link MigrationRule#migrate(OccupiedLocations, int)}).
+ *
+ * Leaps never cross a save step or a {@link PeriodicDilution} step, so
+ * output and dilution happen on exactly the same steps as in {@code World}.
+ * Any other {@link DilutionRule} may act on any step, so with those every
+ * leap is a single step.  The {@link StopCondition} is checked at the end
+ * of each leap.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class TauLeapWorld extends World {
+    public static final double DEFAULT_EPSILON = 0.03;
+
+    // Bound on the relative change of a size; 2 allows for the coupling
+    // through the resource.
+    private static final double G = 2.0;
+
+    private final double epsilon;
+    private final int max_leap;
+    private final int dilute_every;
+    private final boolean single_steps;
+    private long leaps = 0;
+
+    public TauLeapWorld(int rows, int cols,
+                        List<Population> initial_populations,
+                        EnvironmentChanger env_changer,
+                        DilutionRule dilution_rule,
+                        MutationRule mutation_rule,
+                        MigrationRule migration_rule,
+                        StopCondition stop_condition,
+                        File data_path,
+                        int timestep_scale,
+                        double epsilon,
+                        int max_leap)
+    {
+        super(rows, cols, initial_populations, env_changer, dilution_rule,
+              mutation_rule, migration_rule, stop_condition, data_path,
+              timestep_scale);
+        if (epsilon <= 0) {
+            throw new IllegalArgumentException("epsilon <= 0.");
+        }
+        if (max_leap < 1) {
+            throw new IllegalArgumentException("max_leap < 1.");
+        }
+        this.epsilon = epsilon;
+        this.max_leap = max_leap;
+
+        if (dilution_rule instanceof PeriodicDilution) {
+            dilute_every = ((PeriodicDilution) dilution_rule).getEvery();
+            single_steps = false;
+        } else {
+            dilute_every = 0;
+            single_steps = !(dilution_rule instanceof NoDilution);
+        }
+    }
+
+    public TauLeapWorld(int rows, int cols,
+                        List<Population> initial_populations,
+                        EnvironmentChanger env_changer,
+                        DilutionRule dilution_rule,
+                        MutationRule mutation_rule,
+                        MigrationRule migration_rule,
+                        StopCondition stop_condition,
+                        File data_path,
+                        int timestep_scale)
+    {
+        this(rows, cols, initial_populations, env_changer, dilution_rule,
+             mutation_rule, migration_rule, stop_condition, data_path,
+             timestep_scale, DEFAULT_EPSILON, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void iterate(List<Double> new_freqs, int iterations, int save_every)
+    {
+        if (new_freqs == null && env_changer.getProb() > 0) {
+            throw new IllegalArgumentException(
+                "[TauLeapWorld.iterate] Need new frequencies if " +
+                "environment changes.");
+        }
+
+        while (getStep() < iterations) {
+            int first = getStep() + 1;
+            int steps = chooseLeap(first, iterations, save_every);
+            step = first;
+            printStep(iterations);
+
+            try {
+                dilute();
+                grow(steps);
+                mutation_rule.mutate(occupied_locations.getList(), steps);
+                migration_rule.migrate(occupied_locations, steps);
+            } catch (Exception e) {
+                System.out.println(
+                        "\nCaught exception at step " + getStep() + ":\n");
+                saveState();
+                close();
+                e.printStackTrace();
+                System.exit(1);
+            }
+            step = first + steps - 1;
+            leaps++;
+
+            updateWorldSize();
+            if (all_extinct || stop_condition.isMet()) {
+                saveState();
+                break;
+            }
+
+            if (getStep() % save_every == 0) saveState();
+            env_changed = false;
+        }
+        close();
+    }
+
+    /**
+     * grows every {@link Population} for {@code steps} time steps.
+     *
+     * @param steps the number of time steps.
+     */
+    public void grow(int steps) {
+        for (Population pop:occupied_locations.getList()) {
+            pop.grow(steps);
+            if (pop.lastGrowSkipped()) solves_skipped++;
+        }
+    }
+
+    /**
+     * chooses the number of steps in a leap starting at step {@code first}.
+     *
+     * @param first the first step of the leap.
+     * @param iterations the last step of the run.
+     * @param save_every the number of steps between saves.
+     * @return the number of steps, at least 1.
+     */
+    public int chooseLeap(int first, int iterations, int save_every) {
+        if (single_steps) return 1;
+
+        double tau = Math.min(max_leap, leapBound());
+        int last_save = ((first + save_every - 1)/save_every)*save_every;
+        tau = Math.min(tau, last_save - first + 1);
+        tau = Math.min(tau, iterations - first + 1);
+        if (dilute_every > 0) {
+            int next_dilution = (first/dilute_every + 1)*dilute_every;
+            tau = Math.min(tau, next_dilution - first);
+        }
+        return Math.max(1, (int) tau);
+    }
+
+    /** the largest leap, in steps, that the current rates allow. */
+    private double leapBound() {
+        double mutation = mutation_rule.getMaxRate();
+        double migration = migration_rule.getRate();
+        double leaving = mutation + migration;
+
+        double tau = Double.POSITIVE_INFINITY;
+        int max_size = 0;
+        int min_size = (occupied_locations.getSize() < rows*cols)
+                     ? 0 : Integer.MAX_VALUE;
+        for (Population pop:occupied_locations.getList()) {
+            int size = pop.getSize();
+            max_size = Math.max(max_size, size);
+            min_size = Math.min(min_size, size);
+            if (size == 0) continue;
+
+            double resource = pop.getResource();
+            boolean full = size >= pop.getCapacity();
+            double scale = 1 - size/pop.getCapacity();
+            double resource_change = 0.0;
+            for (Subpopulation sub:pop.getSubpopulations()) {
+                int n = sub.getSize();
+                if (n == 0) continue;
+
+                double gr = full ? 0.0 : sub.getGrowthRate(resource);
+                double dr = sub.getDeathRate(resource);
+                double mean = n*(gr-dr-leaving);
+                double var = n*(gr+dr+leaving);
+                double bound = Math.max(epsilon*n/G, 1.0);
+                if (mean != 0) tau = Math.min(tau, bound/Math.abs(mean));
+                if (var != 0) tau = Math.min(tau, bound*bound/var);
+
+                resource_change += n*(sub.getReleaseRate()*scale -
+                                      sub.getGamma()*gr);
+            }
+            if (!full && resource_change != 0) {
+                double bound = Math.max(epsilon*resource,
+                                        Population.MIN_RESOURCE);
+                tau = Math.min(tau, bound/Math.abs(resource_change));
+            }
+            if (mutation > 0) {
+                // Mutants may found a strain the patch does not have.
+                tau = Math.min(tau, 1.0/(mutation*size));
+            }
+        }
+        if (migration > 0 && max_size > 0) {
+            int n_patches = rows*cols;
+            double arriving = migration*max_size*n_patches/
+                              Math.max(1, n_patches-1);
+            double bound = Math.max(epsilon*min_size/G, 1.0);
+            tau = Math.min(tau, bound/arriving);
+        }
+        return tau;
+    }
+
+    /** returns the number of leaps so far. */
+    public long getLeaps() { return leaps; }
+    public double getEpsilon() { return epsilon; }
+}
@@ -29,16 +29,19 @@ import org.fhcrc.honeycomb.metapop.stop.StopCondition;
 import org.fhcrc.honeycomb.metapop.mutation.MutationRule;
 import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
 
+import org.fhcrc.honeycomb.metapop.output.ChannelBuffer;
+import org.fhcrc.honeycomb.metapop.output.TsvEncoder;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
 
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Set;
-import java.util.HashSet;
 
 /** 
  * Manages {@code Population}s.
@@ -48,7 +51,9 @@ import java.util.HashSet;
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
  *
  */
-public class World implements StepProvider, Saveable {
+public class World
+    implements StepProvider, SnapshotSource, StreamingSaveable
+{
     protected static final File DEFAULT_DATA_PATH = new File(".");
 
     // Initialization parameters.
@@ -63,12 +68,19 @@ public class World implements StepProvider, Saveable {
                                                       "row.col",
                                                       "resource"));
     protected String headers;
+    protected int headers_version = 0;
+    private byte[] header_bytes;
+    private int header_bytes_version = -1;
+    private final Snapshot save_snapshot = new Snapshot();
 
     protected final Map<String, String> initialization_data =
                         new HashMap<String, String>();
     protected List<Population> initial_populations = 
                         new ArrayList<Population>();
     protected List<String> subpop_ids = new ArrayList<String>();
+    // The column of each strain in subpop_ids, plus one, by handle in the
+    // registry; zero for strains without a column.  Built as strains appear.
+    private int[] column_of_strain = new int[0];
 
     // Behavior.
     protected final EnvironmentChanger env_changer;
@@ -86,6 +98,19 @@ public class World implements StepProvider, Saveable {
     protected int total_size = 0;
     protected boolean all_extinct = false;
     protected boolean env_changed = false;
+    protected long solves_skipped = 0;
+
+    // The strains of this World, and running totals, kept by the
+    // Subpopulations as their sizes change.
+    protected final StrainRegistry registry = new StrainRegistry();
+    protected final Census census;
+
+    // The totals at the end of the last step, copied from the census by
+    // updateWorldSize().  Sizes by strain are indexed by handle in the
+    // registry, sizes by type by the census' type index.
+    protected int n_occupied = 0;
+    protected int[] size_by_strain = new int[0];
+    protected int[] size_by_type = new int[0];
 
     /** 
      * Constructs a new <code>World</code>.
@@ -112,7 +137,9 @@ public class World implements StepProvider, Saveable {
         this.timestep_scale = timestep_scale;
 
         this.occupied_locations = 
-            new OccupiedLocations(initial_populations, this.rows*this.cols);
+            new OccupiedLocations(initial_populations, this.rows, this.cols);
+        this.census = new Census(rows*cols, registry);
+        this.occupied_locations.setCensus(census);
 
         this.initial_populations = 
             Population.copyPopulations(initial_populations);
@@ -170,43 +197,107 @@ public class World implements StepProvider, Saveable {
 
     @Override
     public String getData() {
-        StringBuffer data = new StringBuffer(1000);
-        for (Population pop:occupied_locations.getList()) {
-            String row = Integer.toString(pop.getCoordinate().getRow());
-            String col = Integer.toString(pop.getCoordinate().getCol());
-            data.append(Integer.toString(getStep())).append("\t");
-            data.append((env_changed) ? 1 : 0).append("\t");
-            data.append(row).append("\t");
-            data.append(col).append("\t");
-            data.append(row + "_" + col).append("\t");
-            data.append(Double.toString(pop.getResource())).append("\t");
-
-            for (String subpop_id:subpop_ids) {
-                data.append(pop.getSizeById(subpop_id)).append("\t");
+        Snapshot snapshot = new Snapshot();
+        capture(snapshot);
+        return getData(snapshot);
+    }
+
+    /** formats a snapshot as {@link #getData} does. */
+    public String getData(Snapshot snapshot) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1000);
+        ChannelBuffer out = new ChannelBuffer(1024);
+        out.setChannel(Channels.newChannel(bytes));
+        try {
+            writeData(snapshot, out);
+            out.flush();
+            return bytes.toString("UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getHeadersVersion() { return headers_version; }
+
+    @Override
+    public void writeHeaders(ChannelBuffer out) throws IOException {
+        if (header_bytes_version != headers_version) {
+            header_bytes = headers.getBytes("UTF-8");
+            header_bytes_version = headers_version;
+        }
+        out.put(header_bytes);
+    }
+
+    @Override
+    public void writeData(ChannelBuffer out) throws IOException {
+        capture(save_snapshot);
+        writeData(save_snapshot, out);
+    }
+
+    @Override
+    public void writeData(Snapshot snapshot, ChannelBuffer out)
+        throws IOException
+    {
+        TsvEncoder.encodeRows(snapshot, out);
+    }
+
+    @Override
+    public void capture(Snapshot snapshot) {
+        List<Population> pops = occupied_locations.getList();
+        snapshot.reset(getStep(), env_changed, subpop_ids, pops.size());
+
+        for (int p=0; p<pops.size(); p++) {
+            Population pop = pops.get(p);
+            Coordinate coord = pop.getCoordinate();
+            snapshot.setPatch(p, coord.getRow(), coord.getCol(),
+                              pop.getResource());
+            for (Subpopulation sub:pop.getSubpopulations()) {
+                int strain = sub.getStrain();
+                // Strains without a column yet are left out, as they are
+                // from the headers.
+                if (strain < column_of_strain.length &&
+                    column_of_strain[strain] > 0)
+                {
+                    snapshot.addCount(p, column_of_strain[strain] - 1,
+                                      sub.getSize());
+                }
             }
-            data.deleteCharAt(data.lastIndexOf("\t"));
-            data.append("\n");
         }
-        return data.toString();
     }
 
+    /** adds the ids of new strains to the headers. */
     private void makeHeaders() {
-        StringBuilder tmp = new StringBuilder();
-        for (String header:const_headers) {
-            tmp.append(header).append("\t");
-        }
+        boolean added = false;
         for (Population pop:occupied_locations.getList()) {
             for (Subpopulation sub:pop.getSubpopulations()) {
-                if (!subpop_ids.contains(sub.getId())) {
-                    subpop_ids.add(sub.getId());
+                int strain = sub.getStrain();
+                if (strain >= column_of_strain.length) {
+                    column_of_strain = Arrays.copyOf(column_of_strain,
+                                                     registry.size());
+                }
+                if (column_of_strain[strain] == 0) {
+                    int column = subpop_ids.indexOf(sub.getId());
+                    if (column < 0) {
+                        column = subpop_ids.size();
+                        subpop_ids.add(sub.getId());
+                        added = true;
+                    }
+                    column_of_strain[strain] = column + 1;
                 }
             }
         }
+        if (headers != null && !added) return;
+
+        StringBuilder tmp = new StringBuilder();
+        for (String header:const_headers) {
+            tmp.append(header).append("\t");
+        }
         for (String id:subpop_ids) {
             tmp.append(id).append("\t");
         }
         tmp.deleteCharAt(tmp.lastIndexOf("\t"));
         headers = tmp.toString();
+        headers_version++;
     }
 
 
@@ -220,36 +311,61 @@ public class World implements StepProvider, Saveable {
     public int getMaxRow() { return rows; }
     public int getMaxCol() { return cols; }
 
+    /** returns the number of ODE solves skipped as quiescent so far. */
+    public long getSolvesSkipped() { return solves_skipped; }
+
+    /**
+     * returns the registry of the strains in this World, which it takes in
+     * from its Populations when it is built.
+     */
+    public StrainRegistry getStrainRegistry() { return registry; }
+
     public OccupiedLocations getOccupiedLocations() {
         return occupied_locations;
     }
 
-    /** returns the total population size for a given subpopulation id. */
-    public int getSizeById(String id) {
-        int total = 0;
-        for (Population pop:occupied_locations.getList()) {
-            total += pop.getSizeById(id);
-        }
-        return total;
+    /**
+     * returns the number of locations holding at least one cell at the end
+     * of the last step.
+     */
+    public int getNOccupied() { return n_occupied; }
+
+    /**
+     * returns the number of occupied locations holding fewer than
+     * {@code size} cells.  The census starts counting them when a size is
+     * first asked for, so asking again costs nothing.
+     */
+    public int getNOccupiedBelow(int size) {
+        return census.getNOccupiedBelow(size);
     }
 
-    //Returns sizes for all subpopulations of a type "coop" or "cheat".
-    public int getSizeByType(String type) {
+    /**
+     * returns the total population size for a given subpopulation id at the
+     * end of the last step.
+     */
+    public int getSizeById(String id) {
         int total = 0;
-        Set<String> ids = new HashSet<String>();
-        for (Population pop:occupied_locations.getList()) {
-            for (Subpopulation subpop:pop.getSubpopulations()) {
-                String id = subpop.getId();
-                String sub_type = id.substring(0, id.indexOf("_"));
-                if (sub_type.equals(type)) {
-                    total += pop.getSizeById(id);
-                    ids.add(id);
-                }
+        for (int strain = registry.lookup(id); strain >= 0;
+             strain = registry.get(strain).getPrevious())
+        {
+            if (strain < size_by_strain.length) {
+                total += size_by_strain[strain];
             }
         }
         return total;
     }
 
+    /**
+     * returns the total size of all subpopulations of a type, "coop" or
+     * "cheat", at the end of the last step.
+     *
+     * @see Subpopulation#getType
+     */
+    public int getSizeByType(String type) {
+        int index = census.getTypeIndex(type);
+        return (index < 0 || index >= size_by_type.length)
+             ? 0 : size_by_type[index];
+    }
 
     /** returns a copy of the original populations */
     public List<Population> getInitialPopulations() { 
@@ -279,7 +395,6 @@ public class World implements StepProvider, Saveable {
             //System.out.println("step: " + step);
             printStep(iterations);
             //environment_changed = env_changer.environmentChanged();
-            int n_occupied = occupied_locations.getSize();
 
             try {
                 dilute();
@@ -290,6 +405,7 @@ public class World implements StepProvider, Saveable {
                 System.out.println(
                         "\nCaught exception at step " + getStep() + ":\n");
                 saveState();
+                close();
                 e.printStackTrace();
                 System.exit(1);
             }
@@ -303,6 +419,7 @@ public class World implements StepProvider, Saveable {
             if (getStep() % save_every == 0) saveState();
             env_changed = false;
         }
+        close();
         //occupied_locations.getList().get(0).printLookup();
     }
 
@@ -314,6 +431,7 @@ public class World implements StepProvider, Saveable {
         for (Population pop:occupied_locations.getList()) {
             //pop.grow(timestep_scale);
             pop.grow();
+            if (pop.lastGrowSkipped()) solves_skipped++;
         }
     }
 
@@ -321,7 +439,7 @@ public class World implements StepProvider, Saveable {
         mutation_rule.mutate(occupied_locations.getList());
     }
 
-    private void dilute() {
+    protected void dilute() {
         List<Population> pops = occupied_locations.getList();
         Map<Coordinate, Double> dilution_map = dilution_rule.generate(pops);
         if (dilution_map != null) {
@@ -332,11 +450,16 @@ public class World implements StepProvider, Saveable {
         }
     }
 
-    private void updateWorldSize() {
-        total_size = 0;
-        for (Population pop:occupied_locations.getList()) {
-            total_size += pop.getSize();
-        }
+    /**
+     * copies the total size, the number of occupied locations and the sizes
+     * by id and by type from the census, which the Subpopulations keep up to
+     * date as births, deaths, dilution, migration and mutation change them.
+     */
+    protected void updateWorldSize() {
+        total_size = census.getTotal();
+        n_occupied = census.getNOccupied();
+        size_by_strain = census.copyStrainSizes(size_by_strain);
+        size_by_type = census.copyTypeSizes(size_by_type);
         if (total_size == 0) {
             all_extinct = true;
             System.out.println("All extinct at step " + getStep());
@@ -353,6 +476,15 @@ public class World implements StepProvider, Saveable {
         }
     }
 
+    /** finishes the output of this run; see {@link StateSaver#close}. */
+    public void close() {
+        try {
+            ss.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     // Private methods.
     protected void printStep(int iters) {
         if (getStep() % 100000 == 0) {
@@ -0,0 +1,553 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.ode.BatchedSolver;
+import org.fhcrc.honeycomb.metapop.ode.PopulationDynamicsSolver;
+import org.fhcrc.honeycomb.metapop.ode.SolverPool;
+import org.fhcrc.honeycomb.metapop.rng.PhiloxGenerator;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Dense, array-backed storage of the state of a {@link World}.  The size of
+ * every {@link Subpopulation} is kept in a single {@code int[]} laid out as
+ * {@code counts[patch*n_strains + strain]}, with the resource and capacity
+ * of each patch in parallel {@code double[]}s.  Patches are indexed by
+ * {@code (row-1)*cols + (col-1)}; strains are indexed in the order in which
+ * their ids are first seen.
+ *
+ * The {@link Population}s held by {@link OccupiedLocations} remain the view
+ * that {@code DilutionRule}s, {@code MigrationRule}s, {@code MutationRule}s
+ * and {@code StopCondition}s operate on.  Bound with
+ * {@link OccupiedLocations#setState}, as {@link ArrayWorld} does, they
+ * read and write their sizes and resource here, and the arrays are the
+ * only copy.  Otherwise {@link #gather} copies them into the arrays and
+ * {@link #scatter} writes the arrays back.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class WorldState {
+    private final int rows;
+    private final int cols;
+    private final int n_patches;
+
+    // Strains.
+    private List<Subpopulation> strains = new ArrayList<Subpopulation>();
+    // The strain index of each StrainRegistry handle, plus one; zero for
+    // strains not seen yet.
+    private int[] strain_index = new int[0];
+    private int n_strains = 0;
+
+    // Patches.
+    private int[] counts;
+    private double[] resource;
+    private double[] capacity;
+    private int[] tracked;
+    private boolean[] is_tracked;
+    private int n_tracked = 0;
+
+    // The Census told of births and deaths, if any, and the change of each
+    // count since it was last told, laid out as the counts.
+    private Census census;
+    private int[] changes;
+
+    // Random number streams, one per patch, if requested.  Counter-based
+    // streams are repositioned for every strain and event at every step.
+    private long stream_seed;
+    private RandomNumberUser[] patch_rngs;
+    private boolean counter_based = false;
+    private long step = 0;
+
+    // Batched integration, if requested.
+    private boolean batched = false;
+
+    // Number of quiescent patches in the last call to grow.
+    private int skipped = 0;
+
+    public WorldState(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.n_patches = rows*cols;
+        this.counts = new int[0];
+        this.resource = new double[n_patches];
+        this.capacity = new double[n_patches];
+        this.tracked = new int[n_patches];
+        this.is_tracked = new boolean[n_patches];
+    }
+
+    /**
+     * returns the patch index of a {@link Coordinate}.
+     *
+     * @param coord the Coordinate.
+     * @return the patch index.
+     */
+    public int index(Coordinate coord) {
+        int row = coord.getRow();
+        int col = coord.getCol();
+        if (row < 1 || row > rows || col < 1 || col > cols) {
+            throw new IllegalArgumentException(
+                    "Coordinate outside of world: " + coord);
+        }
+        return (row-1)*cols + (col-1);
+    }
+
+    /**
+     * returns the strain index of a {@link Subpopulation}, registering it
+     * as a new strain if its {@link StrainRegistry} handle has not been
+     * seen.
+     *
+     * @param subpop the Subpopulation.
+     * @return the strain index.
+     */
+    public int strainIndex(Subpopulation subpop) {
+        int handle = subpop.getStrain();
+        if (handle < strain_index.length && strain_index[handle] > 0) {
+            return strain_index[handle] - 1;
+        }
+
+        int new_idx = n_strains;
+        strains.add(new Subpopulation(subpop));
+        if (handle >= strain_index.length) {
+            strain_index = Arrays.copyOf(strain_index,
+                                         Math.max(handle+1,
+                                                  2*strain_index.length));
+        }
+        strain_index[handle] = new_idx + 1;
+        restride(n_strains+1);
+        return new_idx;
+    }
+
+    private void restride(int new_n_strains) {
+        counts = restride(counts, new_n_strains);
+        if (changes != null) changes = restride(changes, new_n_strains);
+        n_strains = new_n_strains;
+    }
+
+    private int[] restride(int[] from, int new_n_strains) {
+        int[] to = new int[n_patches*new_n_strains];
+        for (int p=0; p<n_patches; p++) {
+            System.arraycopy(from, p*n_strains, to, p*new_n_strains,
+                             n_strains);
+        }
+        return to;
+    }
+
+    /**
+     * adds a patch to those grown, if it is not among them already.
+     *
+     * @param patch the patch index.
+     */
+    public void track(int patch) {
+        if (is_tracked[patch]) return;
+        is_tracked[patch] = true;
+        tracked[n_tracked++] = patch;
+    }
+
+    /**
+     * tells {@code census} of the births and deaths of every
+     * {@link #grow}, once growth is over.
+     *
+     * @param census the Census.
+     */
+    void setCensus(Census census) {
+        this.census = census;
+        this.changes = new int[counts.length];
+    }
+
+    private void reportChanges() {
+        if (census == null) return;
+        for (int i=0; i<n_tracked; i++) {
+            int patch = tracked[i];
+            int offset = patch*n_strains;
+            for (int s=0; s<n_strains; s++) {
+                int change = changes[offset+s];
+                if (change == 0) continue;
+                census.add(patch, strains.get(s).getStrain(), change);
+                changes[offset+s] = 0;
+            }
+        }
+    }
+
+    /**
+     * copies the state of every tracked {@link Population} into the arrays.
+     *
+     * @param ols the OccupiedLocations to copy from.
+     */
+    public void gather(OccupiedLocations ols) {
+        n_tracked = 0;
+        Arrays.fill(is_tracked, false);
+        for (Population pop:ols.getList()) {
+            int patch = index(pop.getCoordinate());
+            List<Subpopulation> subpops = pop.getSubpopulations();
+            for (Subpopulation sub:subpops) strainIndex(sub);
+
+            int offset = patch*n_strains;
+            for (int s=0; s<n_strains; s++) counts[offset+s] = 0;
+            for (Subpopulation sub:subpops) {
+                counts[offset + strain_index[sub.getStrain()] - 1] +=
+                    sub.getSize();
+            }
+            resource[patch] = pop.getResource();
+            capacity[patch] = pop.getCapacity();
+            track(patch);
+        }
+    }
+
+    /**
+     * writes the arrays back to the tracked {@link Population}s.  Every
+     * Population must still contain the same {@link Subpopulation}s it had
+     * when {@link #gather} was called.
+     *
+     * @param ols the OccupiedLocations to write to.
+     */
+    public void scatter(OccupiedLocations ols) {
+        for (Population pop:ols.getList()) {
+            int patch = index(pop.getCoordinate());
+            int offset = patch*n_strains;
+            for (Subpopulation sub:pop.getSubpopulations()) {
+                int strain = strain_index[sub.getStrain()] - 1;
+                // Duplicate ids: the first copy gets the whole count.
+                sub.setSize(counts[offset+strain]);
+                counts[offset+strain] = 0;
+            }
+            for (Subpopulation sub:pop.getSubpopulations()) {
+                int strain = strain_index[sub.getStrain()] - 1;
+                counts[offset+strain] += sub.getSize();
+            }
+            pop.setResource(resource[patch]);
+        }
+    }
+
+    /**
+     * gives every patch its own {@link RandomNumberUser}, seeded from
+     * {@code seed} and the patch index, for births and deaths.  The outcome
+     * of {@link #grow} then no longer depends on the order in which patches
+     * are grown, so it is the same for any number of threads.
+     *
+     * @param seed the seed from which the per-patch seeds are derived.
+     */
+    public void usePatchStreams(long seed) {
+        this.stream_seed = seed;
+        this.patch_rngs = new RandomNumberUser[n_patches];
+        this.counter_based = false;
+    }
+
+    /**
+     * draws births and deaths from a counter-based generator, so that every
+     * draw is a function only of {@code seed}, the step set with
+     * {@link #setStep}, the patch, the strain's {@link StrainRegistry}
+     * handle and the kind of event.  Growth then does not depend on the
+     * number of threads, on how the patches are split among them, on which
+     * patches were skipped or on the order in which strains were first
+     * seen, and any single step can be re-run on its own.
+     *
+     * @param seed the seed.
+     */
+    public void useCounterStreams(long seed) {
+        this.stream_seed = seed;
+        this.patch_rngs = new RandomNumberUser[n_patches];
+        this.counter_based = true;
+    }
+
+    /**
+     * sets the step that counter-based draws are keyed by.
+     *
+     * @param step the time step.
+     */
+    public void setStep(long step) { this.step = step; }
+
+    /**
+     * integrates all the patches of a block together with a
+     * {@link BatchedSolver}, rather than one at a time, when growing.
+     *
+     * @param batched {@code true} to integrate in batches.
+     */
+    public void useBatchedSolver(boolean batched) {
+        this.batched = batched;
+    }
+
+    /** grows every tracked patch in order.  See {@link #grow(int)}. */
+    public void grow() {
+        skipped = growTracked(0, n_tracked);
+        reportChanges();
+    }
+
+    /**
+     * grows every tracked patch, splitting them into {@code n_tasks}
+     * contiguous blocks that are run on {@code pool}.  Requires
+     * {@link #usePatchStreams}.
+     *
+     * @param pool the threads to grow on.
+     * @param n_tasks the number of blocks.
+     */
+    public void grow(ExecutorService pool, int n_tasks) {
+        if (patch_rngs == null) {
+            throw new IllegalStateException(
+                    "Parallel growth needs per-patch streams.");
+        }
+
+        List<Callable<Integer>> tasks =
+            new ArrayList<Callable<Integer>>(n_tasks);
+        for (int t=0; t<n_tasks; t++) {
+            final int from = (int) ((long) t*n_tracked/n_tasks);
+            final int to = (int) ((long) (t+1)*n_tracked/n_tasks);
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return growTracked(from, to);
+                }
+            });
+        }
+
+        try {
+            skipped = 0;
+            for (Future<Integer> done:pool.invokeAll(tasks)) {
+                skipped += done.get();
+            }
+            reportChanges();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * grows the tracked patches {@code tracked[from..to)}.
+     *
+     * @return the number of patches whose integration was skipped.
+     */
+    private int growTracked(int from, int to) {
+        int n_skipped = 0;
+        if (!batched) {
+            for (int i=from; i<to; i++) {
+                if (grow(tracked[i])) n_skipped++;
+            }
+            return n_skipped;
+        }
+
+        // Patches below capacity are integrated together, from the front of
+        // the list; those at capacity only die, from the back.
+        int[] patches = new int[to-from];
+        int n_solve = 0;
+        int first_full = patches.length;
+        for (int i=from; i<to; i++) {
+            int patch = tracked[i];
+            int size = getPatchSize(patch);
+            if (size == 0) continue;
+            if (size < capacity[patch]) {
+                patches[n_solve++] = patch;
+            } else {
+                patches[--first_full] = patch;
+            }
+        }
+
+        if (n_solve > 0) {
+            BatchedSolver solver = SolverPool.getBatched();
+            solver.load(strains);
+            solver.integrate(counts, resource, capacity, patches, n_solve);
+            n_skipped = solver.getSkipped();
+            for (int b=0; b<n_solve; b++) {
+                int patch = patches[b];
+                double res = checkResource(solver.getMeanResource(b),
+                                           resource[patch], patch, solver);
+                birthsAndDeaths(patch, res);
+                resource[patch] = res;
+            }
+        }
+        for (int b=first_full; b<patches.length; b++) {
+            deaths(patches[b], resource[patches[b]]);
+        }
+        return n_skipped;
+    }
+
+    /**
+     * grows a single patch the same way {@link Population#grow} does: the
+     * {@link PopulationDynamicsSolver} gives the average amount of resource
+     * during the time step, which sets the number of births and deaths of
+     * each strain.
+     *
+     * @param patch the patch index.
+     * @return {@code true} if the patch was quiescent and not integrated.
+     */
+    public boolean grow(int patch) {
+        int size = getPatchSize(patch);
+        if (size == 0) return false;
+
+        boolean quiescent = false;
+        double res = resource[patch];
+        if (size < capacity[patch]) {
+            PopulationDynamicsSolver ode = SolverPool.get(n_strains);
+            ode.setTimestepLength(1.0);
+            ode.load(strains, capacity[patch]);
+            ode.integrate(counts, patch*n_strains, res);
+            quiescent = ode.wasSkipped();
+            res = checkResource(ode.integrateResource(), res, patch, ode);
+            birthsAndDeaths(patch, res);
+            resource[patch] = res;
+        } else {
+            deaths(patch, res);
+        }
+        return quiescent;
+    }
+
+    private double checkResource(double res, double prev_resource, int patch,
+                                 Object solver)
+    {
+        if (res < Population.RESOURCE_TOL) {
+            throw new RuntimeException(
+                "resource < RESOURCE_TOL: " + new BigDecimal(res) +
+                "\nprev resource: " + new BigDecimal(prev_resource) +
+                "\npatch: " + patch + "\node:\n" + solver.toString());
+        } else if (res < 0) {
+            return 0.0;
+        }
+        return res;
+    }
+
+    private void birthsAndDeaths(int patch, double res) {
+        int offset = patch*n_strains;
+        for (int s=0; s<n_strains; s++) {
+            int n = counts[offset+s];
+            if (n == 0) continue;
+            Subpopulation strain = strains.get(s);
+            RandomNumberUser rng =
+                getRNG(patch, strain, PhiloxGenerator.BIRTH);
+            int births =
+                rng.getNextHybridBinomial(n, strain.getGrowthRate(res));
+            rng = getRNG(patch, strain, PhiloxGenerator.DEATH);
+            int deaths =
+                rng.getNextHybridBinomial(n, strain.getDeathRate(res));
+            counts[offset+s] = n + births - deaths;
+            if (changes != null) changes[offset+s] += births - deaths;
+        }
+    }
+
+    private void deaths(int patch, double res) {
+        int offset = patch*n_strains;
+        for (int s=0; s<n_strains; s++) {
+            int n = counts[offset+s];
+            if (n == 0) continue;
+            Subpopulation strain = strains.get(s);
+            RandomNumberUser rng =
+                getRNG(patch, strain, PhiloxGenerator.DEATH);
+            int deaths =
+                rng.getNextHybridBinomial(n, strain.getDeathRate(res));
+            counts[offset+s] = n - deaths;
+            if (changes != null) changes[offset+s] -= deaths;
+        }
+    }
+
+    private RandomNumberUser getRNG(int patch, Subpopulation strain,
+                                    int event)
+    {
+        if (patch_rngs == null) return strain.getRNG();
+
+        RandomNumberUser rng = patch_rngs[patch];
+        if (rng == null) {
+            RandomNumberUser strain_rng = strain.getRNG();
+            if (counter_based) {
+                rng = new RandomNumberUser(stream_seed,
+                                           RandomNumberUser.PHILOX4X32);
+            } else {
+                rng = new RandomNumberUser(
+                        RandomNumberUser.deriveSeed(stream_seed, patch),
+                        strain_rng.getEngine());
+            }
+            rng.useSettingsOf(strain_rng);
+            patch_rngs[patch] = rng;
+        }
+        if (counter_based) {
+            rng.setCounter(step, patch, strain.getStrain(), event);
+        }
+        return rng;
+    }
+
+    // Getters
+    public int getRows() { return rows; }
+    public int getCols() { return cols; }
+    public int getNPatches() { return n_patches; }
+    public int getNStrains() { return n_strains; }
+    public int getNTracked() { return n_tracked; }
+    public boolean isBatched() { return batched; }
+    public boolean isCounterBased() { return counter_based; }
+
+    /** returns the number of quiescent patches in the last growth. */
+    public int getSkipped() { return skipped; }
+
+    /** returns the index of the i-th tracked patch. */
+    public int getTracked(int i) { return tracked[i]; }
+
+    /** returns the strain ids, in strain-index order. */
+    public List<String> getStrainIds() {
+        List<String> ids = new ArrayList<String>(n_strains);
+        for (Subpopulation strain:strains) ids.add(strain.getId());
+        return ids;
+    }
+
+    public int getCount(int patch, int strain) {
+        return counts[patch*n_strains + strain];
+    }
+
+    public void setCount(int patch, int strain, int count) {
+        counts[patch*n_strains + strain] = count;
+    }
+
+    public double getResource(int patch) { return resource[patch]; }
+
+    public void setResource(int patch, double new_resource) {
+        resource[patch] = new_resource;
+    }
+
+    public double getCapacity(int patch) { return capacity[patch]; }
+
+    public void setCapacity(int patch, double new_capacity) {
+        capacity[patch] = new_capacity;
+    }
+
+    /**
+     * returns the {@link Subpopulation} that defines a strain.  Its size is
+     * meaningless.
+     */
+    public Subpopulation getStrain(int strain) { return strains.get(strain); }
+
+    /** returns the total size of all strains in a patch. */
+    public int getPatchSize(int patch) {
+        int size = 0;
+        int offset = patch*n_strains;
+        for (int s=0; s<n_strains; s++) size += counts[offset+s];
+        return size;
+    }
+}
@@ -57,8 +57,20 @@ public class Coordinate {
         return c.getRow() == row && c.getCol() == col;
     }
 
+    /**
+     * packs the row and column into one int, which is unique while both are
+     * below 65536, and spreads its bits with the finalizer of MurmurHash3,
+     * which is one-to-one.  Distinct locations of any grid up to 65536
+     * wide thus never collide.
+     */
     @Override
     public int hashCode() {
-        return (Integer.toString(row) + Integer.toString(col)).hashCode();
+        int h = (row << 16) ^ col;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
     }
 }
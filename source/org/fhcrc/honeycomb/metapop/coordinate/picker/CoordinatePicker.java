@@ -24,10 +24,15 @@ import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.CoordinateProvider;
 
 import java.util.List;
+import java.util.ArrayList;
 
 /** 
  * Generates <code>Coordinate</code>s for <code>Location</code>s.
  *
+ * Pickers over a grid can also pick patch indices, {@code (row-1)*max_col +
+ * (col-1)}, without allocating; {@link #pickIndex} and {@link #pickIndices}
+ * are then the primary methods and the {@code Coordinate} ones adapt them.
+ *
  * Created on 10 Apr, 2013
  * @author Adam Waite
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
@@ -71,10 +76,67 @@ public abstract class CoordinatePicker {
     public CoordinateProvider getProvider() { return provider; }
 
     public RandomNumberUser getRNG() { return rng; }
+    public int getMaxRow() { return max_row; }
+    public int getMaxCol() { return max_col; }
+    public boolean excludesCurrent() { return exclude_current; }
 
     public abstract Coordinate pick();
     public abstract List<Coordinate> pick(int n);
 
+    /**
+     * picks a patch index.  By default this is the index of {@link #pick}.
+     *
+     * @return the patch index.
+     */
+    public int pickIndex() {
+        return index(pick());
+    }
+
+    /**
+     * picks {@code n} patch indices into the start of {@code out}, drawn as
+     * {@link #pick(int)} would draw them.
+     *
+     * @param out where the indices are put.
+     * @param n the number of indices.
+     */
+    public void pickIndices(int[] out, int n) {
+        for (int i=0; i<n; i++) out[i] = pickIndex();
+    }
+
+    /**
+     * returns the patch index of {@code coord}.
+     *
+     * @param coord the Coordinate.
+     * @return {@code (row-1)*max_col + (col-1)}.
+     */
+    public int index(Coordinate coord) {
+        return index(coord.getRow(), coord.getCol());
+    }
+
+    protected int index(int row, int col) {
+        if (max_col < 1) {
+            throw new IllegalStateException(
+                getClass().getSimpleName() + " has no grid to index.");
+        }
+        return (row-1)*max_col + (col-1);
+    }
+
+    /**
+     * returns the Coordinate of patch index {@code index}.
+     *
+     * @param index the patch index.
+     * @return the Coordinate.
+     */
+    public Coordinate toCoordinate(int index) {
+        return new Coordinate(index/max_col + 1, index%max_col + 1);
+    }
+
+    protected List<Coordinate> toCoordinates(int[] indices, int n) {
+        List<Coordinate> coordinates = new ArrayList<Coordinate>(n);
+        for (int i=0; i<n; i++) coordinates.add(toCoordinate(indices[i]));
+        return coordinates;
+    }
+
     public abstract String getType();
 
     @Override
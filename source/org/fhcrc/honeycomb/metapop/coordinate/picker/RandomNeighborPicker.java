@@ -24,9 +24,6 @@ import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.CoordinateProvider;
 
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Set;
-import java.util.HashSet;
 
 /** 
  * Generates random <code>Coordinates</code>s a specified distance from the
@@ -39,6 +36,7 @@ import java.util.HashSet;
  */
 public class RandomNeighborPicker extends CoordinatePicker {
     protected final int max_distance;
+    private final int[] one = new int[1];
 
     public RandomNeighborPicker(int max_row, int max_col,
                                 boolean exclude_current,
@@ -57,9 +55,7 @@ public class RandomNeighborPicker extends CoordinatePicker {
     }
 
     @Override
-    public List<Coordinate> pick(int n) {
-        List<Coordinate> coordinates = new ArrayList<Coordinate>(n);
-
+    public void pickIndices(int[] out, int n) {
         if (provider.getCoordinate() == null) {
             throw new NullPointerException("Current location not set");
         }
@@ -69,7 +65,7 @@ public class RandomNeighborPicker extends CoordinatePicker {
         int current_col = current.getCol();
 
         int new_row, new_col;
-        while (coordinates.size() < n) {
+        for (int i=0; i<n; i++) {
             new_row = getNewSpot(current_row, max_row);
             new_col = getNewSpot(current_col, max_col);
             if (exclude_current == true) {
@@ -78,13 +74,25 @@ public class RandomNeighborPicker extends CoordinatePicker {
                     new_col = getNewSpot(current_col, max_col);
                 }
             }
-            coordinates.add(new Coordinate(new_row, new_col));
+            out[i] = index(new_row, new_col);
         }
-        return coordinates;
     }
 
     @Override
-    public Coordinate pick() { return pick(1).get(0); }
+    public int pickIndex() {
+        pickIndices(one, 1);
+        return one[0];
+    }
+
+    @Override
+    public List<Coordinate> pick(int n) {
+        int[] indices = new int[n];
+        pickIndices(indices, n);
+        return toCoordinates(indices, n);
+    }
+
+    @Override
+    public Coordinate pick() { return toCoordinate(pickIndex()); }
 
     public int getNewSpot(int current, int limit) {
         int move = rng.getNextInt(0,max_distance*2)-max_distance;
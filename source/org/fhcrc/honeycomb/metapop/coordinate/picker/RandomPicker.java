@@ -24,7 +24,6 @@ import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.CoordinateProvider;
 
 import java.util.List;
-import java.util.ArrayList;
 
 /** 
  * Generates a random <code>Coordinate</code>.
@@ -57,29 +56,34 @@ public class RandomPicker extends CoordinatePicker {
 
 
     @Override
-    public Coordinate pick() {
-        Coordinate coord = new Coordinate(rng.getNextInt(1, max_row),
-                                          rng.getNextInt(1, max_col));
+    public int pickIndex() {
+        int index = index(rng.getNextInt(1, max_row),
+                          rng.getNextInt(1, max_col));
         if (exclude_current == true) {
             if (provider.getCoordinate() == null) {
                 throw new NullPointerException(
                         "Can't exclude: current coordinate is null!");
             }
 
-            Coordinate current = provider.getCoordinate();
-            while (coord.equals(current)) {
-                coord = new Coordinate(rng.getNextInt(1, max_row),
-                                       rng.getNextInt(1, max_col));
+            int current = index(provider.getCoordinate());
+            while (index == current) {
+                index = index(rng.getNextInt(1, max_row),
+                              rng.getNextInt(1, max_col));
             }
         }
-        return coord;
+        return index;
+    }
+
+    @Override
+    public Coordinate pick() {
+        return toCoordinate(pickIndex());
     }
 
     @Override
     public List<Coordinate> pick(final int n) {
-        List<Coordinate> coordinates = new ArrayList<Coordinate>(n);
-        while (coordinates.size() < n) coordinates.add(pick());
-        return coordinates;
+        int[] indices = new int[n];
+        pickIndices(indices, n);
+        return toCoordinates(indices, n);
     }
 
     @Override
@@ -23,11 +23,8 @@ import org.fhcrc.honeycomb.metapop.RandomNumberUser;
 import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.CoordinateProvider;
 
-import java.util.Random;
+import java.util.BitSet;
 import java.util.List;
-import java.util.ArrayList;
-import java.util.Set;
-import java.util.HashSet;
 
 /** 
  * Generates unique, random {@link Coordinate}s.
@@ -38,7 +35,7 @@ import java.util.HashSet;
  *
  */
 public class UniqueRandomPicker extends RandomPicker {
-    private Set<Coordinate> picked = new HashSet<Coordinate>();
+    private BitSet picked = new BitSet();
 
     public UniqueRandomPicker(int max_rows, int max_cols, 
                               boolean exclude_current,
@@ -62,17 +59,26 @@ public class UniqueRandomPicker extends RandomPicker {
     }
 
     @Override
-    public Coordinate pick() { 
-        Coordinate coord;
+    public int pickIndex() { 
+        int index;
         do {
-            coord = super.pick();
-        } while (picked.contains(coord));
-        picked.add(coord);
-        return coord;
+            index = super.pickIndex();
+        } while (picked.get(index));
+        picked.set(index);
+        return index;
     }
 
     @Override
-    public List<Coordinate> pick(final int n) {
+    public Coordinate pick() {
+        return toCoordinate(pickIndex());
+    }
+
+    /**
+     * picks {@code n} distinct indices; unlike {@link #pickIndex}, they are
+     * not excluded from later picks.
+     */
+    @Override
+    public void pickIndices(int[] out, int n) {
         int max_n = max_row * max_col;
 
         if (n > max_n) {
@@ -81,9 +87,21 @@ public class UniqueRandomPicker extends RandomPicker {
                 ") is larger than the number of coordinates (" + max_n + ")");
         }
 
-        Set<Coordinate> coordinates = new HashSet<Coordinate>(n);
-        while (coordinates.size() < n) coordinates.add(super.pick());
-        return new ArrayList<Coordinate>(coordinates);
+        BitSet chosen = new BitSet(max_n);
+        int i = 0;
+        while (i < n) {
+            int index = super.pickIndex();
+            if (chosen.get(index)) continue;
+            chosen.set(index);
+            out[i++] = index;
+        }
+    }
+
+    @Override
+    public List<Coordinate> pick(final int n) {
+        int[] indices = new int[n];
+        pickIndices(indices, n);
+        return toCoordinates(indices, n);
     }
 
     @Override
@@ -67,6 +67,9 @@ public class PeriodicDilution implements DilutionRule {
         return dilution_map;
     }
 
+    public double getFraction() { return fraction; }
+    public int getEvery() { return every; }
+
     @Override
     public void setStepProvider(StepProvider sp) {
         this.step_provider = sp;
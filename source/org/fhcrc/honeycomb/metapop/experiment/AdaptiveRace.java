@@ -22,7 +22,11 @@ package org.fhcrc.honeycomb.metapop.experiment;
 import org.fhcrc.honeycomb.metapop.Subpopulation;
 import org.fhcrc.honeycomb.metapop.Population;
 import org.fhcrc.honeycomb.metapop.World;
+import org.fhcrc.honeycomb.metapop.ArrayWorld;
+import org.fhcrc.honeycomb.metapop.GillespieWorld;
+import org.fhcrc.honeycomb.metapop.TauLeapWorld;
 import org.fhcrc.honeycomb.metapop.RandomNumberUser;
+import org.fhcrc.honeycomb.metapop.StateSaver;
 
 import org.fhcrc.honeycomb.metapop.dilution.DilutionRule;
 
@@ -32,6 +36,8 @@ import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
 import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
 import org.fhcrc.honeycomb.metapop.fitness.MonodCalculator;
 
+import org.fhcrc.honeycomb.metapop.ode.SolverPool;
+
 import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.CoordinatePicker;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
@@ -70,6 +76,17 @@ public abstract class AdaptiveRace {
     private static final boolean EXCLUDE = true;
     private static final boolean INCLUDE = false;
 
+    // Engines.
+    public static final String WORLD = "world";
+    public static final String ARRAY = "array";
+    public static final String GILLESPIE = "gillespie";
+    public static final String TAULEAP = "tauleap";
+    private static final List<String> ENGINES =
+        Arrays.asList(WORLD, ARRAY, GILLESPIE, TAULEAP);
+
+    // Seeds derived from the population seed for the engines' own draws.
+    private static final int ENGINE_STREAM = 4;
+
     private String[] args;
 
     // Seeds
@@ -112,6 +129,8 @@ public abstract class AdaptiveRace {
     private StopCondition stop_condition;
     private String migration_range;
     private String migration_type;
+    private String engine = WORLD;
+    private int n_threads = 1;
 
     private String output_location;
     private File data_path;
@@ -168,6 +187,11 @@ public abstract class AdaptiveRace {
             new MutateCoopCheat(coop_to_cheat_mutation_rate, cheat_to_coop_mutation_rate, 
                                 anc_to_evo_mutation_rate, evo_to_anc_mutation_rate, mutation_rng);
 
+        // GillespieWorld only runs without mutation.
+        if (engine.equals(GILLESPIE) && mutation_rule.getMaxRate() == 0) {
+            mutation_rule = new NoMutation();
+        }
+
         migration_rule = pickMigration();
 
         env_changer = new StaticEnvironment();
@@ -205,17 +229,44 @@ public abstract class AdaptiveRace {
         System.out.println("\nSaving to " + data_path + "\n");
 
 
-        world = new World(rows, cols, 
-                          initial_populations,
-                          env_changer,
-                          dil_rule,
-                          mutation_rule,
-                          migration_rule,
-                          stop_condition,
-                          data_path,
-                          TIMESTEP_SCALE);
+        world = makeWorld();
+        try {
+            world.iterate(iterations, save_every);
+        } finally {
+            if (world instanceof ArrayWorld) ((ArrayWorld) world).shutdown();
+        }
+    }
 
-        world.iterate(iterations, save_every);
+    private World makeWorld() {
+        long engine_seed =
+            RandomNumberUser.deriveSeed(population_seed, ENGINE_STREAM);
+
+        if (engine.equals(ARRAY)) {
+            return new ArrayWorld(rows, cols, initial_populations,
+                                  env_changer, dil_rule, mutation_rule,
+                                  migration_rule, stop_condition, data_path,
+                                  TIMESTEP_SCALE, n_threads, engine_seed);
+        } else if (engine.equals(GILLESPIE)) {
+            return new GillespieWorld(rows, cols, initial_populations,
+                                      env_changer, dil_rule, mutation_rule,
+                                      migration_rule, stop_condition,
+                                      data_path, TIMESTEP_SCALE,
+                                      new RandomNumberUser(engine_seed));
+        } else if (engine.equals(TAULEAP)) {
+            return new TauLeapWorld(rows, cols, initial_populations,
+                                    env_changer, dil_rule, mutation_rule,
+                                    migration_rule, stop_condition,
+                                    data_path, TIMESTEP_SCALE);
+        }
+        return new World(rows, cols, 
+                         initial_populations,
+                         env_changer,
+                         dil_rule,
+                         mutation_rule,
+                         migration_rule,
+                         stop_condition,
+                         data_path,
+                         TIMESTEP_SCALE);
     }
 
     private void generatePopulations() {
@@ -400,10 +451,21 @@ public abstract class AdaptiveRace {
         //env_change_rng = new RandomNumberUser(env_change_seed);
     }
 
-    private void parseArgs(String args[]) {
-        this.args = args;
+    private void parseArgs(String all_args[]) {
+        this.args = all_args;
         int expected_length = 26;
 
+        // Options, given as --name=value anywhere, are taken out first.
+        List<String> positional = new ArrayList<String>(all_args.length);
+        for (String arg:all_args) {
+            if (arg.startsWith("--")) {
+                parseOption(arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+        String[] args = positional.toArray(new String[positional.size()]);
+
         if (args.length < expected_length) {
            // for (String arg:args) {
            //    System.out.println(arg);
@@ -432,10 +494,30 @@ public abstract class AdaptiveRace {
             "[randomize]" +
             "[population seed] " +
             "[location seed] " +
-            "[migration seed]" +
-            "[mutation seed]" +
+            "[migration seed] " +
+            "[mutation seed] " +
             "[env change seed] " +
             "[hours to simulate] [save frequency (hrs)] [output_location]" +
+            "[solver (dp54, rk4 or rk45)]" +
+            "[rng engine (well19937c, xoshiro256**, splitmix64 or " +
+            "philox4x32)]" +
+            "\n\nA location, migration, mutation or env change seed of '-' " +
+            "is derived from the population seed." +
+            "\n\noptions:\n" +
+            "  --samplers=legacy|fast  binomial and Poisson draws through " +
+            "commons-math, the default, or through the faster samplers, " +
+            "which give other runs from the same seeds\n" +
+            "  --engine=world|array|gillespie|tauleap  the simulation " +
+            "engine; world, the default, is the original.  gillespie " +
+            "needs all mutation rates to be 0\n" +
+            "  --threads=N  threads to grow on with --engine=array\n" +
+            "  --format=tab|columnar|tab.gz  how states are saved; tab, " +
+            "the default, writes one tab file per save, tab.gz appends " +
+            "them all to one gzip file\n" +
+            "  --queue=N  saves that may wait to be written on a " +
+            "background thread; 0, the default, writes them at once\n" +
+            "  --gzip-level=N  compression level, 0 to 9, of " +
+            "--format=tab.gz\n" +
             "\n\n");
 
         }
@@ -463,15 +545,68 @@ public abstract class AdaptiveRace {
         evo_to_anc_mutation_rate = Double.parseDouble(args[19]);
         randomize = Boolean.parseBoolean(args[18]);
         population_seed = Long.parseLong(args[19]);
-        location_seed = Long.parseLong(args[20]);
-        migration_seed = Long.parseLong(args[21]);
-        mutation_seed = Long.parseLong(args[22]);
-        env_change_seed = Long.parseLong(args[23]);
+        location_seed = parseSeed(args[20], 0);
+        migration_seed = parseSeed(args[21], 1);
+        mutation_seed = parseSeed(args[22], 2);
+        env_change_seed = parseSeed(args[23], 3);
         hours = (int) Double.parseDouble(args[24]);
         save_every_dbl = Double.parseDouble(args[25]);
 
-        if (args.length == expected_length+1) 
+        if (args.length >= expected_length+1) 
             output_location = args[expected_length];
+        if (args.length >= expected_length+2)
+            SolverPool.setType(args[expected_length+1]);
+        if (args.length >= expected_length+3)
+            RandomNumberUser.setDefaultEngine(args[expected_length+2]);
+    }
+
+    private void parseOption(String arg) {
+        int equals = arg.indexOf('=');
+        if (equals < 0) {
+            throw new IllegalArgumentException(
+                "option " + arg + " needs a value, as in --name=value.");
+        }
+        String name = arg.substring(2, equals);
+        String value = arg.substring(equals+1);
+
+        if (name.equals("samplers")) {
+            if (value.equals("legacy")) {
+                RandomNumberUser.setDefaultLegacySampling(true);
+            } else if (value.equals("fast")) {
+                RandomNumberUser.setDefaultLegacySampling(false);
+            } else {
+                throw new IllegalArgumentException(
+                    "--samplers must be legacy or fast, not " + value);
+            }
+        } else if (name.equals("format")) {
+            StateSaver.setDefaultFormat(value);
+        } else if (name.equals("queue")) {
+            StateSaver.setDefaultQueueSize(Integer.parseInt(value));
+        } else if (name.equals("gzip-level")) {
+            StateSaver.setDefaultGzipLevel(Integer.parseInt(value));
+        } else if (name.equals("engine")) {
+            if (!ENGINES.contains(value)) {
+                throw new IllegalArgumentException(
+                    "--engine must be one of " + ENGINES + ", not " + value);
+            }
+            engine = value;
+        } else if (name.equals("threads")) {
+            n_threads = Integer.parseInt(value);
+            if (n_threads < 1) {
+                throw new IllegalArgumentException("--threads < 1.");
+            }
+        } else {
+            throw new IllegalArgumentException("unknown option " + arg);
+        }
+    }
+
+    // A seed of "-" is derived from the population seed, so that a single
+    // master seed can be given.
+    private long parseSeed(String arg, int stream) {
+        if (arg.equals("-")) {
+            return RandomNumberUser.deriveSeed(population_seed, stream);
+        }
+        return Long.parseLong(arg);
     }
 
     private void scaleParams() {
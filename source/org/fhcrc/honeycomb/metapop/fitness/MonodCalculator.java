@@ -51,6 +51,8 @@ public class MonodCalculator extends FitnessCalculator {
 
     @Override
     public double getMaxGrowthRate() { return vmax; }
+    public double getKm() { return km; }
+    public double getDeathRate() { return d; }
 
     @Override
     public double calculateGrowthRate(double nutrient_conc) {
@@ -76,4 +78,17 @@ public class MonodCalculator extends FitnessCalculator {
         }
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof MonodCalculator) && equals((MonodCalculator) o);
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = Double.doubleToLongBits(vmax);
+        bits = 31*bits + Double.doubleToLongBits(km);
+        bits = 31*bits + Double.doubleToLongBits(d);
+        return (int) (bits ^ (bits >>> 32));
+    }
+
 }
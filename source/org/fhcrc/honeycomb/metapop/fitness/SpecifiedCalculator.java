@@ -48,4 +48,18 @@ public class SpecifiedCalculator extends FitnessCalculator {
     public FitnessCalculator copyFitnessCalculator(double[] params) {
         return new SpecifiedCalculator(this.growth_rate*params[1], this.death_rate*params[2]);
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SpecifiedCalculator)) return false;
+        SpecifiedCalculator fc = (SpecifiedCalculator) o;
+        return growth_rate == fc.growth_rate && death_rate == fc.death_rate;
+    }
+
+    @Override
+    public int hashCode() {
+        long bits = 31*Double.doubleToLongBits(growth_rate) +
+                    Double.doubleToLongBits(death_rate);
+        return (int) (bits ^ (bits >>> 32));
+    }
 }
@@ -27,13 +27,25 @@ import org.fhcrc.honeycomb.metapop.OccupiedLocations;
 import org.fhcrc.honeycomb.metapop.coordinate.CoordinateProvider;
 import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.CoordinatePicker;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomNeighborPicker;
 
-import java.util.List;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /** 
- * Individual migration.
+ * Individual migration.  Each cell migrates independently, with
+ * probability {@code rate}, to a location chosen by the
+ * {@link CoordinatePicker}; the cell is copied, so its source is not
+ * depleted.
+ *
+ * Rather than picking a destination for each cell, the migrants of each
+ * strain leaving a location are dispersed at once: for a
+ * {@link RandomPicker} over the destinations of the whole world and for a
+ * {@link RandomNeighborPicker} over the offsets of its kernel, both of which
+ * are equally likely, with the migrant counts drawn from a multinomial.
+ * Other pickers are asked for one destination per migrant.  Either way the
+ * counts are collected in a {@link MigrantBuffer} and applied together.
  *
  * Created on 30 May, 2013
  *
@@ -42,6 +54,18 @@ import java.util.Arrays;
  *
  */
 public class IndividualMigration extends MigrationRule {
+    // Migrants per destination slot, and the slots holding any, reused
+    // between calls.
+    private int[] slot_counts = new int[0];
+    private int[] touched = new int[0];
+
+    // The offsets of the neighbour kernel that migrants may take, and the
+    // grid and picker settings they were worked out for.
+    private int[] kernel = new int[0];
+    private int kernel_rows = -1;
+    private int kernel_cols = -1;
+    private int kernel_distance = -1;
+    private boolean kernel_exclude;
 
     public IndividualMigration(double rate, CoordinatePicker picker) {
         super(rate, picker);
@@ -49,31 +73,167 @@ public class IndividualMigration extends MigrationRule {
 
     @Override
     public void migrate(OccupiedLocations ols) {
+        migrate(ols, 1);
+    }
 
-        // Loop over *copy* of occupied locations.
-        for (Population pop:ols.copyList()) {
-            if (pop.getSize() == 0) continue; 
+    /**
+     * migrates as over {@code steps} time steps, each cell leaving at most
+     * once with probability {@code 1-(1-rate)^steps}.
+     */
+    @Override
+    public void migrate(OccupiedLocations ols, int steps) {
+        double rate = RandomNumberUser.overSteps(getRate(), steps);
+        List<Population> pops = ols.getList();
+        int n_sources = pops.size();
 
-            setCoordinate(pop.getCoordinate());
-            RandomNumberUser rng = pop.getRNG();
+        // Nothing changes until the buffer is applied, so the migrants are
+        // drawn from the sizes before migration and arrivals don't migrate
+        // again.
+        for (int i=0; i<n_sources; i++) {
+            Population pop = pops.get(i);
+            if (pop.getSize() == 0) continue;
 
-            Population migrating_pop = pop.collectMigrants(getRate());
-            if (migrating_pop.getSize() == 0) continue;
+            Coordinate current = pop.getCoordinate();
+            setCoordinate(current);
+            List<Subpopulation> subs = pop.getSubpopulations();
+            for (int j=0; j<subs.size(); j++) {
+                Subpopulation sub = subs.get(j);
+                if (sub.getSize() == 0) continue;
+                int n =
+                    sub.getRNG().getNextHybridBinomial(sub.getSize(), rate);
+                if (n > 0) disperse(i, j, n, current);
+            }
+        }
+        buffer.apply(ols);
+    }
 
-            for (Subpopulation subpop:migrating_pop.getSubpopulations()) {
-                String id = subpop.getId();
-                for (int i=0; i<subpop.getSize(); i++) {
-                    Coordinate new_coord = getPicker().pick();
-                    Subpopulation subpop_copy = new Subpopulation(subpop);
-                    subpop_copy.setSize(1);
-                    Population new_pop = new Population(
-                            Arrays.asList(subpop_copy),
-                            new_coord, 0.0, rng);
+    private void disperse(int source, int subpop, int n, Coordinate current) {
+        CoordinatePicker picker = getPicker();
+        int rows = picker.getMaxRow();
+        int cols = picker.getMaxCol();
+        boolean exclude = picker.excludesCurrent();
 
-                    // alter *actual* occupied locations.
-                    ols.addOrMix(new_pop);
+        if (picker.getClass() == RandomPicker.class) {
+            int current_patch =
+                (current.getRow()-1)*cols + (current.getCol()-1);
+            int n_slots = rows*cols - (exclude ? 1 : 0);
+            int n_touched = multinomial(n, n_slots, picker.getRNG());
+            for (int k=0; k<n_touched; k++) {
+                int slot = touched[k];
+                int patch = (exclude && slot >= current_patch) ? slot+1 : slot;
+                buffer.add(source, subpop, patch/cols + 1, patch%cols + 1,
+                           slot_counts[slot]);
+                slot_counts[slot] = 0;
+            }
+        } else if (picker.getClass() == RandomNeighborPicker.class) {
+            int max_distance =
+                ((RandomNeighborPicker) picker).getMaxDistance();
+            int side = 2*max_distance + 1;
+            int n_slots = makeKernel(rows, cols, max_distance, exclude);
+            int n_touched = multinomial(n, n_slots, picker.getRNG());
+            for (int k=0; k<n_touched; k++) {
+                int slot = touched[k];
+                int offset = kernel[slot];
+                int row = wrap(current.getRow() + offset/side - max_distance,
+                               rows);
+                int col = wrap(current.getCol() + offset%side - max_distance,
+                               cols);
+                buffer.add(source, subpop, row, col, slot_counts[slot]);
+                slot_counts[slot] = 0;
+            }
+        } else {
+            for (int k=0; k<n; k++) {
+                if (cols > 0) {
+                    int patch = picker.pickIndex();
+                    buffer.add(source, subpop, patch/cols + 1,
+                               patch%cols + 1, 1);
+                } else {
+                    // A picker without a grid, such as a SpecifiedPicker.
+                    Coordinate coord = picker.pick();
+                    buffer.add(source, subpop, coord.getRow(),
+                               coord.getCol(), 1);
                 }
             }
         }
     }
+
+    /**
+     * works out which offsets of the neighbour kernel migrants may take.
+     * Like {@link RandomNeighborPicker}, when excluding the current location
+     * it rejects every offset that wraps back onto it, not just (0,0); on a
+     * grid no wider than the kernel there are several.  Which offsets those
+     * are does not depend on the location.
+     *
+     * @return the number of offsets.
+     */
+    private int makeKernel(int rows, int cols, int max_distance,
+                           boolean exclude)
+    {
+        if (rows == kernel_rows && cols == kernel_cols &&
+            max_distance == kernel_distance && exclude == kernel_exclude)
+        {
+            return kernel.length;
+        }
+
+        int side = 2*max_distance + 1;
+        int[] offsets = new int[side*side];
+        int n_offsets = 0;
+        for (int offset=0; offset<side*side; offset++) {
+            int d_row = offset/side - max_distance;
+            int d_col = offset%side - max_distance;
+            boolean home = (d_row == 0 || Math.abs(d_row) == rows) &&
+                           (d_col == 0 || Math.abs(d_col) == cols);
+            if (!(exclude && home)) offsets[n_offsets++] = offset;
+        }
+        kernel = Arrays.copyOf(offsets, n_offsets);
+        kernel_rows = rows;
+        kernel_cols = cols;
+        kernel_distance = max_distance;
+        kernel_exclude = exclude;
+        return n_offsets;
+    }
+
+    /**
+     * distributes {@code n} migrants uniformly over {@code n_slots} slots,
+     * leaving the counts in {@link #slot_counts} and the slots with any in
+     * the first entries of {@link #touched}.
+     *
+     * @return the number of slots with any migrants.
+     */
+    private int multinomial(int n, int n_slots, RandomNumberUser rng) {
+        if (n_slots < 1) {
+            throw new RuntimeException("No destinations to migrate to.");
+        }
+        if (slot_counts.length < n_slots) slot_counts = new int[n_slots];
+        int max_touched = Math.min(n, n_slots);
+        if (touched.length < max_touched) touched = new int[max_touched];
+
+        int n_touched = 0;
+        if (n < n_slots) {
+            // Few migrants: place each one.
+            for (int k=0; k<n; k++) {
+                int slot = rng.getNextInt(0, n_slots-1);
+                if (slot_counts[slot]++ == 0) touched[n_touched++] = slot;
+            }
+        } else {
+            // Many migrants: conditional binomials, one per slot.
+            int left = n;
+            for (int slot=0; slot<n_slots && left>0; slot++) {
+                int count = (slot == n_slots-1) ?
+                    left : rng.getNextBinomial(left, 1.0/(n_slots-slot));
+                if (count == 0) continue;
+                slot_counts[slot] = count;
+                touched[n_touched++] = slot;
+                left -= count;
+            }
+        }
+        return n_touched;
+    }
+
+    // Wraps a row or column onto the torus as RandomNeighborPicker does.
+    private static int wrap(int spot, int limit) {
+        if (spot > limit) return spot - limit;
+        if (spot < 1) return limit + spot;
+        return spot;
+    }
 }
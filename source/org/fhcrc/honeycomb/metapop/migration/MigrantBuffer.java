@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.migration;
+
+import org.fhcrc.honeycomb.metapop.Population;
+import org.fhcrc.honeycomb.metapop.Subpopulation;
+import org.fhcrc.honeycomb.metapop.OccupiedLocations;
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Holds the migrants of one step until they are all placed.  A
+ * {@link MigrationRule} first records every group of migrants as the
+ * source Population, the Subpopulation within it and the destination row
+ * and column, then {@link #apply}s them all at once.  The sources are
+ * therefore read as they were before migration without copying them.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class MigrantBuffer {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size = 0;
+    private int[] sources = new int[INITIAL_CAPACITY];
+    private int[] subpops = new int[INITIAL_CAPACITY];
+    private int[] rows = new int[INITIAL_CAPACITY];
+    private int[] cols = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+
+    /**
+     * records {@code count} migrants.
+     *
+     * @param source the index of the source Population in the list of
+     *               {@link OccupiedLocations}.
+     * @param subpop the index of the Subpopulation within the source.
+     * @param row the destination row.
+     * @param col the destination column.
+     * @param count the number of migrants.
+     */
+    public void add(int source, int subpop, int row, int col, int count) {
+        if (size == counts.length) grow();
+        sources[size] = source;
+        subpops[size] = subpop;
+        rows[size] = row;
+        cols[size] = col;
+        counts[size] = count;
+        size++;
+    }
+
+    /**
+     * sets the destination of every group recorded since group
+     * {@code first}.
+     *
+     * @param first the first group to change.
+     * @param row the destination row.
+     * @param col the destination column.
+     */
+    public void setDestination(int first, int row, int col) {
+        for (int i=first; i<size; i++) {
+            rows[i] = row;
+            cols[i] = col;
+        }
+    }
+
+    private void grow() {
+        int capacity = 2*counts.length;
+        sources = Arrays.copyOf(sources, capacity);
+        subpops = Arrays.copyOf(subpops, capacity);
+        rows = Arrays.copyOf(rows, capacity);
+        cols = Arrays.copyOf(cols, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    /**
+     * adds every recorded group of migrants to its destination, starting a
+     * new Population without resource where there is none, and empties the
+     * buffer.  Migrants are copies; their sources keep them.
+     *
+     * @param ols the OccupiedLocations the sources were recorded from.
+     */
+    public void apply(OccupiedLocations ols) {
+        List<Population> pops = ols.getList();
+        for (int i=0; i<size; i++) {
+            Population source = pops.get(sources[i]);
+            Subpopulation sub = source.getSubpopulations().get(subpops[i]);
+            Population pop = ols.getPopulationAt(rows[i], cols[i]);
+            if (pop == null) {
+                Subpopulation new_sub = new Subpopulation(sub);
+                new_sub.setSize(counts[i]);
+                ols.add(new Population(Arrays.asList(new_sub),
+                                       new Coordinate(rows[i], cols[i]), 0.0,
+                                       source.getRNG()));
+            } else {
+                pop.addMigrants(sub, counts[i]);
+            }
+        }
+        clear();
+    }
+
+    public void clear() { size = 0; }
+
+    /** returns the number of groups of migrants recorded. */
+    public int getSize() { return size; }
+
+    /** returns the total number of migrants recorded. */
+    public long getMigrants() {
+        long total = 0;
+        for (int i=0; i<size; i++) total += counts[i];
+        return total;
+    }
+}
@@ -41,6 +41,9 @@ public abstract class MigrationRule implements CoordinateProvider {
     private CoordinatePicker picker;
     private Coordinate coordinate;
 
+    /** collects each step's migrants until they are applied. */
+    protected final MigrantBuffer buffer = new MigrantBuffer();
+
     protected MigrationRule() {}
 
     public MigrationRule(double rate, CoordinatePicker picker) {
@@ -51,6 +54,18 @@ public abstract class MigrationRule implements CoordinateProvider {
 
     public abstract void migrate(OccupiedLocations ols);
 
+    /**
+     * migrates as over {@code steps} time steps at once.  By default this
+     * simply migrates {@code steps} times; rules that can aggregate the
+     * steps override it.
+     *
+     * @param ols the OccupiedLocations.
+     * @param steps the number of time steps.
+     */
+    public void migrate(OccupiedLocations ols, int steps) {
+        for (int i=0; i<steps; i++) migrate(ols);
+    }
+
     public double getRate() { return rate; }
     public CoordinatePicker getPicker() { return picker; }
     public void setCoordinate(Coordinate coord) {
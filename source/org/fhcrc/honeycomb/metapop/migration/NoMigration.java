@@ -37,4 +37,7 @@ public class NoMigration extends MigrationRule {
 
     @Override
     public void migrate(OccupiedLocations ols) { }
+
+    @Override
+    public void migrate(OccupiedLocations ols, int steps) { }
 }
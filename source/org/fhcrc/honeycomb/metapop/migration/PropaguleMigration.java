@@ -20,14 +20,18 @@
 package org.fhcrc.honeycomb.metapop.migration;
 
 import org.fhcrc.honeycomb.metapop.Population;
+import org.fhcrc.honeycomb.metapop.Subpopulation;
+import org.fhcrc.honeycomb.metapop.RandomNumberUser;
 import org.fhcrc.honeycomb.metapop.OccupiedLocations;
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.CoordinatePicker;
 
 import java.util.List;
-import java.util.ArrayList;
 
 /** 
- * Propagule migration.
+ * Propagule migration: the migrants leaving a location, drawn cell by
+ * cell, travel together to a single location chosen by the
+ * {@link CoordinatePicker}.
  *
  * Created on 30 May, 2013
  *
@@ -43,18 +47,42 @@ public class PropaguleMigration extends MigrationRule {
 
     @Override
     public void migrate(OccupiedLocations ols) {
-        // iterate over *copy* of occupied locations.
-        for (Population pop:ols.copyList()) {
-            setCoordinate(pop.getCoordinate());
+        migrate(ols, 1);
+    }
+
+    /**
+     * migrates as over {@code steps} time steps, each cell leaving at most
+     * once with probability {@code 1-(1-rate)^steps}.
+     */
+    @Override
+    public void migrate(OccupiedLocations ols, int steps) {
+        double rate = RandomNumberUser.overSteps(getRate(), steps);
+        List<Population> pops = ols.getList();
+        int n_sources = pops.size();
 
-            Population migrating_pop = pop.collectMigrants(getRate());
-            if (migrating_pop.getSize() > 0) {
-                migrating_pop.setCoordinate(getPicker().pick());
-                migrating_pop.setResource(0.0);
+        // Record every propagule before placing any, so that propagules are
+        // drawn from the sizes before migration.
+        for (int i=0; i<n_sources; i++) {
+            Population pop = pops.get(i);
+            setCoordinate(pop.getCoordinate());
 
-                // alter *actual* populations
-                ols.addOrMix(migrating_pop);
+            List<Subpopulation> subs = pop.getSubpopulations();
+            int first = buffer.getSize();
+            int total = 0;
+            for (int j=0; j<subs.size(); j++) {
+                Subpopulation sub = subs.get(j);
+                int n = sub.getRNG().getNextHybridBinomial(sub.getSize(),
+                                                           rate);
+                if (n > 0) {
+                    buffer.add(i, j, 0, 0, n);
+                    total += n;
+                }
+            }
+            if (total > 0) {
+                Coordinate dest = getPicker().pick();
+                buffer.setDestination(first, dest.getRow(), dest.getCol());
             }
         }
+        buffer.apply(ols);
     }
 }
@@ -3,9 +3,13 @@ package org.fhcrc.honeycomb.metapop.mutation;
 import org.fhcrc.honeycomb.metapop.Population;
 import org.fhcrc.honeycomb.metapop.Subpopulation;
 import org.fhcrc.honeycomb.metapop.RandomNumberUser;
+import org.fhcrc.honeycomb.metapop.StrainRegistry;
 import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
 import org.fhcrc.honeycomb.metapop.fitness.MonodCalculator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
 
 /* 
 This class mutates one locus of a cell's genotype randomly and places it in a Subpopulation accordingly.
@@ -22,6 +26,14 @@ public class MutateAdaptive implements MutationRule {
 	private double cheat_to_coop_rate;
 	private RandomNumberUser rng; // random number generator
 
+	// The registry of the World being mutated; the caches below hold its handles.
+	private StrainRegistry registry;
+	// The child strain of each parent, by handle, plus one; zero until first needed.
+	private int[] cheaters = new int[0];
+	private int[] cooperators = new int[0];
+	// The strain of each adaptive mutant, keyed by parent and by Vmax and Km to the precision of its id.
+	private Map<Long, Integer> mutants = new HashMap<Long, Integer>();
+
 	//Constructor
 	public MutateAdaptive(double mut_rate, double coop_to_cheat_rate, double cheat_to_coop_rate, RandomNumberUser rng) {
 		this.mut_rate = mut_rate;
@@ -33,40 +45,29 @@ public class MutateAdaptive implements MutationRule {
 	//Mutates cells in a list of Populations by assigning them new MonodCalculator fields
 	//and placing them in new Subpopulations.
 	public void mutate(List<Population> pops) {
+		mutate(pops, 1);
+	}
+
+	//Mutates as over several timesteps; each cell mutates at most once.
+	public void mutate(List<Population> pops, int steps) {
+		double p_mut = RandomNumberUser.overSteps(mut_rate, steps);
+		double p_coop_to_cheat = RandomNumberUser.overSteps(coop_to_cheat_rate, steps);
+		double p_cheat_to_coop = RandomNumberUser.overSteps(cheat_to_coop_rate, steps);
 		for (Population pop:pops) {
 			for (Subpopulation sub:pop.copySubpopulations(pop.getSubpopulations())) {
-				if (sub.getId().substring(0,4).equals("coop") && coop_to_cheat_rate != 0) {
-					int coop_to_cheat = rng.getNextBinomial(sub.getSize(), coop_to_cheat_rate);
+				useRegistry(sub.getDescriptor().getRegistry());
+				if ("coop".equals(sub.getType()) && coop_to_cheat_rate != 0) {
+					int coop_to_cheat = rng.getNextBinomial(sub.getSize(), p_coop_to_cheat);
 					sub.setSize(sub.getSize() - coop_to_cheat);
-					double cheater_max = (sub.getFitnessCalculator().getMaxGrowthRate() - 
-						sub.getFitnessCalculator().calculateDeathRate(0)) * 200 * CHEAT_ADV;
-					String cheater_id = "cheat_" + String.format("%.3g", cheater_max) + sub.getId().substring(sub.getId().lastIndexOf("_"),sub.getId().length());
-					if (pop.getSubpopById(cheater_id) != null) {
-						pop.getSubpopById(cheater_id).setSize(pop.getSubpopById(cheater_id).getSize() + coop_to_cheat);
-					} else {
-						double[] params = {CHEAT_ADV, 1, 1};
-						pop.addNewSubpopulation(new Subpopulation(coop_to_cheat, sub.getGamma(), 0, 
-							sub.getFitnessCalculator().copyFitnessCalculator(params), cheater_id, this.rng));
-						System.out.println("New subpop: " + cheater_id + " in " + pop.getCoordinate().toString());
-					}
+					addChild(pop, cheaterOf(sub), coop_to_cheat);
 				}
-				if (sub.getId().substring(0,5).equals("cheat") && cheat_to_coop_rate != 0) {
-					int cheat_to_coop = rng.getNextBinomial(sub.getSize(), cheat_to_coop_rate);
+				if ("cheat".equals(sub.getType()) && cheat_to_coop_rate != 0) {
+					int cheat_to_coop = rng.getNextBinomial(sub.getSize(), p_cheat_to_coop);
 					sub.setSize(sub.getSize() - cheat_to_coop);
-					double coop_max = (sub.getFitnessCalculator().getMaxGrowthRate() - 
-						sub.getFitnessCalculator().calculateDeathRate(0)) * 200 / CHEAT_ADV;
-					String coop_id = "coop_" + String.format("%.3g", coop_max) + sub.getId().substring(sub.getId().lastIndexOf("_"),sub.getId().length());
-					if (pop.getSubpopById(coop_id) != null) {
-						pop.getSubpopById(coop_id).setSize(pop.getSubpopById(coop_id).getSize() + cheat_to_coop);
-					} else {
-						double[] params = {1/CHEAT_ADV, 1, 1};
-						pop.addNewSubpopulation(new Subpopulation(cheat_to_coop, sub.getGamma(), 2.4, 
-							sub.getFitnessCalculator().copyFitnessCalculator(params), coop_id, this.rng));
-						System.out.println("New subpop: " + coop_id + " in " + pop.getCoordinate().toString());
-					}
+					addChild(pop, cooperatorOf(sub), cheat_to_coop);
 				}
 				if (mut_rate != 0) {
-					int mutants = rng.getNextBinomial(sub.getSize(), mut_rate);
+					int mutants = rng.getNextBinomial(sub.getSize(), p_mut);
 					sub.setSize(sub.getSize() - mutants);
 					for (int i=0; i<mutants; i++) {
 						double vmax_factor = 1.0;
@@ -75,22 +76,101 @@ public class MutateAdaptive implements MutationRule {
 						km_factor = 3*vmax_factor - 2;
 						double new_vmax = vmax_factor*0.45;
 						double new_km = km_factor*10;
-						double[] params = {vmax_factor, km_factor, 1};
-						String new_sub_id = 
-							sub.getId().substring(0, sub.getId().indexOf("_")) + "_" + String.format("%.3g", new_vmax) + "_" + String.format("%.3g", new_km);
-						if (pop.getSubpopById(new_sub_id) != null) {
-							pop.getSubpopById(new_sub_id).setSize(pop.getSubpopById(new_sub_id).getSize() + 1);
-						} else {
-							pop.addNewSubpopulation(new Subpopulation(1, sub.getGamma(), sub.getReleaseRate(), 
-								new MonodCalculator(new_vmax, new_km, sub.getFitnessCalculator().calculateDeathRate(0), 200), new_sub_id, this.rng));
-							System.out.println("New subpop: " + new_sub_id + " in " + pop.getCoordinate().toString());
-						}
+						addChild(pop, mutantOf(sub, new_vmax, new_km), 1);
 					}
 				}
 			}
 		}
 	}
 
+	//Starts the caches again when the rule is used in another World.
+	private void useRegistry(StrainRegistry registry) {
+		if (registry == this.registry) return;
+		this.registry = registry;
+		cheaters = new int[0];
+		cooperators = new int[0];
+		mutants.clear();
+	}
+
+	//Returns the handle of the cheater a cooperator mutates into, registering it the first time.
+	private int cheaterOf(Subpopulation sub) {
+		int parent = sub.getStrain();
+		if (parent < cheaters.length && cheaters[parent] > 0) return cheaters[parent] - 1;
+
+		double cheater_max = (sub.getFitnessCalculator().getMaxGrowthRate() - 
+			sub.getFitnessCalculator().calculateDeathRate(0)) * 200 * CHEAT_ADV;
+		String cheater_id = "cheat_" + String.format("%.3g", cheater_max) + sub.getId().substring(sub.getId().lastIndexOf("_"),sub.getId().length());
+		double[] params = {CHEAT_ADV, 1, 1};
+		int child = registry.register(cheater_id, sub.getGamma(), 0,
+			sub.getFitnessCalculator().copyFitnessCalculator(params), parent);
+		cheaters = remember(cheaters, parent, child);
+		return child;
+	}
+
+	//Returns the handle of the cooperator a cheater mutates into, registering it the first time.
+	private int cooperatorOf(Subpopulation sub) {
+		int parent = sub.getStrain();
+		if (parent < cooperators.length && cooperators[parent] > 0) return cooperators[parent] - 1;
+
+		double coop_max = (sub.getFitnessCalculator().getMaxGrowthRate() - 
+			sub.getFitnessCalculator().calculateDeathRate(0)) * 200 / CHEAT_ADV;
+		String coop_id = "coop_" + String.format("%.3g", coop_max) + sub.getId().substring(sub.getId().lastIndexOf("_"),sub.getId().length());
+		double[] params = {1/CHEAT_ADV, 1, 1};
+		int child = registry.register(coop_id, sub.getGamma(), 2.4,
+			sub.getFitnessCalculator().copyFitnessCalculator(params), parent);
+		cooperators = remember(cooperators, parent, child);
+		return child;
+	}
+
+	//Returns the handle of an adaptive mutant, building its id and registering it only the first time.
+	private int mutantOf(Subpopulation sub, double new_vmax, double new_km) {
+		long key = ((long) sub.getStrain() << 32) | (Math.round(new_vmax*1000) << 16) | Math.round(new_km*100);
+		Integer cached = mutants.get(key);
+		if (cached != null) return cached;
+
+		String new_sub_id = 
+			sub.getType() + "_" + String.format("%.3g", new_vmax) + "_" + String.format("%.3g", new_km);
+		double death_rate = sub.getFitnessCalculator().calculateDeathRate(0);
+		int child = registry.lookup(new_sub_id);
+		// A mutant with the same id, from the same kind of parent, is the same strain; the first one sets its parameters.
+		if (child < 0 || !sameKind(registry.get(child), sub, death_rate)) {
+			child = registry.register(new_sub_id, sub.getGamma(), sub.getReleaseRate(),
+				new MonodCalculator(new_vmax, new_km, death_rate, 200), sub.getStrain());
+		}
+		mutants.put(key, child);
+		return child;
+	}
+
+	private static boolean sameKind(StrainRegistry.Strain strain, Subpopulation parent, double death_rate) {
+		return strain.getGamma() == parent.getGamma() && strain.getReleaseRate() == parent.getReleaseRate() &&
+			strain.getFitnessCalculator().calculateDeathRate(0) == death_rate/200;
+	}
+
+	private static int[] remember(int[] children, int parent, int child) {
+		if (parent >= children.length) {
+			children = Arrays.copyOf(children, Math.max(parent+1, 2*children.length));
+		}
+		children[parent] = child + 1;
+		return children;
+	}
+
+	//Adds n cells of a strain to a Population, as a new Subpopulation if it has none.
+	private void addChild(Population pop, int child, int n) {
+		Subpopulation existing = pop.getSubpop(child);
+		if (existing != null) {
+			existing.setSize(existing.getSize() + n);
+		} else {
+			StrainRegistry.Strain strain = registry.get(child);
+			pop.addNewSubpopulation(new Subpopulation(n, strain, this.rng));
+			System.out.println("New subpop: " + strain.getId() + " in " + pop.getCoordinate().toString());
+		}
+	}
+
+	//A cell can switch kind and mutate adaptively in the same step.
+	public double getMaxRate() {
+		return Math.max(coop_to_cheat_rate, cheat_to_coop_rate) + mut_rate;
+	}
+
     @Override
     public String toString() {
         return String.format("%s, mut_rate=%.2e",
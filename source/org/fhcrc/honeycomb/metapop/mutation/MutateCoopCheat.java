@@ -56,6 +56,19 @@ public class MutateCoopCheat implements MutationRule {
     }
 
     public void mutate(List<Population> pops) {
+        mutate(pops, 1);
+    }
+
+    public void mutate(List<Population> pops, int steps) {
+        double p_coop_to_cheat =
+            RandomNumberUser.overSteps(coop_to_cheat, steps);
+        double p_cheat_to_coop =
+            RandomNumberUser.overSteps(cheat_to_coop, steps);
+        double p_anc_to_evo =
+            RandomNumberUser.overSteps(anc_to_evo, steps);
+        double p_evo_to_anc =
+            RandomNumberUser.overSteps(evo_to_anc, steps);
+
         if (coop_to_cheat != 0 || cheat_to_coop != 0 || anc_to_evo != 0 || evo_to_enc != 0) {
             for (Population pop:pops) {
                 int anc_coop_muts = 0;
@@ -68,18 +81,18 @@ public class MutateCoopCheat implements MutationRule {
                 Subpopulation anc_cheat = pop.getSubpopById("cheat_0.540_10.0");
                 Subpopulation evo_cheat = pop.getSubpopById("cheat_0.378_1.0");
 
-                if (coop_to_cheat > 0.0) {
+                if (p_coop_to_cheat > 0.0) {
                     anc_coop_muts = rng.getNextBinomial(
-                            anc_coop.getSize(), coop_to_cheat);
+                            anc_coop.getSize(), p_coop_to_cheat);
                     evo_coop_muts = rng.getNextBinomial(
-                            evo_coop.getSize(), coop_to_cheat);
+                            evo_coop.getSize(), p_coop_to_cheat);
                 }
 
-                if (cheat_to_coop > 0.0) {
+                if (p_cheat_to_coop > 0.0) {
                     anc_cheat_muts = rng.getNextBinomial(
-                            anc_cheat.getSize(), cheat_to_coop);
+                            anc_cheat.getSize(), p_cheat_to_coop);
                     evo_cheat_muts = rng.getNextBinomial(
-                            evo_cheat.getSize(), cheat_to_coop);
+                            evo_cheat.getSize(), p_cheat_to_coop);
                 }
 
                 anc_coop.setSize(
@@ -91,18 +104,18 @@ public class MutateCoopCheat implements MutationRule {
                 evo_cheat.setSize(
                         evo_cheat.getSize() - evo_cheat_muts + evo_coop_muts);
                         
-                if (anc_to_evo > 0.0) {
+                if (p_anc_to_evo > 0.0) {
                     anc_coop_muts = rng.getNextBinomial(
-                            anc_coop.getSize(), anc_to_evo);
+                            anc_coop.getSize(), p_anc_to_evo);
                     anc_cheat_muts = rng.getNextBinomial(
-                            anc_cheat.getSize(), anc_to_evo);
+                            anc_cheat.getSize(), p_anc_to_evo);
                 }
 
-                if (evo_to_anc > 0.0) {
+                if (p_evo_to_anc > 0.0) {
                     evo_coop_muts = rng.getNextBinomial(
-                            evo_coop.getSize(), evo_to_anc);
+                            evo_coop.getSize(), p_evo_to_anc);
                     evo_cheat_muts = rng.getNextBinomial(
-                            evo_cheat.getSize(), evo_to_anc);
+                            evo_cheat.getSize(), p_evo_to_anc);
                 }
 
                 anc_coop.setSize(
@@ -117,6 +130,12 @@ public class MutateCoopCheat implements MutationRule {
         }
     }
 
+    // A cell can change both its kind and its ancestry.
+    public double getMaxRate() {
+        return Math.max(coop_to_cheat, cheat_to_coop) +
+               Math.max(anc_to_evo, evo_to_anc);
+    }
+
     @Override
     public String toString() {
         return String.format("%s, coop_to_cheat=%.2e, cheat_to_coop=%.2e, anc_to_evo=%.2e, evo_to_anc=%.2e",
@@ -34,4 +34,21 @@ import java.util.List;
  */
 public interface MutationRule {
     public void mutate(List<Population> pop);
+
+    /**
+     * mutates as over {@code steps} time steps at once, each cell mutating
+     * at most once with probability {@code 1-(1-rate)^steps}.
+     *
+     * @param pop the Populations to mutate.
+     * @param steps the number of time steps.
+     */
+    public void mutate(List<Population> pop, int steps);
+
+    /**
+     * returns the largest probability per time step that a cell of any
+     * strain mutates into another.
+     *
+     * @return the probability.
+     */
+    public double getMaxRate();
 }
@@ -34,4 +34,6 @@ import java.util.List;
  */
 public class NoMutation implements MutationRule {
     public void mutate(List<Population> pop) {}
+    public void mutate(List<Population> pop, int steps) {}
+    public double getMaxRate() { return 0.0; }
 }
@@ -0,0 +1,467 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop.ode;
+
+import org.fhcrc.honeycomb.metapop.Subpopulation;
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.MonodCalculator;
+
+import static org.fhcrc.honeycomb.metapop.ode.RK45Solver.*;
+
+import java.util.List;
+
+/**
+ * Integrates the consumption model of {@link PopulationDynamicsSolver} for
+ * many patches at once.  The patches share one set of strains, and so one
+ * shape of system, but each keeps its own time, step size and error
+ * control, using the Dormand-Prince 5(4) method of {@link RK45Solver}.
+ *
+ * State is held component by component, {@code y[i*stride + slot]}, so that
+ * every stage of the method and every evaluation of the derivatives is a
+ * plain loop over the patches still integrating.  When every strain uses
+ * exactly a {@link MonodCalculator}, growth rates are computed inline from
+ * copies of its parameters instead of through the {@link FitnessCalculator}.
+ * Patches that finish are packed out of the arrays.  Quiescent patches, as
+ * defined by {@link PopulationDynamicsSolver#isQuiescent}, finish before
+ * the first step.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class BatchedSolver {
+    private double minStep = 1.0e-12;
+    private double maxStep = 1;
+    private double scalAbsoluteTolerance = 1.0e-10;
+    private double scalRelativeTolerance = 1.0e-7;
+
+    private final double timestep_length;
+
+    // Strains.
+    private int n_strains = 0;
+    private int n_states = 2;
+    private FitnessCalculator[] fcs = new FitnessCalculator[0];
+    private double[] gamma = new double[0];
+    private double[] release_rate = new double[0];
+    private boolean monod = false;
+    private double[] vmax = new double[0];
+    private double[] km = new double[0];
+    private double[] death = new double[0];
+
+    // Work arrays, laid out y[i*stride + slot].
+    private int stride = 0;
+    private double[] y, y_new, tmp, k1, k2, k3, k4, k5, k6, k7;
+
+    // Per slot.
+    private double[] t, h, err, cap, total, scale;
+    private int[] batch_idx;
+    private boolean[] last;
+
+    // Per batch entry.
+    private double[] mean_resource = new double[0];
+    private double[] final_resource = new double[0];
+    private int steps;
+    private int skipped;
+    private boolean skip_quiescent = true;
+
+    public BatchedSolver(double timestep_length) {
+        this.timestep_length = timestep_length;
+    }
+
+    /**
+     * copies the parameters of the strains into this solver.
+     *
+     * @param strains one {@link Subpopulation} per strain; sizes are ignored.
+     */
+    public void load(List<Subpopulation> strains) {
+        int n = strains.size();
+        if (n != n_strains) {
+            n_strains = n;
+            n_states = n+2;
+            fcs = new FitnessCalculator[n];
+            gamma = new double[n];
+            release_rate = new double[n];
+            vmax = new double[n];
+            km = new double[n];
+            death = new double[n];
+            stride = 0;
+        }
+
+        monod = true;
+        for (int s=0; s<n; s++) {
+            Subpopulation strain = strains.get(s);
+            fcs[s] = strain.getFitnessCalculator();
+            gamma[s] = strain.getGamma();
+            release_rate[s] = strain.getReleaseRate();
+            if (fcs[s].getClass() == MonodCalculator.class) {
+                MonodCalculator mc = (MonodCalculator) fcs[s];
+                vmax[s] = mc.getMaxGrowthRate();
+                km[s] = mc.getKm();
+                death[s] = mc.getDeathRate();
+            } else {
+                monod = false;
+            }
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= stride) return;
+        stride = Math.max(n, 2*stride);
+        int len = n_states*stride;
+        y = new double[len];
+        y_new = new double[len];
+        tmp = new double[len];
+        k1 = new double[len];
+        k2 = new double[len];
+        k3 = new double[len];
+        k4 = new double[len];
+        k5 = new double[len];
+        k6 = new double[len];
+        k7 = new double[len];
+        t = new double[stride];
+        h = new double[stride];
+        err = new double[stride];
+        cap = new double[stride];
+        total = new double[stride];
+        scale = new double[stride];
+        batch_idx = new int[stride];
+        last = new boolean[stride];
+    }
+
+    /**
+     * integrates the patches {@code patches[0..n_batch)}.  The size of strain
+     * {@code s} in patch {@code p} is {@code counts[p*n_strains + s]}.  The
+     * results are read with {@link #getMeanResource} and
+     * {@link #getFinalResource}, indexed by position in {@code patches}.
+     *
+     * @param counts the strain sizes of every patch.
+     * @param resource the resource of every patch.
+     * @param capacity the carrying capacity of every patch.
+     * @param patches the patches to integrate.
+     * @param n_batch the number of patches to integrate.
+     */
+    public void integrate(int[] counts, double[] resource, double[] capacity,
+                          int[] patches, int n_batch)
+    {
+        ensureCapacity(n_batch);
+        if (mean_resource.length < n_batch) {
+            mean_resource = new double[stride];
+            final_resource = new double[stride];
+        }
+
+        int S = n_strains*stride;
+        int I = S+stride;
+        for (int a=0; a<n_batch; a++) {
+            int patch = patches[a];
+            for (int s=0; s<n_strains; s++) {
+                y[s*stride+a] = counts[patch*n_strains + s];
+            }
+            y[S+a] = resource[patch];
+            y[I+a] = 0.0;
+            cap[a] = capacity[patch];
+            t[a] = 0.0;
+            batch_idx[a] = a;
+        }
+
+        int n = n_batch;
+        steps = 0;
+        skipped = 0;
+        derivatives(y, k1, n);
+        if (skip_quiescent && markQuiescent(n)) n = pack(n);
+        initialSteps(n);
+        while (n > 0) {
+            for (int a=0; a<n; a++) {
+                last[a] = t[a] + h[a] >= timestep_length;
+                if (last[a]) h[a] = timestep_length - t[a];
+            }
+            attempt(n);
+            steps++;
+
+            boolean finished = false;
+            for (int a=0; a<n; a++) {
+                double e = err[a];
+                if (e <= 1.0) {
+                    for (int i=0; i<n_states; i++) {
+                        int j = i*stride+a;
+                        y[j] = y_new[j];
+                        k1[j] = k7[j];
+                    }
+                    if (last[a]) {
+                        t[a] = timestep_length;
+                        finished = true;
+                    } else {
+                        t[a] += h[a];
+                    }
+                }
+
+                double factor = (e == 0.0) ? MAX_GROWTH :
+                    SAFETY*Math.pow(e, -0.2);
+                factor = Math.min(MAX_GROWTH, Math.max(MIN_REDUCTION, factor));
+                if (e > 1.0) factor = Math.min(factor, 1.0);
+                h[a] = Math.min(maxStep, h[a]*factor);
+                if (h[a] < minStep && t[a] < timestep_length) {
+                    throw new RuntimeException(
+                        "[BatchedSolver] step size " + h[a] + " below " +
+                        minStep + " at t=" + t[a] + " in patch " +
+                        patches[batch_idx[a]]);
+                }
+            }
+            if (finished) n = pack(n);
+        }
+    }
+
+    /**
+     * records the results of the slots that have reached the end of the
+     * time step and moves the rest to the front.
+     *
+     * @return the number of slots still integrating.
+     */
+    private int pack(int n) {
+        int S = n_strains*stride;
+        int I = S+stride;
+        int kept = 0;
+        for (int a=0; a<n; a++) {
+            if (t[a] >= timestep_length) {
+                mean_resource[batch_idx[a]] = y[I+a]/timestep_length;
+                final_resource[batch_idx[a]] = y[S+a];
+                continue;
+            }
+            if (kept != a) {
+                for (int i=0; i<n_states; i++) {
+                    y[i*stride+kept] = y[i*stride+a];
+                    k1[i*stride+kept] = k1[i*stride+a];
+                }
+                t[kept] = t[a];
+                h[kept] = h[a];
+                cap[kept] = cap[a];
+                batch_idx[kept] = batch_idx[a];
+            }
+            kept++;
+        }
+        return kept;
+    }
+
+    /**
+     * moves every quiescent slot to the end of the time step, with its
+     * integrated resource.  The sizes are left as they are, since only the
+     * resource is reported.
+     *
+     * @return {@code true} if any slot was quiescent.
+     */
+    private boolean markQuiescent(int n) {
+        int S = n_strains*stride;
+        int I = S+stride;
+        for (int a=0; a<n; a++) {
+            double res = y[S+a];
+            boolean quiescent;
+            if (res == 0.0 && starved(a)) {
+                y[I+a] = 0.0;
+                quiescent = true;
+            } else {
+                quiescent = true;
+                for (int i=0; i<=n_strains && quiescent; i++) {
+                    int j = i*stride+a;
+                    double tol = PopulationDynamicsSolver.QUIESCENT_ABS_TOL +
+                        PopulationDynamicsSolver.QUIESCENT_REL_TOL *
+                        Math.abs(y[j]);
+                    quiescent = Math.abs(k1[j])*timestep_length <= tol;
+                }
+                if (quiescent) y[I+a] = res*timestep_length;
+            }
+            if (quiescent) {
+                t[a] = timestep_length;
+                skipped++;
+            }
+        }
+        return skipped > 0;
+    }
+
+    /** whether no strain present in slot a releases or grows unfed. */
+    private boolean starved(int a) {
+        for (int s=0; s<n_strains; s++) {
+            if (y[s*stride+a] == 0.0) continue;
+            if (release_rate[s] != 0.0 ||
+                fcs[s].calculateGrowthRate(0.0) != 0.0) return false;
+        }
+        return true;
+    }
+
+    /** one Dormand-Prince trial step of every slot into y_new and err. */
+    private void attempt(int n) {
+        int len = n_states*stride;
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                tmp[j+a] = y[j+a] + h[a]*A21*k1[j+a];
+            }
+        }
+        derivatives(tmp, k2, n);
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                tmp[j+a] = y[j+a] + h[a]*(A31*k1[j+a] + A32*k2[j+a]);
+            }
+        }
+        derivatives(tmp, k3, n);
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                tmp[j+a] = y[j+a] + h[a]*(A41*k1[j+a] + A42*k2[j+a] +
+                                          A43*k3[j+a]);
+            }
+        }
+        derivatives(tmp, k4, n);
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                tmp[j+a] = y[j+a] + h[a]*(A51*k1[j+a] + A52*k2[j+a] +
+                                          A53*k3[j+a] + A54*k4[j+a]);
+            }
+        }
+        derivatives(tmp, k5, n);
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                tmp[j+a] = y[j+a] + h[a]*(A61*k1[j+a] + A62*k2[j+a] +
+                                          A63*k3[j+a] + A64*k4[j+a] +
+                                          A65*k5[j+a]);
+            }
+        }
+        derivatives(tmp, k6, n);
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                y_new[j+a] = y[j+a] + h[a]*(B1*k1[j+a] + B3*k3[j+a] +
+                                            B4*k4[j+a] + B5*k5[j+a] +
+                                            B6*k6[j+a]);
+            }
+        }
+        derivatives(y_new, k7, n);
+
+        for (int a=0; a<n; a++) err[a] = 0.0;
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                double e = h[a]*(E1*k1[j+a] + E3*k3[j+a] + E4*k4[j+a] +
+                                 E5*k5[j+a] + E6*k6[j+a] + E7*k7[j+a]);
+                double tol = scalAbsoluteTolerance + scalRelativeTolerance *
+                    Math.max(Math.abs(y[j+a]), Math.abs(y_new[j+a]));
+                double ratio = e/tol;
+                err[a] += ratio*ratio;
+            }
+        }
+        for (int a=0; a<n; a++) err[a] = Math.sqrt(err[a]/n_states);
+    }
+
+    /** Hairer's starting step size guess, for every slot. */
+    private void initialSteps(int n) {
+        int len = n_states*stride;
+        for (int a=0; a<n; a++) {
+            err[a] = 0.0;
+            total[a] = 0.0;
+        }
+        for (int j=0; j<len; j+=stride) {
+            for (int a=0; a<n; a++) {
+                double tol = scalAbsoluteTolerance +
+                             scalRelativeTolerance*Math.abs(y[j+a]);
+                err[a] += (y[j+a]/tol)*(y[j+a]/tol);
+                total[a] += (k1[j+a]/tol)*(k1[j+a]/tol);
+            }
+        }
+        double h_max = Math.min(maxStep, timestep_length);
+        for (int a=0; a<n; a++) {
+            double y_norm = Math.sqrt(err[a]/n_states);
+            double dy_norm = Math.sqrt(total[a]/n_states);
+            double guess = (y_norm < 1e-5 || dy_norm < 1e-5) ?
+                           1e-6 : 0.01*y_norm/dy_norm;
+            h[a] = Math.max(minStep, Math.min(guess, h_max));
+        }
+    }
+
+    /** the derivatives of every slot, as in PopulationDynamicsSolver. */
+    private void derivatives(double[] y, double[] yDot, int n) {
+        int S = n_strains*stride;
+        int I = S+stride;
+
+        for (int a=0; a<n; a++) total[a] = 0.0;
+        for (int s=0; s<n_strains; s++) {
+            int off = s*stride;
+            for (int a=0; a<n; a++) total[a] += y[off+a];
+        }
+        for (int a=0; a<n; a++) {
+            scale[a] = 1-(total[a]/cap[a]);
+            yDot[S+a] = 0.0;
+            yDot[I+a] = y[S+a];
+        }
+
+        for (int s=0; s<n_strains; s++) {
+            int off = s*stride;
+            double g = gamma[s];
+            double rel = release_rate[s];
+            if (monod) {
+                double vm = vmax[s];
+                double k = km[s];
+                double d = death[s];
+                for (int a=0; a<n; a++) {
+                    double res = y[S+a];
+                    double gr = (vm*res) / (k+res);
+                    double N = y[off+a];
+                    yDot[off+a] = N*(gr-d);
+                    yDot[S+a] += N*(rel*scale[a] - g*gr);
+                }
+            } else {
+                FitnessCalculator fc = fcs[s];
+                for (int a=0; a<n; a++) {
+                    double res = y[S+a];
+                    double gr = fc.calculateGrowthRate(res);
+                    double dr = fc.calculateDeathRate(res);
+                    double N = y[off+a];
+                    yDot[off+a] = N*(gr-dr);
+                    yDot[S+a] += N*(rel*scale[a] - g*gr);
+                }
+            }
+        }
+    }
+
+    /**
+     * chooses whether quiescent patches are solved without integrating.
+     *
+     * @param skip_quiescent {@code true} to skip them, the default.
+     */
+    public void setSkipQuiescent(boolean skip_quiescent) {
+        this.skip_quiescent = skip_quiescent;
+    }
+
+    /** returns the number of quiescent patches in the last integration. */
+    public int getSkipped() { return skipped; }
+
+    public int getNStrains() { return n_strains; }
+    public boolean isMonod() { return monod; }
+
+    /** returns the number of lock-step iterations in the last integration. */
+    public int getSteps() { return steps; }
+
+    /** returns the average resource of the i-th integrated patch. */
+    public double getMeanResource(int i) { return mean_resource[i]; }
+
+    /** returns the final resource of the i-th integrated patch. */
+    public double getFinalResource(int i) { return final_resource[i]; }
+
+    @Override
+    public String toString() {
+        return String.format("integrator=%s, minStep=%.2e, maxStep=%.2e, " +
+                             "AbsTol=%.2e, RelTol=%.2e, monod=%s",
+                             getClass().getSimpleName(),
+                             minStep, maxStep, scalAbsoluteTolerance,
+                             scalRelativeTolerance, monod);
+    }
+}
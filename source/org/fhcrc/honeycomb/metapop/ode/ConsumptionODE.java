@@ -20,9 +20,6 @@
 package org.fhcrc.honeycomb.metapop.ode;
 
 import org.fhcrc.honeycomb.metapop.Population;
-import org.fhcrc.honeycomb.metapop.Subpopulation;
-import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
-import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 
 import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
 import org.apache.commons.math3.ode.FirstOrderIntegrator;
@@ -33,30 +30,23 @@ import org.apache.commons.math3.ode.sampling.StepNormalizer;
 import org.apache.commons.math3.ode.sampling.StepInterpolator;
 import org.apache.commons.math3.ode.sampling.StepNormalizerMode;
 import org.apache.commons.math3.ode.sampling.StepNormalizerBounds;
-import org.apache.commons.math3.ode.events.EventHandler;
-
-import java.math.BigDecimal;
-import java.util.Arrays;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
 
 /** 
- * Uses ODEs to accurately calculate growth rates.
+ * Uses ODEs to accurately calculate growth rates.  Integrates with the
+ * adaptive {@link DormandPrince54Integrator} from commons-math.
+ *
+ * The average resource normally comes from the integral carried in the
+ * state vector.  With {@link #setSampled} it is instead found by sampling
+ * the resource at 1001 evenly spaced times and applying the trapezoid rule,
+ * as it used to be; this is kept for validation.
  *
  * Created on 2 Aug, 2013
  * @author Adam Waite
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
  *
  */
-public class ConsumptionODE implements FirstOrderDifferentialEquations {
-    private Population pop;
-    private List<Subpopulation> subpops = new ArrayList<Subpopulation>();
-    private int n_subpops;
-    private int n_states;
-    private double capacity;
-
+public class ConsumptionODE extends PopulationDynamicsSolver
+                            implements FirstOrderDifferentialEquations {
     // Integrator
     private double minStep = 1.0e-12;
     private double maxStep = 1;
@@ -69,11 +59,6 @@ public class ConsumptionODE implements FirstOrderDifferentialEquations {
                                       scalRelativeTolerance);
 
     private double initial_time = 0.0;
-    private double timestep_length;
-    private double[] init;
-    private double[] result;
-    private Map<String, Double> result_map = new HashMap<String, Double>();
-    private Map<String, Double> init_map = new HashMap<String, Double>();
 
     // For integration of resource
     private int steps = 1000;
@@ -84,6 +69,7 @@ public class ConsumptionODE implements FirstOrderDifferentialEquations {
 
     private FixedStepHandler fixedHandler;
     private StepHandler normalizer;
+    private boolean sampled = false;
 
     public ConsumptionODE() {}
 
@@ -92,14 +78,19 @@ public class ConsumptionODE implements FirstOrderDifferentialEquations {
     }
 
     public ConsumptionODE(Population pop, double timestep_length) {
-        this.pop = pop;
-        this.capacity = pop.getCapacity();
-        this.subpops = pop.getSubpopulations();
-        this.n_subpops = this.subpops.size();
-        this.n_states = n_subpops + 1;
-        this.timestep_length = timestep_length;
+        this(pop.getNSubpopulations(), timestep_length);
+        load(pop.getSubpopulations(), pop.getCapacity());
+    }
 
-        init = new double[n_states];
+    /**
+     * constructs an ODE for {@code n_subpops} Subpopulations whose
+     * parameters are supplied later through {@link #load}.
+     *
+     * @param n_subpops the number of Subpopulations.
+     * @param timestep_length the length of time to integrate over.
+     */
+    public ConsumptionODE(int n_subpops, double timestep_length) {
+        super(n_subpops, timestep_length);
 
         fixedHandler = new FixedStepHandler() {
             @Override
@@ -115,92 +106,51 @@ public class ConsumptionODE implements FirstOrderDifferentialEquations {
             }
         };
         //System.out.println("step size: " + timestep_length/steps);
+        makeNormalizer();
+    }
+
+    private void makeNormalizer() {
         normalizer = new StepNormalizer(timestep_length * step_size,
                                         fixedHandler,
                                         StepNormalizerBounds.BOTH);
-
-        integrator.addStepHandler(normalizer);
     }
 
     @Override
-    public int getDimension() { return n_states; }
-
-    @Override
-    public void computeDerivatives(double t, double[] y, double[] yDot) {
-        double total_size = 0.0;
-        for (int i=0; i<n_subpops; i++) { total_size += y[i]; }
-
-        double S = y[y.length-1];
-        double S_new = 0.0;
-        double gr = 0.0;
-        double dr = 0.0;
-        double release = 0.0;
-        double consumption = 0.0;
-        FitnessCalculator fc;
-        Subpopulation subpop;
-        double scale = 1-(total_size/capacity);
-        for (int i=0; i<n_subpops; i++) {
-            subpop = subpops.get(i);
-            fc = subpop.getFitnessCalculator();
-            gr = fc.calculateGrowthRate(S);
-            dr = fc.calculateDeathRate(S);
-
-            // dN/dt
-            yDot[i] = y[i]*(gr-dr);
-
-            S_new += y[i]*(subpop.getReleaseRate()*scale -
-                           subpop.getGamma()*gr);
+    public void setTimestepLength(double timestep_length) {
+        if (timestep_length == this.timestep_length) return;
+        super.setTimestepLength(timestep_length);
+        makeNormalizer();
+        if (sampled) {
+            integrator.clearStepHandlers();
+            integrator.addStepHandler(normalizer);
         }
-        // dS/dt
-        yDot[yDot.length-1] = S_new;
     }
 
-    public void integrate(Population pop) {
-        this.pop = pop;
+    /**
+     * chooses whether the average resource is found by sampling the resource
+     * during the integration rather than from the integral in the state.
+     *
+     * @param sampled {@code true} to sample.
+     */
+    public void setSampled(boolean sampled) {
+        if (sampled == this.sampled) return;
+        this.sampled = sampled;
+        integrator.clearStepHandlers();
+        if (sampled) integrator.addStepHandler(normalizer);
+    }
 
-        for (int i=0; i<n_subpops; i++) { 
-            Subpopulation subpop = pop.getSubpopulations().get(i);
-            init[i] = subpop.getSize();
-        }
-        init[n_subpops] = pop.getResource();
-        result = Arrays.copyOf(init, init.length);
+    public boolean isSampled() { return sampled; }
 
+    @Override
+    protected void solve() {
         integrator.integrate(this, initial_time, result, timestep_length,
                              result); 
     }
 
-    public void makeResults() {
-        init_map = new HashMap<String, Double>();
-        result_map = new HashMap<String, Double>();
-        for (int i=0; i<n_subpops; i++) {
-            init_map.put(subpops.get(i).getId(), init[i]);
-            result_map.put(subpops.get(i).getId(), result[i]);
-        }
-        init_map.put("resource", init[n_subpops]);
-        result_map.put("resource", result[n_subpops]);
-    }
-
-    public Map<String,Double> getResult() {
-        makeResults();
-        return result_map;
-    }
-
-    public void reportResults() {
-        makeResults();
-        System.out.println("init: " + init_map.toString());
-        System.out.println("final: " + result_map.toString());
-        System.out.println("timestep length: " + timestep_length);
-    }
-
-    public double calculateGrowthRate(String id) {
-        // dN/dt = rN
-        if (result_map.size() == 0) makeResults();
-        double N = result_map.get(id);
-        double dN_dt = (N-init_map.get(id))/timestep_length;
-        return dN_dt/N;
-    }
-
+    @Override
     public double integrateResource() {
+        if (!sampled || wasSkipped()) return super.integrateResource();
+
         double sum = 0.0;
         for (int i=1; i<steps; i++) { 
             sum += resource_array[i];
@@ -209,14 +159,6 @@ public class ConsumptionODE implements FirstOrderDifferentialEquations {
         return sum*step_size;
     }
 
-    public double getFinalResource() {
-        return result[n_subpops];
-    }
-
-    public double getInitialResource() {
-        return init[n_subpops];
-    }
-
     public void printResourceArray() {
         for (int i=0; i<steps; i++) {
             System.out.println("resource_array[" + i + "]: " + 
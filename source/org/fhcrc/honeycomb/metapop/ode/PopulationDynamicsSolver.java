@@ -0,0 +1,290 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop.ode;
+
+import org.fhcrc.honeycomb.metapop.Population;
+import org.fhcrc.honeycomb.metapop.Subpopulation;
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+
+/**
+ * Integrates the consumption model over one time step: each
+ * {@link Subpopulation} grows at the rate given by its
+ * {@link FitnessCalculator}, consumes {@code gamma} units of resource per new
+ * cell and releases resource in proportion to the space left below the
+ * carrying capacity.  Subclasses supply the numerical method.
+ *
+ * The state vector holds the Subpopulation sizes followed by the resource
+ * and, last, the integral of the resource since the start of the step, from
+ * which {@link #integrateResource} takes the average resource.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public abstract class PopulationDynamicsSolver {
+    public static final double QUIESCENT_ABS_TOL = 1.0e-10;
+    public static final double QUIESCENT_REL_TOL = 1.0e-7;
+
+    protected int n_subpops;
+    protected int n_states;
+    protected double capacity;
+    protected double timestep_length;
+
+    // Subpopulation parameters, indexed like the state vector.
+    protected String[] ids;
+    protected FitnessCalculator[] fcs;
+    protected double[] gamma;
+    protected double[] release_rate;
+
+    protected double[] init;
+    protected double[] result;
+    private double[] rates;
+    private boolean skip_quiescent = true;
+    private boolean skipped = false;
+    private Map<String, Double> result_map = new HashMap<String, Double>();
+    private Map<String, Double> init_map = new HashMap<String, Double>();
+
+    protected PopulationDynamicsSolver() {}
+
+    /**
+     * constructs a solver for {@code n_subpops} {@link Subpopulation}s whose
+     * parameters are supplied later through {@link #load}.
+     *
+     * @param n_subpops the number of Subpopulations.
+     * @param timestep_length the length of time to integrate over.
+     */
+    protected PopulationDynamicsSolver(int n_subpops, double timestep_length) {
+        this.n_subpops = n_subpops;
+        this.n_states = n_subpops + 2;
+        this.timestep_length = timestep_length;
+
+        ids = new String[n_subpops];
+        fcs = new FitnessCalculator[n_subpops];
+        gamma = new double[n_subpops];
+        release_rate = new double[n_subpops];
+        init = new double[n_states];
+        result = new double[n_states];
+        rates = new double[n_states];
+    }
+
+    /** integrates {@link #result}, which starts as a copy of {@link #init}. */
+    protected abstract void solve();
+
+    /**
+     * returns the average amount of resource over the last integration.
+     *
+     * @return the average amount of resource.
+     */
+    public double integrateResource() {
+        return result[n_subpops+1]/timestep_length;
+    }
+
+    public int getDimension() { return n_states; }
+
+    public double getTimestepLength() { return timestep_length; }
+
+    /**
+     * sets the length of time the next integrations cover.
+     *
+     * @param timestep_length the length of time to integrate over.
+     */
+    public void setTimestepLength(double timestep_length) {
+        this.timestep_length = timestep_length;
+    }
+
+    /**
+     * copies the parameters of the passed {@link Subpopulation}s into this
+     * solver.  Only the first {@code n_subpops} are used; their sizes are
+     * ignored.
+     *
+     * @param subpops the Subpopulations supplying the parameters.
+     * @param capacity the carrying capacity.
+     */
+    public void load(List<Subpopulation> subpops, double capacity) {
+        this.capacity = capacity;
+        for (int i=0; i<n_subpops; i++) {
+            Subpopulation subpop = subpops.get(i);
+            ids[i] = subpop.getId();
+            fcs[i] = subpop.getFitnessCalculator();
+            gamma[i] = subpop.getGamma();
+            release_rate[i] = subpop.getReleaseRate();
+        }
+    }
+
+    public void computeDerivatives(double t, double[] y, double[] yDot) {
+        double total_size = 0.0;
+        for (int i=0; i<n_subpops; i++) { total_size += y[i]; }
+
+        double S = y[n_subpops];
+        double S_new = 0.0;
+        double gr = 0.0;
+        double dr = 0.0;
+        FitnessCalculator fc;
+        double scale = 1-(total_size/capacity);
+        for (int i=0; i<n_subpops; i++) {
+            fc = fcs[i];
+            gr = fc.calculateGrowthRate(S);
+            dr = fc.calculateDeathRate(S);
+
+            // dN/dt
+            yDot[i] = y[i]*(gr-dr);
+
+            S_new += y[i]*(release_rate[i]*scale - gamma[i]*gr);
+        }
+        // dS/dt
+        yDot[n_subpops] = S_new;
+
+        // d(integral of S)/dt
+        yDot[n_subpops+1] = S;
+    }
+
+    public void integrate(Population pop) {
+        for (int i=0; i<n_subpops; i++) {
+            Subpopulation subpop = pop.getSubpopulations().get(i);
+            init[i] = subpop.getSize();
+        }
+        init[n_subpops] = pop.getResource();
+        init[n_subpops+1] = 0.0;
+        start();
+    }
+
+    /**
+     * integrates starting from the sizes stored in {@code counts}, beginning
+     * at {@code offset}, and the given amount of resource.
+     *
+     * @param counts the Subpopulation sizes.
+     * @param offset the index of the first Subpopulation in {@code counts}.
+     * @param resource the amount of resource.
+     */
+    public void integrate(int[] counts, int offset, double resource) {
+        for (int i=0; i<n_subpops; i++) {
+            init[i] = counts[offset+i];
+        }
+        init[n_subpops] = resource;
+        init[n_subpops+1] = 0.0;
+        start();
+    }
+
+    private void start() {
+        System.arraycopy(init, 0, result, 0, n_states);
+        skipped = skip_quiescent && isQuiescent();
+        if (!skipped) solve();
+    }
+
+    /**
+     * checks whether the system starting from {@link #init} can be solved
+     * without integrating, and if so fills in {@link #result}.  That is the
+     * case when
+     * <ul>
+     * <li>every size and the resource would change by less than the
+     * integration tolerance over the time step at their current rates; the
+     * state is then taken as constant, or</li>
+     * <li>there is no resource, and no Subpopulation present releases
+     * resource or grows without it; the resource stays at zero and each
+     * Subpopulation decays at its death rate.</li>
+     * </ul>
+     *
+     * @return {@code true} if the system is quiescent.
+     */
+    protected boolean isQuiescent() {
+        double S = init[n_subpops];
+        if (S == 0.0) {
+            boolean starved = true;
+            for (int i=0; i<n_subpops && starved; i++) {
+                if (init[i] == 0.0) continue;
+                starved = release_rate[i] == 0.0 &&
+                          fcs[i].calculateGrowthRate(0.0) == 0.0;
+            }
+            if (starved) {
+                for (int i=0; i<n_subpops; i++) {
+                    result[i] = init[i] *
+                        Math.exp(-fcs[i].calculateDeathRate(0.0) *
+                                 timestep_length);
+                }
+                result[n_subpops] = 0.0;
+                result[n_subpops+1] = 0.0;
+                return true;
+            }
+        }
+
+        computeDerivatives(0.0, init, rates);
+        for (int i=0; i<=n_subpops; i++) {
+            double tol = QUIESCENT_ABS_TOL +
+                         QUIESCENT_REL_TOL*Math.abs(init[i]);
+            if (Math.abs(rates[i])*timestep_length > tol) return false;
+        }
+        result[n_subpops+1] = S*timestep_length;
+        return true;
+    }
+
+    /**
+     * chooses whether quiescent systems are solved without integrating.
+     *
+     * @param skip_quiescent {@code true} to skip them, the default.
+     */
+    public void setSkipQuiescent(boolean skip_quiescent) {
+        this.skip_quiescent = skip_quiescent;
+    }
+
+    /** returns whether the last integration was skipped as quiescent. */
+    public boolean wasSkipped() { return skipped; }
+
+    public void makeResults() {
+        init_map = new HashMap<String, Double>();
+        result_map = new HashMap<String, Double>();
+        for (int i=0; i<n_subpops; i++) {
+            init_map.put(ids[i], init[i]);
+            result_map.put(ids[i], result[i]);
+        }
+        init_map.put("resource", init[n_subpops]);
+        result_map.put("resource", result[n_subpops]);
+    }
+
+    public Map<String,Double> getResult() {
+        makeResults();
+        return result_map;
+    }
+
+    public void reportResults() {
+        makeResults();
+        System.out.println("init: " + init_map.toString());
+        System.out.println("final: " + result_map.toString());
+        System.out.println("timestep length: " + timestep_length);
+    }
+
+    public double calculateGrowthRate(String id) {
+        // dN/dt = rN
+        if (result_map.size() == 0) makeResults();
+        double N = result_map.get(id);
+        double dN_dt = (N-init_map.get(id))/timestep_length;
+        return dN_dt/N;
+    }
+
+    public double getFinalResource() {
+        return result[n_subpops];
+    }
+
+    public double getInitialResource() {
+        return init[n_subpops];
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop.ode;
+
+/**
+ * Integrates the consumption model with an adaptive Dormand-Prince 5(4)
+ * Runge-Kutta method written directly against primitive arrays.  Uses the
+ * same tolerances as {@link ConsumptionODE}, but without the step handlers,
+ * interpolators and event machinery of commons-math, and without allocating.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class RK45Solver extends PopulationDynamicsSolver {
+    // Dormand-Prince 5(4) tableau, shared with BatchedSolver.
+    static final double C2 = 1.0/5, C3 = 3.0/10, C4 = 4.0/5, C5 = 8.0/9;
+    static final double A21 = 1.0/5;
+    static final double A31 = 3.0/40, A32 = 9.0/40;
+    static final double A41 = 44.0/45, A42 = -56.0/15, A43 = 32.0/9;
+    static final double A51 = 19372.0/6561, A52 = -25360.0/2187,
+                        A53 = 64448.0/6561, A54 = -212.0/729;
+    static final double A61 = 9017.0/3168, A62 = -355.0/33,
+                        A63 = 46732.0/5247, A64 = 49.0/176,
+                        A65 = -5103.0/18656;
+    static final double B1 = 35.0/384, B3 = 500.0/1113,
+                        B4 = 125.0/192, B5 = -2187.0/6784,
+                        B6 = 11.0/84;
+    static final double E1 = 71.0/57600, E3 = -71.0/16695,
+                        E4 = 71.0/1920, E5 = -17253.0/339200,
+                        E6 = 22.0/525, E7 = -1.0/40;
+
+    static final double SAFETY = 0.9;
+    static final double MIN_REDUCTION = 0.2;
+    static final double MAX_GROWTH = 10.0;
+
+    private double minStep = 1.0e-12;
+    private double maxStep = 1;
+    private double scalAbsoluteTolerance = 1.0e-10;
+    private double scalRelativeTolerance = 1.0e-7;
+
+    private final double[] k1, k2, k3, k4, k5, k6, k7;
+    private final double[] tmp;
+    private final double[] y_new;
+    private int evaluations;
+
+    public RK45Solver(int n_subpops, double timestep_length) {
+        super(n_subpops, timestep_length);
+        k1 = new double[n_states];
+        k2 = new double[n_states];
+        k3 = new double[n_states];
+        k4 = new double[n_states];
+        k5 = new double[n_states];
+        k6 = new double[n_states];
+        k7 = new double[n_states];
+        tmp = new double[n_states];
+        y_new = new double[n_states];
+    }
+
+    @Override
+    protected void solve() {
+        double[] y = result;
+        double t = 0.0;
+        double t_end = timestep_length;
+        evaluations = 0;
+
+        derivatives(t, y, k1);
+        double h = initialStep(y);
+        while (t < t_end) {
+            boolean last = false;
+            if (t + h >= t_end) {
+                h = t_end - t;
+                last = true;
+            }
+
+            double err = attempt(t, y, h);
+            if (err <= 1.0) {
+                System.arraycopy(y_new, 0, y, 0, n_states);
+                System.arraycopy(k7, 0, k1, 0, n_states);
+                t = last ? t_end : t + h;
+            }
+
+            double factor = (err == 0.0) ? MAX_GROWTH :
+                SAFETY*Math.pow(err, -0.2);
+            factor = Math.min(MAX_GROWTH, Math.max(MIN_REDUCTION, factor));
+            if (err > 1.0) factor = Math.min(factor, 1.0);
+            h = Math.min(maxStep, h*factor);
+            if (h < minStep && t < t_end) {
+                throw new RuntimeException(
+                        "[RK45Solver] step size " + h + " below " + minStep +
+                        " at t=" + t);
+            }
+        }
+    }
+
+    /**
+     * takes one trial step of length h from (t, y) into {@link #y_new},
+     * leaving the derivative at the new point in {@link #k7}.
+     *
+     * @return the scaled error; the step is acceptable if it is at most 1.
+     */
+    private double attempt(double t, double[] y, double h) {
+        int n = n_states;
+        for (int i=0; i<n; i++) tmp[i] = y[i] + h*A21*k1[i];
+        derivatives(t + C2*h, tmp, k2);
+        for (int i=0; i<n; i++) {
+            tmp[i] = y[i] + h*(A31*k1[i] + A32*k2[i]);
+        }
+        derivatives(t + C3*h, tmp, k3);
+        for (int i=0; i<n; i++) {
+            tmp[i] = y[i] + h*(A41*k1[i] + A42*k2[i] + A43*k3[i]);
+        }
+        derivatives(t + C4*h, tmp, k4);
+        for (int i=0; i<n; i++) {
+            tmp[i] = y[i] + h*(A51*k1[i] + A52*k2[i] + A53*k3[i] +
+                               A54*k4[i]);
+        }
+        derivatives(t + C5*h, tmp, k5);
+        for (int i=0; i<n; i++) {
+            tmp[i] = y[i] + h*(A61*k1[i] + A62*k2[i] + A63*k3[i] +
+                               A64*k4[i] + A65*k5[i]);
+        }
+        derivatives(t + h, tmp, k6);
+        for (int i=0; i<n; i++) {
+            y_new[i] = y[i] + h*(B1*k1[i] + B3*k3[i] + B4*k4[i] +
+                                 B5*k5[i] + B6*k6[i]);
+        }
+        derivatives(t + h, y_new, k7);
+
+        double sum = 0.0;
+        for (int i=0; i<n; i++) {
+            double e = h*(E1*k1[i] + E3*k3[i] + E4*k4[i] + E5*k5[i] +
+                          E6*k6[i] + E7*k7[i]);
+            double tol = scalAbsoluteTolerance + scalRelativeTolerance *
+                         Math.max(Math.abs(y[i]), Math.abs(y_new[i]));
+            double ratio = e/tol;
+            sum += ratio*ratio;
+        }
+        return Math.sqrt(sum/n);
+    }
+
+    /** Hairer's starting step size guess. */
+    private double initialStep(double[] y) {
+        double y_norm = 0.0;
+        double dy_norm = 0.0;
+        for (int i=0; i<n_states; i++) {
+            double tol = scalAbsoluteTolerance +
+                         scalRelativeTolerance*Math.abs(y[i]);
+            y_norm += (y[i]/tol)*(y[i]/tol);
+            dy_norm += (k1[i]/tol)*(k1[i]/tol);
+        }
+        y_norm = Math.sqrt(y_norm/n_states);
+        dy_norm = Math.sqrt(dy_norm/n_states);
+
+        double h = (y_norm < 1e-5 || dy_norm < 1e-5) ?
+                   1e-6 : 0.01*y_norm/dy_norm;
+        return Math.max(minStep, Math.min(h, Math.min(maxStep,
+                                                      timestep_length)));
+    }
+
+    private void derivatives(double t, double[] y, double[] yDot) {
+        computeDerivatives(t, y, yDot);
+        evaluations++;
+    }
+
+    /** returns the number of derivative evaluations in the last solve. */
+    public int getEvaluations() { return evaluations; }
+
+    @Override
+    public String toString() {
+        return String.format("integrator=%s, minStep=%.2e, maxStep=%.2e, " +
+                             "AbsTol=%.2e, RelTol=%.2e",
+                             getClass().getSimpleName(),
+                             minStep, maxStep, scalAbsoluteTolerance,
+                             scalRelativeTolerance);
+    }
+}
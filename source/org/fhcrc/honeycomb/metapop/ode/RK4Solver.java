@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop.ode;
+
+/**
+ * Integrates the consumption model with the classical fourth-order
+ * Runge-Kutta method using a fixed number of steps.  All work arrays are
+ * allocated once, so integrating allocates nothing.
+ *
+ * Suited to the short, mostly non-stiff time steps of the simulations; use
+ * {@link RK45Solver} or {@link ConsumptionODE} when the step count needed
+ * for accuracy is not known.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class RK4Solver extends PopulationDynamicsSolver {
+    public static final int DEFAULT_STEPS = 20;
+
+    private final int steps;
+    private final double[] k1;
+    private final double[] k2;
+    private final double[] k3;
+    private final double[] k4;
+    private final double[] tmp;
+
+    public RK4Solver(int n_subpops, double timestep_length, int steps) {
+        super(n_subpops, timestep_length);
+        if (steps < 1) throw new IllegalArgumentException("steps < 1.");
+        this.steps = steps;
+        k1 = new double[n_states];
+        k2 = new double[n_states];
+        k3 = new double[n_states];
+        k4 = new double[n_states];
+        tmp = new double[n_states];
+    }
+
+    public RK4Solver(int n_subpops, double timestep_length) {
+        this(n_subpops, timestep_length, DEFAULT_STEPS);
+    }
+
+    @Override
+    protected void solve() {
+        double[] y = result;
+        double h = timestep_length/steps;
+        double t = 0.0;
+
+        for (int step=0; step<steps; step++) {
+            computeDerivatives(t, y, k1);
+            for (int i=0; i<n_states; i++) tmp[i] = y[i] + 0.5*h*k1[i];
+            computeDerivatives(t+0.5*h, tmp, k2);
+            for (int i=0; i<n_states; i++) tmp[i] = y[i] + 0.5*h*k2[i];
+            computeDerivatives(t+0.5*h, tmp, k3);
+            for (int i=0; i<n_states; i++) tmp[i] = y[i] + h*k3[i];
+            computeDerivatives(t+h, tmp, k4);
+
+            for (int i=0; i<n_states; i++) {
+                y[i] += h/6.0*(k1[i] + 2*k2[i] + 2*k3[i] + k4[i]);
+            }
+            t += h;
+        }
+    }
+
+    public int getSteps() { return steps; }
+
+    @Override
+    public String toString() {
+        return String.format("integrator=%s, steps=%d",
+                             getClass().getSimpleName(), steps);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.fhcrc.honeycomb.metapop.ode;
+
+/**
+ * Hands out reusable {@link PopulationDynamicsSolver}s, one per number of
+ * {@link org.fhcrc.honeycomb.metapop.Subpopulation}s and thread.  Each
+ * solver keeps its integrator and work arrays, so none is rebuilt once
+ * its dimension has been seen on the calling thread.  The {@code "rk4"}
+ * and {@code "rk45"} solvers then integrate without allocating; the
+ * commons-math integrator behind {@code "dp54"} still allocates its state
+ * copies and step interpolators on every call.
+ *
+ * The kind of solver is chosen once per run with {@link #setType}:
+ * {@code "dp54"} ({@link ConsumptionODE}, the default), {@code "rk4"}
+ * ({@link RK4Solver}) or {@code "rk45"} ({@link RK45Solver}).
+ * {@code "dp54-sampled"} is the {@link ConsumptionODE} with the sampled
+ * average resource, for validation.
+ *
+ * The caller must {@link PopulationDynamicsSolver#load} the solver before
+ * integrating, since it still holds the parameters of whichever Population
+ * used it last.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public final class SolverPool {
+    public static final String DEFAULT_TYPE = "dp54";
+    private static final String[] TYPES =
+        {"dp54", "rk4", "rk45", "dp54-sampled"};
+
+    private static volatile int type = 0;
+
+    private static final ThreadLocal<PopulationDynamicsSolver[][]> solvers =
+        new ThreadLocal<PopulationDynamicsSolver[][]>() {
+            @Override
+            protected PopulationDynamicsSolver[][] initialValue() {
+                return new PopulationDynamicsSolver[TYPES.length][8];
+            }
+        };
+
+    private static final ThreadLocal<BatchedSolver> batched =
+        new ThreadLocal<BatchedSolver>() {
+            @Override
+            protected BatchedSolver initialValue() {
+                return new BatchedSolver(1.0);
+            }
+        };
+
+    private SolverPool() {}
+
+    /**
+     * returns this thread's {@link BatchedSolver}.  As with {@link #get},
+     * the caller must load it before integrating.
+     *
+     * @return the solver.
+     */
+    public static BatchedSolver getBatched() { return batched.get(); }
+
+    /**
+     * selects the kind of solver handed out by {@link #get}.
+     *
+     * @param name one of {@code "dp54"}, {@code "rk4"}, {@code "rk45"} or
+     *             {@code "dp54-sampled"}.
+     */
+    public static void setType(String name) {
+        for (int i=0; i<TYPES.length; i++) {
+            if (TYPES[i].equals(name)) {
+                type = i;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Solver type " + name +
+                                           " not recognized.");
+    }
+
+    public static String getType() { return TYPES[type]; }
+
+    /**
+     * makes a new solver of the named kind.
+     *
+     * @param name the kind of solver, as for {@link #setType}.
+     * @param n_subpops the number of Subpopulations.
+     * @param timestep_length the length of time to integrate over.
+     * @return the solver.
+     */
+    public static PopulationDynamicsSolver create(String name, int n_subpops,
+                                                  double timestep_length)
+    {
+        switch (name) {
+            case "dp54":
+                return new ConsumptionODE(n_subpops, timestep_length);
+            case "rk4":
+                return new RK4Solver(n_subpops, timestep_length);
+            case "rk45":
+                return new RK45Solver(n_subpops, timestep_length);
+            case "dp54-sampled":
+                ConsumptionODE ode =
+                    new ConsumptionODE(n_subpops, timestep_length);
+                ode.setSampled(true);
+                return ode;
+            default:
+                throw new IllegalArgumentException("Solver type " + name +
+                                                   " not recognized.");
+        }
+    }
+
+    /**
+     * returns this thread's solver for {@code n_subpops} Subpopulations.
+     *
+     * @param n_subpops the number of Subpopulations.
+     * @return the solver.
+     */
+    public static PopulationDynamicsSolver get(int n_subpops) {
+        int t = type;
+        PopulationDynamicsSolver[][] by_type = solvers.get();
+        PopulationDynamicsSolver[] by_size = by_type[t];
+        if (n_subpops >= by_size.length) {
+            PopulationDynamicsSolver[] bigger = new PopulationDynamicsSolver[
+                Math.max(n_subpops+1, 2*by_size.length)];
+            System.arraycopy(by_size, 0, bigger, 0, by_size.length);
+            by_size = bigger;
+            by_type[t] = by_size;
+        }
+
+        PopulationDynamicsSolver solver = by_size[n_subpops];
+        if (solver == null) {
+            solver = create(TYPES[t], n_subpops, 1.0);
+            by_size[n_subpops] = solver;
+        }
+        return solver;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A reusable direct {@link ByteBuffer} in front of a
+ * {@link WritableByteChannel}.  Text is encoded into the buffer as it is
+ * put, and the buffer is written to the channel whenever it fills, so
+ * output of any size goes through without building a String.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class ChannelBuffer {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private final StringBuilder scratch = new StringBuilder(32);
+    private WritableByteChannel channel;
+
+    public ChannelBuffer() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * @param capacity the size of the buffer, in bytes.
+     */
+    public ChannelBuffer(int capacity) {
+        if (capacity < digits.length) {
+            throw new IllegalArgumentException("capacity too small.");
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * directs the output to {@code channel}.  Anything still buffered for
+     * the previous channel is discarded, so {@link #flush} first.
+     *
+     * @param channel the channel to write to.
+     */
+    public void setChannel(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.clear();
+    }
+
+    public ChannelBuffer put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) drain();
+        buffer.put(b);
+        return this;
+    }
+
+    public ChannelBuffer put(byte[] bytes) throws IOException {
+        return put(bytes, 0, bytes.length);
+    }
+
+    public ChannelBuffer put(byte[] bytes, int offset, int length)
+        throws IOException
+    {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) drain();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+        return this;
+    }
+
+    /** puts a string, as UTF-8. */
+    public ChannelBuffer put(String string) throws IOException {
+        int n = string.length();
+        for (int i=0; i<n; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x80) {
+                put(string.substring(i).getBytes(UTF8));
+                break;
+            }
+            put((byte) c);
+        }
+        return this;
+    }
+
+    /** puts an int in decimal, as {@link Integer#toString(int)} would. */
+    public ChannelBuffer putInt(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) return put(Integer.toString(value));
+        if (buffer.remaining() < 11) drain();
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value%10);
+            value /= 10;
+        } while (value > 0);
+        while (n > 0) buffer.put(digits[--n]);
+        return this;
+    }
+
+    /** 
+     * puts a double exactly as {@link Double#toString(double)} would.
+     * Whole numbers from 0.001 up to, but not including, 10<sup>7</sup>,
+     * which that prints as the integer followed by ".0", are written
+     * directly; other values are formatted into a reused StringBuilder,
+     * which uses the same conversion without making a String.
+     */
+    public ChannelBuffer putDouble(double value) throws IOException {
+        if (value == 0.0 && 1/value > 0) {
+            return put((byte) '0').put((byte) '.').put((byte) '0');
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= 1e-3 && magnitude < 1e7 && value == (int) value) {
+            return putInt((int) value).put((byte) '.').put((byte) '0');
+        }
+        scratch.setLength(0);
+        scratch.append(value);
+        for (int i=0; i<scratch.length(); i++) put((byte) scratch.charAt(i));
+        return this;
+    }
+
+    /** writes everything buffered to the channel. */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        if (channel == null) {
+            throw new IllegalStateException("no channel to write to.");
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.output;
+
+import org.fhcrc.honeycomb.metapop.Snapshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads a file written by {@link ColumnarWriter} through memory maps.  The
+ * index comes from the footer or, if the writer wasn't closed, from
+ * walking the chunks.  Each chunk is mapped when it is first read, so a
+ * single step, a range of patches or one count can be read without
+ * touching the rest of the file.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class ColumnarReader implements Closeable {
+    private static final int HEADER_BYTES = 4 + 1 + 4 + 4 + 4;
+
+    private final FileChannel channel;
+    private final List<String> ids = new ArrayList<String>();
+    private int[] steps;
+    private long[] offsets;
+    private int n_chunks = 0;
+
+    // The chunk mapped last, and where its columns start.
+    private int mapped_chunk = -1;
+    private MappedByteBuffer map;
+    private boolean env_changed;
+    private int n_patches;
+    private int n_strains;
+    private int columns;
+
+    public ColumnarReader(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        if (channel.size() < 8 ||
+            read(0, 8).getLong() != ColumnarWriter.MAGIC)
+        {
+            channel.close();
+            throw new IOException(file + " is not a columnar snapshot file.");
+        }
+        if (!readFooter()) scan();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        length = (int) Math.max(0, Math.min(length,
+                                            channel.size() - position));
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) break;
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    private boolean readFooter() throws IOException {
+        long size = channel.size();
+        if (size < 8 + 16) return false;
+        ByteBuffer tail = read(size-16, 16);
+        long footer = tail.getLong();
+        if (tail.getLong() != ColumnarWriter.END ||
+            footer < 8 || footer > size-16)
+        {
+            return false;
+        }
+
+        MappedByteBuffer f = channel.map(FileChannel.MapMode.READ_ONLY,
+                                         footer, size-16-footer);
+        if (f.getInt() != ColumnarWriter.FOOTER) return false;
+        n_chunks = f.getInt();
+        steps = new int[n_chunks];
+        offsets = new long[n_chunks];
+        for (int i=0; i<n_chunks; i++) {
+            steps[i] = f.getInt();
+            offsets[i] = f.getLong();
+        }
+        int n_ids = f.getInt();
+        for (int i=0; i<n_ids; i++) ids.add(getString(f));
+        return true;
+    }
+
+    private void scan() throws IOException {
+        steps = new int[16];
+        offsets = new long[16];
+        long position = 8;
+        long size = channel.size();
+        while (position + 8 + HEADER_BYTES <= size) {
+            ByteBuffer head = read(position, 8 + HEADER_BYTES);
+            if (head.getInt() != ColumnarWriter.CHUNK) break;
+            int length = head.getInt();
+            if (position + 8 + length > size) break; // cut off
+
+            if (n_chunks == steps.length) {
+                steps = Arrays.copyOf(steps, 2*n_chunks);
+                offsets = Arrays.copyOf(offsets, 2*n_chunks);
+            }
+            steps[n_chunks] = head.getInt();
+            offsets[n_chunks] = position;
+            n_chunks++;
+
+            head.get();
+            head.getInt();
+            head.getInt();
+            int n_new = head.getInt();
+            if (n_new > 0) {
+                MappedByteBuffer chunk =
+                    channel.map(FileChannel.MapMode.READ_ONLY,
+                                position + 8 + HEADER_BYTES,
+                                length - HEADER_BYTES);
+                for (int i=0; i<n_new; i++) ids.add(getString(chunk));
+            }
+            position += 8 + length;
+        }
+    }
+
+    private static String getString(ByteBuffer bytes) {
+        byte[] string = new byte[bytes.getInt()];
+        bytes.get(string);
+        return new String(string, ColumnarWriter.UTF8);
+    }
+
+    private void map(int chunk) throws IOException {
+        if (chunk < 0 || chunk >= n_chunks) {
+            throw new IllegalArgumentException("no chunk " + chunk);
+        }
+        if (chunk == mapped_chunk) return;
+
+        ByteBuffer head = read(offsets[chunk], 8);
+        head.getInt();
+        int length = head.getInt();
+        map = channel.map(FileChannel.MapMode.READ_ONLY, offsets[chunk] + 8,
+                          length);
+        map.getInt();
+        env_changed = map.get() != 0;
+        n_patches = map.getInt();
+        n_strains = map.getInt();
+        int n_new = map.getInt();
+        for (int i=0; i<n_new; i++) map.position(map.position() +
+                                                 4 + map.getInt());
+        columns = map.position();
+        mapped_chunk = chunk;
+    }
+
+    /** returns the number of snapshots. */
+    public int getNSnapshots() { return n_chunks; }
+
+    /** returns the step of a snapshot. */
+    public int getStep(int snapshot) { return steps[snapshot]; }
+
+    /**
+     * returns the first snapshot of a step, or -1 if the step wasn't saved.
+     *
+     * @param step the step.
+     * @return the snapshot.
+     */
+    public int indexOf(int step) {
+        for (int i=0; i<n_chunks; i++) {
+            if (steps[i] == step) return i;
+        }
+        return -1;
+    }
+
+    /** returns the ids of every strain in the file, in column order. */
+    public List<String> getIds() { return ids; }
+
+    public int getNPatches(int snapshot) throws IOException {
+        map(snapshot);
+        return n_patches;
+    }
+
+    /**
+     * returns one count without copying anything else.
+     *
+     * @param snapshot the snapshot.
+     * @param patch the patch, in the order it was saved.
+     * @param strain the strain column.
+     * @return the count.
+     */
+    public int getCount(int snapshot, int patch, int strain)
+        throws IOException
+    {
+        map(snapshot);
+        if (strain >= n_strains) return 0; // not seen yet
+        return map.getInt(columns + 16*n_patches + 4*(strain*n_patches +
+                                                      patch));
+    }
+
+    /**
+     * reads a whole snapshot.
+     *
+     * @param snapshot the snapshot.
+     * @param into where to put it.
+     */
+    public void read(int snapshot, Snapshot into) throws IOException {
+        read(snapshot, 0, getNPatches(snapshot), into);
+    }
+
+    /**
+     * reads the patches {@code from} up to, but not including, {@code to}
+     * of a snapshot.
+     *
+     * @param snapshot the snapshot.
+     * @param from the first patch.
+     * @param to one past the last patch.
+     * @param into where to put them.
+     */
+    public void read(int snapshot, int from, int to, Snapshot into)
+        throws IOException
+    {
+        map(snapshot);
+        if (from < 0 || to > n_patches || from > to) {
+            throw new IllegalArgumentException(
+                "patches " + from + " to " + to + " not in [0, " +
+                n_patches + "]");
+        }
+        into.reset(steps[snapshot], env_changed, ids.subList(0, n_strains),
+                   to-from);
+        int row_at = columns;
+        int col_at = row_at + 4*n_patches;
+        int resource_at = col_at + 4*n_patches;
+        int counts_at = resource_at + 8*n_patches;
+        for (int p=from; p<to; p++) {
+            into.setPatch(p-from, map.getInt(row_at + 4*p),
+                          map.getInt(col_at + 4*p),
+                          map.getDouble(resource_at + 8*p));
+        }
+        for (int s=0; s<n_strains; s++) {
+            int column = counts_at + 4*s*n_patches;
+            for (int p=from; p<to; p++) {
+                into.addCount(p-from, s, map.getInt(column + 4*p));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        map = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.output;
+
+import org.fhcrc.honeycomb.metapop.Snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Appends {@link Snapshot}s to a single binary file, one chunk per
+ * snapshot, with the columns of each chunk stored one after the other.
+ * The file starts with {@link #MAGIC}.  Each chunk is
+ * <pre>
+ *   int    CHUNK
+ *   int    length of the rest of the chunk, in bytes
+ *   int    step
+ *   byte   1 if the environment changed, else 0
+ *   int    number of patches, P
+ *   int    number of strains, S
+ *   int    number of strains first seen in this chunk, N
+ *   N x    (int length, UTF-8 bytes) the new strain ids
+ *   P x    int row
+ *   P x    int column
+ *   P x    double resource
+ *   S x P  int counts, one column of P per strain
+ * </pre>
+ * Strain columns keep their order from chunk to chunk; later chunks only
+ * add strains to the end.  {@link #close} appends a footer
+ * <pre>
+ *   int    FOOTER
+ *   int    number of chunks, C
+ *   C x    (int step, long offset of the chunk)
+ *   int    number of strains
+ *          (int length, UTF-8 bytes) every strain id
+ *   long   offset of the footer
+ *   long   END
+ * </pre>
+ * so that {@link ColumnarReader} can find any chunk without reading the
+ * others.  A file without a footer, from a run that didn't finish, can
+ * still be read by walking the chunks.  Everything is big-endian.
+ *
+ * Writing after {@code close} reopens the file and replaces the footer.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class ColumnarWriter {
+    public static final long MAGIC = 0x4d50434f4c303031L; // "MPCOL001"
+    public static final long END = 0x4d50434f4c454e44L;   // "MPCOLEND"
+    public static final int CHUNK = 0x43484e4b;           // "CHNK"
+    public static final int FOOTER = 0x464f4f54;          // "FOOT"
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private long end = 0;
+
+    // The index, kept for the footer.
+    private final List<String> ids = new ArrayList<String>();
+    private int[] steps = new int[16];
+    private long[] offsets = new long[16];
+    private int n_chunks = 0;
+
+    /**
+     * @param file the file to write.  An existing file is replaced.
+     */
+    public ColumnarWriter(File file) throws IOException {
+        this.file = file;
+        open();
+        ensure(8);
+        buffer.putLong(MAGIC);
+        flip();
+    }
+
+    private void open() throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(end);
+        channel.truncate(end);
+    }
+
+    /**
+     * appends a snapshot.
+     *
+     * @param snapshot the snapshot.
+     */
+    public void write(Snapshot snapshot) throws IOException {
+        if (channel == null) open();
+
+        List<String> snapshot_ids = snapshot.getIds();
+        for (int s=0; s<ids.size() && s<snapshot_ids.size(); s++) {
+            if (!ids.get(s).equals(snapshot_ids.get(s))) {
+                throw new IllegalArgumentException(
+                    "strain columns reordered: " + snapshot_ids.get(s) +
+                    " in place of " + ids.get(s));
+            }
+        }
+        int n_known = ids.size();
+        int n_new = Math.max(0, snapshot_ids.size() - n_known);
+        List<byte[]> new_ids = new ArrayList<byte[]>(n_new);
+        int id_bytes = 0;
+        for (int s=n_known; s<snapshot_ids.size(); s++) {
+            byte[] id = snapshot_ids.get(s).getBytes(UTF8);
+            new_ids.add(id);
+            id_bytes += 4 + id.length;
+        }
+
+        int n_patches = snapshot.getNPatches();
+        int n_strains = snapshot.getNStrains();
+        int length = 4 + 1 + 4 + 4 + 4 + id_bytes +
+                     n_patches*(4 + 4 + 8) + 4*n_patches*n_strains;
+
+        index(snapshot.getStep(), end);
+        ensure(8 + length);
+        buffer.putInt(CHUNK);
+        buffer.putInt(length);
+        buffer.putInt(snapshot.getStep());
+        buffer.put((byte) (snapshot.isEnvChanged() ? 1 : 0));
+        buffer.putInt(n_patches);
+        buffer.putInt(n_strains);
+        buffer.putInt(n_new);
+        for (byte[] id:new_ids) {
+            buffer.putInt(id.length);
+            buffer.put(id);
+        }
+        for (int p=0; p<n_patches; p++) buffer.putInt(snapshot.getRow(p));
+        for (int p=0; p<n_patches; p++) buffer.putInt(snapshot.getCol(p));
+        for (int p=0; p<n_patches; p++) {
+            buffer.putDouble(snapshot.getResource(p));
+        }
+        for (int s=0; s<n_strains; s++) {
+            for (int p=0; p<n_patches; p++) {
+                buffer.putInt(snapshot.getCount(p, s));
+            }
+        }
+        flip();
+        for (int s=n_known; s<snapshot_ids.size(); s++) {
+            ids.add(snapshot_ids.get(s));
+        }
+    }
+
+    private void index(int step, long offset) {
+        if (n_chunks == steps.length) {
+            steps = Arrays.copyOf(steps, 2*n_chunks);
+            offsets = Arrays.copyOf(offsets, 2*n_chunks);
+        }
+        steps[n_chunks] = step;
+        offsets[n_chunks] = offset;
+        n_chunks++;
+    }
+
+    /** writes the footer and closes the file. */
+    public void close() throws IOException {
+        if (channel == null) return;
+
+        int id_bytes = 0;
+        List<byte[]> encoded = new ArrayList<byte[]>(ids.size());
+        for (String id:ids) {
+            byte[] bytes = id.getBytes(UTF8);
+            encoded.add(bytes);
+            id_bytes += 4 + bytes.length;
+        }
+        ensure(4 + 4 + 12*n_chunks + 4 + id_bytes + 8 + 8);
+        buffer.putInt(FOOTER);
+        buffer.putInt(n_chunks);
+        for (int i=0; i<n_chunks; i++) {
+            buffer.putInt(steps[i]);
+            buffer.putLong(offsets[i]);
+        }
+        buffer.putInt(ids.size());
+        for (byte[] id:encoded) {
+            buffer.putInt(id.length);
+            buffer.put(id);
+        }
+        buffer.putLong(end);
+        buffer.putLong(END);
+
+        // The footer isn't data: the next write goes where it starts.
+        long data_end = end;
+        flip();
+        end = data_end;
+        channel.close();
+        channel = null;
+    }
+
+    private void ensure(int bytes) {
+        buffer.clear();
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocate(Math.max(bytes,
+                                                  2*buffer.capacity()));
+        }
+    }
+
+    private void flip() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) end += channel.write(buffer);
+    }
+
+    public File getFile() { return file; }
+    public int getNChunks() { return n_chunks; }
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes records, such as the snapshots of a run, into one gzip file, each
+ * record as its own gzip member named after it.  Concatenated members are
+ * a valid gzip file, so the whole file decompresses to the records one
+ * after the other, and each record can also be found by its member.
+ *
+ * A record is written to this channel between {@link #begin} and
+ * {@link #end}.  It is compressed by a {@link Deflater} on a background
+ * thread while the next record is built; when two records are already
+ * waiting, {@code end} waits for the compressor.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class GzipWriter implements WritableByteChannel {
+    private static final int BUFFERS = 3;
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    private final File file;
+    private final int level;
+    private FileChannel channel;
+
+    // Records go round from free to queue to the compressor and back.
+    private final BlockingQueue<Record> free =
+        new ArrayBlockingQueue<Record>(BUFFERS);
+    private final BlockingQueue<Record> queue =
+        new ArrayBlockingQueue<Record>(BUFFERS+1);
+    private Record current;
+    private Thread compressor;
+    private int pending = 0;
+    private Exception failure;
+
+    private static class Record {
+        byte[] bytes = new byte[1 << 16];
+        int length = 0;
+        String name;
+    }
+
+    private static final Record STOP = new Record();
+
+    /**
+     * @param file the file to write.  An existing file is replaced.
+     * @param level the compression level, from 0 to 9, or
+     *              {@link Deflater#DEFAULT_COMPRESSION}.
+     */
+    public GzipWriter(File file, int level) throws IOException {
+        if ((level < 0 || level > 9) &&
+            level != Deflater.DEFAULT_COMPRESSION)
+        {
+            throw new IllegalArgumentException(
+                "compression level must be from 0 to 9: " + level);
+        }
+        this.file = file;
+        this.level = level;
+        for (int i=0; i<BUFFERS; i++) free.add(new Record());
+        open(false);
+    }
+
+    private void open(boolean append) throws IOException {
+        channel = new FileOutputStream(file, append).getChannel();
+        compressor = new Thread(new Runnable() {
+            @Override
+            public void run() { compress(); }
+        }, "gzip");
+        compressor.setDaemon(true);
+        compressor.start();
+    }
+
+    /**
+     * starts a record.
+     *
+     * @param name the name of the record, stored in its member header.
+     */
+    public void begin(String name) throws IOException {
+        if (current != null) {
+            throw new IllegalStateException("record " + current.name +
+                                            " not ended.");
+        }
+        if (channel == null) open(true);
+        checkFailure();
+        try {
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for a buffer.");
+        }
+        current.length = 0;
+        current.name = name;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("no record begun.");
+        }
+        int n = src.remaining();
+        if (current.length + n > current.bytes.length) {
+            current.bytes = Arrays.copyOf(current.bytes,
+                Math.max(current.length + n, 2*current.bytes.length));
+        }
+        src.get(current.bytes, current.length, n);
+        current.length += n;
+        return n;
+    }
+
+    /** ends the record and queues it to be compressed. */
+    public void end() throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("no record begun.");
+        }
+        synchronized (this) { pending++; }
+        queue.add(current);
+        current = null;
+    }
+
+    /** drops the record begun, if any, without writing it. */
+    public void discard() {
+        if (current == null) return;
+        free.add(current);
+        current = null;
+    }
+
+    /** compresses queued records until told to stop.  Runs on its own. */
+    private void compress() {
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        try {
+            while (true) {
+                Record record;
+                try {
+                    record = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (record == STOP) return;
+
+                try {
+                    writeMember(record, deflater, crc, out);
+                } catch (Exception e) {
+                    synchronized (this) {
+                        if (failure == null) failure = e;
+                    }
+                } finally {
+                    free.add(record);
+                    synchronized (this) {
+                        pending--;
+                        notifyAll();
+                    }
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeMember(Record record, Deflater deflater, CRC32 crc,
+                             ByteBuffer out) throws IOException
+    {
+        byte[] name = (record.name == null) ? null
+                                            : record.name.getBytes(LATIN1);
+        out.clear();
+        out.put((byte) 0x1f).put((byte) 0x8b); // magic
+        out.put((byte) 8);                     // deflate
+        out.put((byte) (name == null ? 0 : 8)); // FNAME
+        out.putInt(0);                         // no time stamp
+        out.put((byte) 0);
+        out.put((byte) 255);                   // unknown OS
+        if (name != null) {
+            if (name.length + 1 > out.remaining()) {
+                drain(out);
+            }
+            out.put(name).put((byte) 0);
+        }
+
+        deflater.reset();
+        deflater.setInput(record.bytes, 0, record.length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (!out.hasRemaining()) drain(out);
+            int n = deflater.deflate(out.array(), out.position(),
+                                     out.remaining());
+            out.position(out.position() + n);
+        }
+
+        crc.reset();
+        crc.update(record.bytes, 0, record.length);
+        if (out.remaining() < 8) drain(out);
+        putIntLE(out, (int) crc.getValue());
+        putIntLE(out, record.length);
+        drain(out);
+    }
+
+    private static void putIntLE(ByteBuffer out, int value) {
+        out.put((byte) value).put((byte) (value >>> 8))
+           .put((byte) (value >>> 16)).put((byte) (value >>> 24));
+    }
+
+    private void drain(ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+
+    private synchronized void checkFailure() throws IOException {
+        if (failure != null) {
+            Exception e = failure;
+            failure = null;
+            throw new IOException("compressing " + file + " failed.", e);
+        }
+    }
+
+    /** waits until every queued record has been written. */
+    public void flush() throws IOException {
+        synchronized (this) {
+            while (pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting to flush.");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    @Override
+    public boolean isOpen() { return channel != null; }
+
+    /**
+     * writes every queued record and closes the file.  Beginning another
+     * record afterwards appends to it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        try {
+            flush();
+        } finally {
+            queue.add(STOP);
+            try {
+                compressor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compressor = null;
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public File getFile() { return file; }
+    public int getLevel() { return level; }
+}
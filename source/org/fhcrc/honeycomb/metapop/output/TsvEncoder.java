@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.output;
+
+import org.fhcrc.honeycomb.metapop.Snapshot;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encodes {@link Snapshot}s as the tab-separated rows read by
+ * {@code experiments/metapop.r}: for each patch the step, 1 or 0 for
+ * whether the environment changed, the row, the column, "row_col", the
+ * resource and then the count of each strain, in column order.  Numbers
+ * are written as ASCII straight from the Snapshot's arrays, byte for byte
+ * as {@link Integer#toString(int)} and {@link Double#toString(double)}
+ * would print them.  Nothing is allocated per row.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public final class TsvEncoder {
+    private static final byte TAB = '\t';
+    private static final byte NEWLINE = '\n';
+
+    private TsvEncoder() {}
+
+    /**
+     * writes the header line, without a trailing newline.
+     *
+     * @param const_headers the headers of the fixed columns.
+     * @param ids the strain ids, in column order.
+     * @param out where to write.
+     */
+    public static void encodeHeaders(List<String> const_headers,
+                                     List<String> ids, ChannelBuffer out)
+        throws IOException
+    {
+        boolean first = true;
+        for (String header:const_headers) {
+            if (!first) out.put(TAB);
+            out.put(header);
+            first = false;
+        }
+        for (String id:ids) {
+            if (!first) out.put(TAB);
+            out.put(id);
+            first = false;
+        }
+    }
+
+    /**
+     * writes one row per patch of a snapshot.
+     *
+     * @param snapshot the snapshot.
+     * @param out where to write.
+     */
+    public static void encodeRows(Snapshot snapshot, ChannelBuffer out)
+        throws IOException
+    {
+        int step = snapshot.getStep();
+        byte env = (byte) (snapshot.isEnvChanged() ? '1' : '0');
+        int n_strains = snapshot.getNStrains();
+        for (int p=0; p<snapshot.getNPatches(); p++) {
+            int row = snapshot.getRow(p);
+            int col = snapshot.getCol(p);
+            out.putInt(step).put(TAB);
+            out.put(env).put(TAB);
+            out.putInt(row).put(TAB);
+            out.putInt(col).put(TAB);
+            out.putInt(row).put((byte) '_').putInt(col).put(TAB);
+            out.putDouble(snapshot.getResource(p));
+            for (int s=0; s<n_strains; s++) {
+                int count = snapshot.getCount(p, s);
+                out.put(TAB);
+                if (count == 0) {
+                    out.put((byte) '0');
+                } else {
+                    out.putInt(count);
+                }
+            }
+            out.put(NEWLINE);
+        }
+    }
+}
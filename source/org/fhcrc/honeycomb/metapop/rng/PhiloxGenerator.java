@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.rng;
+
+/**
+ * The Philox4x32-10 counter-based generator of Salmon et al. (2011).  Each
+ * block of four 32-bit outputs is a pure function of a 64-bit key, the
+ * seed, and a 128-bit counter, so any draw can be recomputed without
+ * replaying the ones before it.
+ *
+ * {@link #setCounter} places the counter at the start of the draws for one
+ * event of one strain in one patch at one step.  Draws for different
+ * events never share a block, so they do not depend on the order, or the
+ * thread, in which the events are sampled.  Left alone, the counter simply
+ * counts up and the generator is an ordinary stream.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class PhiloxGenerator extends SplittableGenerator {
+    private static final long serialVersionUID = 1L;
+    public static final int BIRTH = 0;
+    public static final int DEATH = 1;
+    public static final int MIGRATION = 2;
+    public static final int MUTATION = 3;
+    public static final int DILUTION = 4;
+
+    private static final int EVENT_BITS = 4;
+    private static final int ROUNDS = 10;
+    private static final long M0 = 0xD2511F53L;
+    private static final long M1 = 0xCD9E8D57L;
+    private static final int W0 = 0x9E3779B9;
+    private static final int W1 = 0xBB67AE85;
+
+    private int key0, key1;
+    private final int[] counter = new int[4];
+    private final int[] block = new int[4];
+    private int used = 4;
+
+    public PhiloxGenerator(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * computes one Philox4x32-10 block.
+     *
+     * @param counter the four counter words.
+     * @param key0 the low key word.
+     * @param key1 the high key word.
+     * @param out where the four output words are put.
+     */
+    public static void block(int[] counter, int key0, int key1, int[] out) {
+        int c0 = counter[0], c1 = counter[1];
+        int c2 = counter[2], c3 = counter[3];
+        for (int round=0; round<ROUNDS; round++) {
+            long p0 = M0*(c0 & 0xFFFFFFFFL);
+            long p1 = M1*(c2 & 0xFFFFFFFFL);
+            c0 = (int) (p1 >>> 32) ^ c1 ^ key0;
+            c1 = (int) p1;
+            c2 = (int) (p0 >>> 32) ^ c3 ^ key1;
+            c3 = (int) p0;
+            key0 += W0;
+            key1 += W1;
+        }
+        out[0] = c0;
+        out[1] = c1;
+        out[2] = c2;
+        out[3] = c3;
+    }
+
+    /**
+     * moves to the draws for {@code event} of {@code strain} in
+     * {@code patch} at {@code step}.  Steps are taken modulo 2^32.
+     *
+     * @param step the time step.
+     * @param patch the patch index.
+     * @param strain the strain, as its StrainRegistry handle.
+     * @param event the kind of event, such as {@link #BIRTH}.
+     */
+    public void setCounter(long step, int patch, int strain, int event) {
+        counter[0] = 0;
+        counter[1] = (int) step;
+        counter[2] = patch;
+        counter[3] = (strain << EVENT_BITS) | event;
+        used = 4;
+        clear();
+    }
+
+    @Override
+    public long nextLong() {
+        if (used > 2) refill();
+        long hi = block[used++] & 0xFFFFFFFFL;
+        long lo = block[used++] & 0xFFFFFFFFL;
+        return (hi << 32) | lo;
+    }
+
+    @Override
+    public int nextInt() {
+        if (used >= 4) refill();
+        return block[used++];
+    }
+
+    @Override
+    protected int next(int bits) {
+        return nextInt() >>> (32 - bits);
+    }
+
+    private void refill() {
+        block(counter, key0, key1, block);
+        used = 0;
+        for (int i=0; i<4 && ++counter[i] == 0; i++) {}
+    }
+
+    /** returns a generator with a key derived from this one's. */
+    @Override
+    public SplittableGenerator split() {
+        return new PhiloxGenerator(SplitMix64.mix(nextLong()));
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        key0 = (int) seed;
+        key1 = (int) (seed >>> 32);
+        counter[0] = counter[1] = counter[2] = counter[3] = 0;
+        used = 4;
+        clear();
+    }
+
+    public long getSeed() {
+        return ((long) key1 << 32) | (key0 & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.rng;
+
+/**
+ * Steele, Lea and Flood's SplitMix64: a 64-bit counter passed through a
+ * mixing function.  Its whole state is one {@code long}.  It also seeds
+ * the other generators here.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class SplitMix64 extends SplittableGenerator {
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    public SplitMix64(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * the SplitMix64 output function: a bijective mix of the bits of
+     * {@code z}.
+     *
+     * @param z the value to mix.
+     * @return the mixed value.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    @Override
+    public SplittableGenerator split() {
+        return new SplitMix64(nextLong());
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = seed;
+        clear();
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.rng;
+
+import org.apache.commons.math3.random.BitsStreamGenerator;
+
+/**
+ * A small-state generator of 64-bit words that can split off independent
+ * generators.  Subclasses supply {@link #nextLong}; the other draws are
+ * taken from it.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public abstract class SplittableGenerator extends BitsStreamGenerator {
+    private static final long serialVersionUID = 1L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    @Override
+    public abstract long nextLong();
+
+    /**
+     * returns a new generator whose stream does not overlap this one's.
+     * This generator advances, so successive splits are independent too.
+     *
+     * @return the new generator.
+     */
+    public abstract SplittableGenerator split();
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11)*DOUBLE_UNIT;
+    }
+
+    @Override
+    public void setSeed(int seed) {
+        setSeed((long) seed);
+    }
+
+    @Override
+    public void setSeed(int[] seed) {
+        long combined = 0;
+        for (int word:seed) combined = SplitMix64.mix(combined + word);
+        setSeed(combined);
+    }
+}
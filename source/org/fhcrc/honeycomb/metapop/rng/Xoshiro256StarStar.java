@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.rng;
+
+/**
+ * Blackman and Vigna's xoshiro256**.  Its state is four {@code long}s,
+ * seeded from SplitMix64, and {@link #jump} advances it by 2^128 draws, so
+ * generators split off by jumping never overlap.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class Xoshiro256StarStar extends SplittableGenerator {
+    private static final long serialVersionUID = 1L;
+    private static final long[] JUMP = {
+        0x180ec6d33cfd0abaL, 0xd5a61266f0c9392cL,
+        0xa9582618e03fc9aaL, 0x39abdc4529b1661cL
+    };
+
+    private long s0, s1, s2, s3;
+
+    public Xoshiro256StarStar(long seed) {
+        setSeed(seed);
+    }
+
+    private Xoshiro256StarStar(long s0, long s1, long s2, long s3) {
+        this.s0 = s0;
+        this.s1 = s1;
+        this.s2 = s2;
+        this.s3 = s3;
+    }
+
+    @Override
+    public long nextLong() {
+        long result = Long.rotateLeft(s1*5, 7)*9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+
+    /** advances this generator by 2^128 draws. */
+    public void jump() {
+        long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+        for (long word:JUMP) {
+            for (int b=0; b<64; b++) {
+                if ((word & (1L << b)) != 0) {
+                    t0 ^= s0;
+                    t1 ^= s1;
+                    t2 ^= s2;
+                    t3 ^= s3;
+                }
+                nextLong();
+            }
+        }
+        s0 = t0;
+        s1 = t1;
+        s2 = t2;
+        s3 = t3;
+        clear();
+    }
+
+    /**
+     * returns a generator starting where this one is, and then jumps this
+     * one ahead.
+     */
+    @Override
+    public SplittableGenerator split() {
+        Xoshiro256StarStar copy = new Xoshiro256StarStar(s0, s1, s2, s3);
+        jump();
+        return copy;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        SplitMix64 seeder = new SplitMix64(seed);
+        s0 = seeder.nextLong();
+        s1 = seeder.nextLong();
+        s2 = seeder.nextLong();
+        s3 = seeder.nextLong();
+        clear();
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.sampler;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Draws from binomial distributions.  Small means are drawn by inversion
+ * and large ones by the BTPE algorithm of Kachitvichyanukul and Schmeiser
+ * (1988), whose expected cost does not grow with {@code n}.  The set-up of
+ * BTPE is kept between draws with the same {@code n} and {@code p}, which is
+ * the common case when filling arrays of draws.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class BinomialSampler {
+    /** the largest {@code n*min(p,1-p)} drawn by inversion. */
+    public static final double INVERSION_MEAN = 30.0;
+
+    private final RandomGenerator rng;
+
+    // BTPE set-up for the last (n, r) drawn.
+    private int setup_n = -1;
+    private double setup_r = -1.0;
+    private double q, nrq, fm, xm, xl, xr, c, laml, lamr, p1, p2, p3, p4;
+    private int m;
+
+    public BinomialSampler(RandomGenerator rng) {
+        this.rng = rng;
+    }
+
+    /**
+     * draws the number of successes in {@code n} trials with probability
+     * {@code p}.
+     *
+     * @param n the number of trials.
+     * @param p the probability of success.
+     * @return the number of successes.
+     */
+    public int sample(int n, double p) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n < 0: " + n);
+        }
+        if (!(p >= 0.0 && p <= 1.0)) {
+            throw new IllegalArgumentException("p not in [0, 1]: " + p);
+        }
+        if (n == 0 || p == 0.0) return 0;
+        if (p == 1.0) return n;
+
+        if (p > 0.5) return n - draw(n, 1.0-p);
+        return draw(n, p);
+    }
+
+    /**
+     * fills {@code draws} with one draw for each pair of {@code n[i]} and
+     * {@code p[i]}.
+     *
+     * @param n the numbers of trials.
+     * @param p the probabilities of success.
+     * @param draws where the draws are put.
+     */
+    public void sample(int[] n, double[] p, int[] draws) {
+        if (n.length != p.length || n.length != draws.length) {
+            throw new IllegalArgumentException("array lengths differ.");
+        }
+        for (int i=0; i<n.length; i++) draws[i] = sample(n[i], p[i]);
+    }
+
+    /**
+     * fills {@code draws} with one draw for each {@code n[i]}, all with
+     * probability {@code p}.
+     *
+     * @param n the numbers of trials.
+     * @param p the probability of success.
+     * @param draws where the draws are put.
+     */
+    public void sample(int[] n, double p, int[] draws) {
+        if (n.length != draws.length) {
+            throw new IllegalArgumentException("array lengths differ.");
+        }
+        for (int i=0; i<n.length; i++) draws[i] = sample(n[i], p);
+    }
+
+    // r <= 0.5
+    private int draw(int n, double r) {
+        if (n*r <= INVERSION_MEAN) return inversion(n, r);
+        return btpe(n, r);
+    }
+
+    private int inversion(int n, double r) {
+        double q = 1.0 - r;
+        double qn = Math.exp(n*Math.log1p(-r));
+        double np = n*r;
+        double bound = Math.min(n, np + 10.0*Math.sqrt(np*q + 1));
+
+        int x = 0;
+        double px = qn;
+        double u = rng.nextDouble();
+        while (u > px) {
+            x++;
+            if (x > bound) {
+                x = 0;
+                px = qn;
+                u = rng.nextDouble();
+            } else {
+                u -= px;
+                px = ((n-x+1)*r*px)/(x*q);
+            }
+        }
+        return x;
+    }
+
+    private void setup(int n, double r) {
+        setup_n = n;
+        setup_r = r;
+        q = 1.0 - r;
+        nrq = n*r*q;
+        fm = n*r + r;
+        m = (int) Math.floor(fm);
+        p1 = Math.floor(2.195*Math.sqrt(nrq) - 4.6*q) + 0.5;
+        xm = m + 0.5;
+        xl = xm - p1;
+        xr = xm + p1;
+        c = 0.134 + 20.5/(15.3 + m);
+        double a = (fm - xl)/(fm - xl*r);
+        laml = a*(1.0 + a/2.0);
+        a = (xr - fm)/(xr*q);
+        lamr = a*(1.0 + a/2.0);
+        p2 = p1*(1.0 + 2.0*c);
+        p3 = p2 + c/laml;
+        p4 = p3 + c/lamr;
+    }
+
+    private int btpe(int n, double r) {
+        if (n != setup_n || r != setup_r) setup(n, r);
+
+        while (true) {
+            double u = rng.nextDouble()*p4;
+            double v = rng.nextDouble();
+            int y;
+
+            // Triangular region: accept at once.
+            if (u <= p1) {
+                return (int) Math.floor(xm - p1*v + u);
+            }
+
+            if (u <= p2) {
+                // Parallelograms.
+                double x = xl + (u - p1)/c;
+                v = v*c + 1.0 - Math.abs(m - x + 0.5)/p1;
+                if (v > 1.0) continue;
+                y = (int) Math.floor(x);
+            } else if (u <= p3) {
+                // Left exponential tail.
+                double x = Math.floor(xl + Math.log(v)/laml);
+                if (x < 0) continue;
+                y = (int) x;
+                v = v*(u - p2)*laml;
+            } else {
+                // Right exponential tail.
+                double x = Math.floor(xr - Math.log(v)/lamr);
+                if (x > n) continue;
+                y = (int) x;
+                v = v*(u - p3)*lamr;
+            }
+
+            int k = Math.abs(y - m);
+            if (k <= 20 || k >= nrq/2.0 - 1) {
+                // Evaluate the ratio f(y)/f(m) directly.
+                double s = r/q;
+                double a = s*(n + 1);
+                double f = 1.0;
+                if (m < y) {
+                    for (int i=m+1; i<=y; i++) f *= (a/i - s);
+                } else if (m > y) {
+                    for (int i=y+1; i<=m; i++) f /= (a/i - s);
+                }
+                if (v <= f) return y;
+                continue;
+            }
+
+            // Squeeze on log(f(y)/f(m)), then Stirling's approximation.
+            double rho = (k/nrq) *
+                ((k*(k/3.0 + 0.625) + 0.16666666666666666)/nrq + 0.5);
+            double t = -k*(double) k/(2.0*nrq);
+            double log_v = Math.log(v);
+            if (log_v < t - rho) return y;
+            if (log_v > t + rho) continue;
+
+            double x1 = y + 1;
+            double f1 = m + 1;
+            double z = n + 1 - m;
+            double w = n - y + 1;
+            if (log_v <= xm*Math.log(f1/x1) +
+                         (n - m + 0.5)*Math.log(z/w) +
+                         (y - m)*Math.log(w*r/(x1*q)) +
+                         stirling(f1) + stirling(z) +
+                         stirling(x1) + stirling(w))
+            {
+                return y;
+            }
+        }
+    }
+
+    private static double stirling(double x) {
+        double x2 = x*x;
+        return (13680.0 - (462.0 - (132.0 - (99.0 - 140.0/x2)/x2)/x2)/x2) /
+               x/166320.0;
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.sampler;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Draws from Poisson distributions.  Small means are drawn by multiplying
+ * uniforms and large ones by Hormann's transformed rejection with squeeze
+ * (PTRS, 1993).
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class PoissonSampler {
+    /** the smallest mean drawn by transformed rejection. */
+    public static final double PTRS_MEAN = 10.0;
+
+    private final RandomGenerator rng;
+
+    public PoissonSampler(RandomGenerator rng) {
+        this.rng = rng;
+    }
+
+    /**
+     * draws from a Poisson distribution.
+     *
+     * @param mean the mean.
+     * @return the draw.
+     */
+    public long sample(double mean) {
+        if (!(mean >= 0.0) || Double.isInfinite(mean)) {
+            throw new IllegalArgumentException("bad Poisson mean: " + mean);
+        }
+        if (mean == 0.0) return 0;
+        if (mean < PTRS_MEAN) return multiplication(mean);
+        return ptrs(mean);
+    }
+
+    private long multiplication(double mean) {
+        double limit = Math.exp(-mean);
+        double prod = rng.nextDouble();
+        long x = 0;
+        while (prod > limit) {
+            x++;
+            prod *= rng.nextDouble();
+        }
+        return x;
+    }
+
+    private long ptrs(double mean) {
+        double slam = Math.sqrt(mean);
+        double log_mean = Math.log(mean);
+        double b = 0.931 + 2.53*slam;
+        double a = -0.059 + 0.02483*b;
+        double log_invalpha = Math.log(1.1239 + 1.1328/(b - 3.4));
+        double vr = 0.9277 - 3.6224/(b - 2);
+
+        while (true) {
+            double u = rng.nextDouble() - 0.5;
+            double v = rng.nextDouble();
+            double us = 0.5 - Math.abs(u);
+            double k = Math.floor((2*a/us + b)*u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) return (long) k;
+            if (k < 0 || (us < 0.013 && v > us)) continue;
+            if (Math.log(v) + log_invalpha - Math.log(a/(us*us) + b) <=
+                -mean + k*log_mean - Gamma.logGamma(k + 1))
+            {
+                return (long) k;
+            }
+        }
+    }
+}
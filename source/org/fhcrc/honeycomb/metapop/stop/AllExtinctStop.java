@@ -27,16 +27,15 @@ import org.fhcrc.honeycomb.metapop.World;
  * Created on 3 July, 2014
  *
  */
-public class AllExtinctStop extends StopCondition {
+public class AllExtinctStop extends ThresholdStop {
 
-    public boolean isMet() {
-        if (world.getSize() == 0) {
-            System.out.println("World extinct at step " + world.getStep());
-            return true;
-        }
-        return false;
+    public AllExtinctStop() {
+        super(AT_MOST, 0, "World extinct");
     }
 
+    @Override
+    protected long read() { return world.getSize(); }
+
     @Override
     public String toString() {
         return this.getClass().getSimpleName();
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.stop;
+
+import org.fhcrc.honeycomb.metapop.World;
+
+import java.util.Arrays;
+import java.util.List;
+
+/** 
+ * Stops if any of several {@link StopCondition}s is met.  Every condition
+ * is checked, so each one met reports itself.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class AnyStop extends StopCondition {
+    private final List<StopCondition> conditions;
+
+    public AnyStop(StopCondition... conditions) {
+        this.conditions = Arrays.asList(conditions);
+    }
+
+    @Override
+    public void setWorld(final World world) {
+        super.setWorld(world);
+        for (StopCondition condition:conditions) condition.setWorld(world);
+    }
+
+    @Override
+    public boolean isMet() {
+        boolean met = false;
+        for (StopCondition condition:conditions) {
+            if (condition.isMet()) met = true;
+        }
+        return met;
+    }
+}
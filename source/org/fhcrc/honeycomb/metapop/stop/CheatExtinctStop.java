@@ -29,18 +29,10 @@ import org.fhcrc.honeycomb.metapop.World;
  * @version $Rev: 1 $, $Date: 2014-10-14 12:32:00 -0400 (Tues, Oct 14, 2014) $, $Author: ccannist $
  *
  */
-public class CheatExtinctStop extends StopCondition {
+public class CheatExtinctStop extends TypeExtinctStop {
 
-    public boolean isMet() {
-        boolean cheats_extinct = false;
-
-        if (world.getSizeByType("cheat") == 0)
-        {
-            System.out.println("cheats extinct at step " + world.getStep());
-            cheats_extinct = true;
-        }
-
-        return (cheats_extinct);
+    public CheatExtinctStop() {
+        super("cheat");
     }
 
     @Override
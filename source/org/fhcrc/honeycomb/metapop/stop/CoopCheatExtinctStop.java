@@ -29,25 +29,10 @@ import org.fhcrc.honeycomb.metapop.World;
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
  *
  */
-public class CoopCheatExtinctStop extends StopCondition {
+public class CoopCheatExtinctStop extends AnyStop {
 
-    public boolean isMet() {
-        boolean coops_extinct = false;
-        boolean cheats_extinct = false;
-
-        if (world.getSizeByType("coop") == 0)
-        {
-            System.out.println("coops extinct at step " + world.getStep());
-            coops_extinct = true;
-        }
-
-        if (world.getSizeByType("cheat") == 0)
-        {
-            System.out.println("cheats extinct at step " + world.getStep());
-            cheats_extinct = true;
-        }
-
-        return (coops_extinct || cheats_extinct);
+    public CoopCheatExtinctStop() {
+        super(new CoopExtinctStop(), new CheatExtinctStop());
     }
 
     @Override
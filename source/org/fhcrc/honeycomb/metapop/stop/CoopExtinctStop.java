@@ -29,18 +29,10 @@ import org.fhcrc.honeycomb.metapop.World;
  * @version $Rev: 1 $, $Date: 2014-10-14 12:32:00 -0400 (Tues, Oct 14, 2014) $, $Author: ccannist $
  *
  */
-public class CoopExtinctStop extends StopCondition {
+public class CoopExtinctStop extends TypeExtinctStop {
 
-    public boolean isMet() {
-        boolean coops_extinct = false;
-
-        if (world.getSizeByType("coop") == 0)
-        {
-            System.out.println("coops extinct at step " + world.getStep());
-            coops_extinct = true;
-        }
-
-        return (coops_extinct);
+    public CoopExtinctStop() {
+        super("coop");
     }
 
     @Override
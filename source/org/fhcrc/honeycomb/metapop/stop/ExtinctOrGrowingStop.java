@@ -20,7 +20,6 @@
 package org.fhcrc.honeycomb.metapop.stop;
 
 import org.fhcrc.honeycomb.metapop.World;
-import org.fhcrc.honeycomb.metapop.Population;
 
 /** 
  * Stops when Populations are either extinct or have achieved some minimum
@@ -31,19 +30,20 @@ import org.fhcrc.honeycomb.metapop.Population;
  * @version $Rev: 2393 $, $Date: 2014-05-24 19:17:59 -0400 (Sat, 24 May 2014) $, $Author: ajwaite $
  *
  */
-public class ExtinctOrGrowingStop extends StopCondition {
-    private int min_pop_size;
+public class ExtinctOrGrowingStop extends ThresholdStop {
+    private final int min_pop_size;
 
     public ExtinctOrGrowingStop(int min_pop_size) {
+        super(AT_MOST, 0, "Extinct or growing");
         this.min_pop_size = min_pop_size;
     }
 
-    public boolean isMet() {
-        for (Population pop:world.getOccupiedLocations().getList()) {
-            int size = pop.getSize();
-            if (size < min_pop_size && size > 0) return false;
-        }
-        System.out.println("Extinct or growing at step " + world.getStep());
-        return true;
-    }
+    /** 
+     * every occupied Population has reached the minimum size when none is
+     * smaller.
+     */
+    @Override
+    protected long read() { return world.getNOccupiedBelow(min_pop_size); }
+
+    public int getMinPopSize() { return min_pop_size; }
 }
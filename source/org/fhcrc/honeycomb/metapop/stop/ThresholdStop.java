@@ -0,0 +1,78 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.stop;
+
+import org.fhcrc.honeycomb.metapop.World;
+
+/** 
+ * Stops when an aggregate that the {@link World} keeps up to date, such as
+ * its size or the size of a type, reaches a threshold.  Subclasses say
+ * which aggregate to {@link #read}.  The World updates its aggregates as
+ * cells are born, die and move, so a read does not scan the patches.  A
+ * message is printed once, when the threshold is first reached.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public abstract class ThresholdStop extends StopCondition {
+    /** met when the aggregate is at most the threshold. */
+    public static final int AT_MOST = 0;
+    /** met when the aggregate is at least the threshold. */
+    public static final int AT_LEAST = 1;
+
+    private final int comparison;
+    private final long threshold;
+    private final String event;
+    private boolean reported = false;
+
+    /**
+     * @param comparison {@link #AT_MOST} or {@link #AT_LEAST}.
+     * @param threshold the threshold.
+     * @param event what has happened when the threshold is reached, for
+     *              the message.
+     */
+    protected ThresholdStop(int comparison, long threshold, String event) {
+        if (comparison != AT_MOST && comparison != AT_LEAST) {
+            throw new IllegalArgumentException(
+                "unknown comparison " + comparison);
+        }
+        this.comparison = comparison;
+        this.threshold = threshold;
+        this.event = event;
+    }
+
+    /** returns the current value of the aggregate. */
+    protected abstract long read();
+
+    @Override
+    public boolean isMet() {
+        long value = read();
+        boolean met = (comparison == AT_MOST) ? value <= threshold
+                                              : value >= threshold;
+        if (met && !reported) {
+            System.out.println(event + " at step " + world.getStep());
+            reported = true;
+        }
+        return met;
+    }
+
+    public long getThreshold() { return threshold; }
+}
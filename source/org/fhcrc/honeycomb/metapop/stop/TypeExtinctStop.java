@@ -0,0 +1,44 @@
+/**
+ * Copyright 2014 Adam Waite
+ *
+ * This file is part of metapop.
+ *
+ * metapop is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * metapop is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with metapop.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.fhcrc.honeycomb.metapop.stop;
+
+import org.fhcrc.honeycomb.metapop.World;
+
+/** 
+ * Stops if all cells of a type, such as "coop" or "cheat", go extinct.
+ *
+ * Created on 17 Oct, 2026
+ *
+ * @see World#getSizeByType
+ */
+public class TypeExtinctStop extends ThresholdStop {
+    private final String type;
+
+    public TypeExtinctStop(String type) {
+        super(AT_MOST, 0, type + "s extinct");
+        this.type = type;
+    }
+
+    @Override
+    protected long read() { return world.getSizeByType(type); }
+
+    public String getType() { return type; }
+}
@@ -0,0 +1,129 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+
+import org.fhcrc.honeycomb.metapop.output.ColumnarReader;
+import org.fhcrc.honeycomb.metapop.output.ColumnarWriter;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the columnar snapshot file.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class ColumnarStoreTest {
+    private final File data_path = new File("output_test/columnar_test");
+    private RandomNumberUser rng = new RandomNumberUser(1);
+    private FitnessCalculator fc = new SpecifiedCalculator(0.1, 0.05);
+
+    private World makeWorld() {
+        Subpopulation coop = new Subpopulation(100, fc, "coop_col", rng);
+        Subpopulation cheat = new Subpopulation(40, fc, "cheat_col", rng);
+        List<Population> pops = new ArrayList<Population>();
+        pops.add(new Population(Arrays.asList(coop, cheat),
+                                new Coordinate(1,1), 1e4, rng));
+        pops.add(new Population(Arrays.asList(cheat),
+                                new Coordinate(2,3), 1e4, rng));
+        return new World(3, 3, pops, new StaticEnvironment(),
+                         new NoDilution(), new NoMutation(),
+                         new NoMigration(), new NoStop(), data_path);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        World world;
+        StateSaver.setDefaultFormat(StateSaver.COLUMNAR);
+        try {
+            world = makeWorld();
+            world.iterate(4, 2);
+        } finally {
+            StateSaver.setDefaultFormat(StateSaver.TAB);
+        }
+
+        ColumnarReader reader = new ColumnarReader(
+            new File(data_path, StateSaver.COLUMNAR_FILENAME));
+        try {
+            assertEquals("wrong number of saves", 3, reader.getNSnapshots());
+            assertEquals(Arrays.asList("coop_col", "cheat_col"),
+                         reader.getIds());
+            int last = reader.indexOf(4);
+            assertEquals(2, last);
+            assertEquals(-1, reader.indexOf(3));
+
+            Snapshot expected = new Snapshot();
+            world.capture(expected);
+            Snapshot read = new Snapshot();
+            reader.read(last, read);
+            assertEquals(4, read.getStep());
+            assertEquals(expected.getNPatches(), read.getNPatches());
+            for (int p=0; p<read.getNPatches(); p++) {
+                assertEquals(expected.getRow(p), read.getRow(p));
+                assertEquals(expected.getCol(p), read.getCol(p));
+                assertEquals(expected.getResource(p), read.getResource(p),
+                             0.0);
+                for (int s=0; s<read.getNStrains(); s++) {
+                    assertEquals(expected.getCount(p, s),
+                                 read.getCount(p, s));
+                    assertEquals(expected.getCount(p, s),
+                                 reader.getCount(last, p, s));
+                }
+            }
+
+            reader.read(last, 1, 2, read);
+            assertEquals("wrong patch range", 1, read.getNPatches());
+            assertEquals(expected.getCol(1), read.getCol(0));
+            assertEquals(expected.getCount(1, 1), read.getCount(0, 1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void unfinishedFile() throws Exception {
+        data_path.mkdirs();
+        File file = new File(data_path, "unfinished.col");
+        ColumnarWriter writer = new ColumnarWriter(file);
+        Snapshot snapshot = new Snapshot();
+        snapshot.reset(7, true, Arrays.asList("a"), 1);
+        snapshot.setPatch(0, 2, 2, 0.5);
+        snapshot.addCount(0, 0, 11);
+        writer.write(snapshot);
+        snapshot.reset(8, false, Arrays.asList("a", "b"), 1);
+        snapshot.setPatch(0, 2, 2, 0.25);
+        snapshot.addCount(0, 1, 3);
+        writer.write(snapshot);
+        // Not closed: there is no footer.
+
+        ColumnarReader reader = new ColumnarReader(file);
+        try {
+            assertEquals(2, reader.getNSnapshots());
+            assertEquals(Arrays.asList("a", "b"), reader.getIds());
+            assertEquals(11, reader.getCount(0, 0, 0));
+            assertEquals("strain not seen yet", 0, reader.getCount(0, 0, 1));
+            assertEquals(3, reader.getCount(1, 0, 1));
+            Snapshot read = new Snapshot();
+            reader.read(0, read);
+            assertTrue(read.isEnvChanged());
+            assertEquals(0.5, read.getResource(0), 0.0);
+        } finally {
+            reader.close();
+            writer.close();
+        }
+    }
+}
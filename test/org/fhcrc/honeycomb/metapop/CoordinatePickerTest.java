@@ -218,4 +218,46 @@ public class CoordinatePickerTest {
         assertTrue("failed - wrong coordinates are present",
                    allowed.containsAll(test));
     }
+
+    @Test
+    public void indicesMatchCoordinates() {
+        int samples = 50;
+        rows = 7;
+        cols = 4;
+        prov = new Provider(rows, cols, new Coordinate(2, 3));
+
+        CoordinatePicker by_coord =
+            new RandomNeighborPicker(rows, cols, exclude, prov, 2,
+                                     new RandomNumberUser(seed));
+        CoordinatePicker by_index =
+            new RandomNeighborPicker(rows, cols, exclude, prov, 2,
+                                     new RandomNumberUser(seed));
+        List<Coordinate> coords = by_coord.pick(samples);
+        int[] indices = new int[samples];
+        by_index.pickIndices(indices, samples);
+        for (int i=0; i<samples; i++) {
+            assertEquals(coords.get(i), by_index.toCoordinate(indices[i]));
+            assertEquals(by_index.index(coords.get(i)), indices[i]);
+        }
+
+        by_coord = new RandomPicker(rows, cols, exclude, prov,
+                                    new RandomNumberUser(seed));
+        by_index = new RandomPicker(rows, cols, exclude, prov,
+                                    new RandomNumberUser(seed));
+        for (int i=0; i<samples; i++) {
+            assertEquals(by_coord.pick(),
+                         by_index.toCoordinate(by_index.pickIndex()));
+        }
+    }
+
+    @Test
+    public void uniqueIndices() {
+        rows = 6;
+        cols = 6;
+        CoordinatePicker uni = new UniqueRandomPicker(rows, cols, rng);
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i=0; i<rows*cols; i++) {
+            assertTrue("index repeated", seen.add(uni.pickIndex()));
+        }
+    }
 }
@@ -26,6 +26,26 @@ public class CoordinateTest {
         assertFalse(coord1.hashCode() == coord3.hashCode());
     }
 
+    @Test
+    public void hashCodeDigits() {
+        assertFalse(new Coordinate(1,11).hashCode() ==
+                    new Coordinate(11,1).hashCode());
+    }
+
+    @Test
+    public void hashCodeWideGrid() {
+        assertFalse(new Coordinate(1,32).hashCode() ==
+                    new Coordinate(2,1).hashCode());
+
+        Set<Integer> hashes = new HashSet<Integer>();
+        for (int r=1; r<=1000; r++) {
+            for (int c=1; c<=1000; c++) {
+                assertTrue("collision at " + r + "," + c,
+                           hashes.add(new Coordinate(r,c).hashCode()));
+            }
+        }
+    }
+
     @Test
     public void copy() {
         Coordinate coord_copy = new Coordinate(coord1);
@@ -0,0 +1,139 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.SpecifiedPicker;
+
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+
+import org.fhcrc.honeycomb.metapop.dilution.DilutionRule;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.dilution.PeriodicDilution;
+import org.fhcrc.honeycomb.metapop.dilution.GlobalThresholdDilution;
+
+import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.migration.IndividualMigration;
+
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+
+import java.io.File;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the continuous-time {@link GillespieWorld}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class GillespieWorldTest {
+    private final File data_path = new File("output_test/gillespie_test");
+    private int rows = 4;
+    private int cols = 4;
+
+    private RandomNumberUser rng = new RandomNumberUser(1);
+    private RandomNumberUser event_rng = new RandomNumberUser(2);
+
+    private GillespieWorld makeWorld(FitnessCalculator fc, int size,
+                                     double resource,
+                                     DilutionRule dilution_rule,
+                                     MigrationRule migration_rule)
+    {
+        Subpopulation sub = new Subpopulation(size, 1.0, 0.0, fc,
+                                              "coop_anc", rng);
+        List<Population> pops = new ArrayList<Population>();
+        pops.add(new Population(Arrays.asList(sub), new Coordinate(2,2),
+                                resource, rng));
+        return new GillespieWorld(rows, cols, pops, new StaticEnvironment(),
+                                  dilution_rule, new NoMutation(),
+                                  migration_rule, new NoStop(), data_path,
+                                  1, event_rng);
+    }
+
+    @Test
+    public void pureDeath() {
+        int initial = 10000;
+        double death_rate = 0.01;
+        int steps = 100;
+        GillespieWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, death_rate), initial,
+                      0.0, new NoDilution(), new NoMigration());
+        world.iterate(steps, steps);
+
+        double expected = initial*Math.exp(-death_rate*steps);
+        double sd = Math.sqrt(expected*(1-expected/initial));
+        int size = world.getSizeById("coop_anc");
+        assertEquals("wrong survivors", expected, size, 5*sd);
+        assertEquals("events not deaths", initial-size, world.getEvents());
+        assertEquals(steps, world.getStep());
+    }
+
+    @Test
+    public void birthsConsumeResource() {
+        int initial = 100;
+        double resource = 1e4;
+        GillespieWorld world =
+            makeWorld(new SpecifiedCalculator(0.05, 0.0), initial,
+                      resource, new NoDilution(), new NoMigration());
+        world.iterate(20, 10);
+
+        Population pop = world.getOccupiedLocations().
+                             getPopulationAt(new Coordinate(2,2));
+        int births = pop.getSize() - initial;
+        assertTrue("no births", births > 0);
+        assertEquals("resource not consumed", resource - births,
+                     pop.getResource(), 1e-9);
+    }
+
+    @Test
+    public void migrantsColonise() {
+        MigrationRule migration =
+            new IndividualMigration(0.01, new RandomPicker(rows, cols, true,
+                                                           rng));
+        GillespieWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, 0.0), 1000, 0.0,
+                      new NoDilution(), migration);
+        world.iterate(10, 10);
+
+        OccupiedLocations ols = world.getOccupiedLocations();
+        assertTrue("no patches colonised", ols.getSize() > 1);
+        assertEquals("source depleted", 1000,
+                     ols.getPopulationAt(new Coordinate(2,2)).getSize());
+        assertEquals("events not migrations",
+                     world.getSize() - 1000, world.getEvents());
+    }
+
+    @Test
+    public void periodicDilution() {
+        GillespieWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, 0.0), 10000, 0.0,
+                      new PeriodicDilution(0.5, 5), new NoMigration());
+        world.iterate(10, 10);
+
+        // Diluted before steps 5 and 10.
+        assertEquals(2500, world.getSize(), 5*Math.sqrt(2500));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unsupportedDilution() {
+        makeWorld(new SpecifiedCalculator(0.0, 0.0), 10, 0.0,
+                  new GlobalThresholdDilution(0.5, 100), new NoMigration());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void specifiedPickerRejected() {
+        MigrationRule migration = new IndividualMigration(0.01,
+            new SpecifiedPicker(Arrays.asList(new Coordinate(1,1))));
+        makeWorld(new SpecifiedCalculator(0.0, 0.0), 10, 0.0,
+                  new NoDilution(), migration);
+    }
+}
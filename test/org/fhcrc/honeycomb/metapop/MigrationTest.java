@@ -8,6 +8,8 @@ import org.fhcrc.honeycomb.metapop.OccupiedLocations;
 import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.CoordinatePicker;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.SpecifiedPicker;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomNeighborPicker;
 
 import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
 import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
@@ -115,4 +117,96 @@ public class MigrationTest {
             }
         }
     }
+
+    private OccupiedLocations largeSource(int size) {
+        Subpopulation big = new Subpopulation(size, fc, "subpop", rng);
+        Population source = new Population(Arrays.asList(big),
+                                           new Coordinate(5,5), 0.0, rng);
+        return new OccupiedLocations(Arrays.asList(source), rows*cols);
+    }
+
+    @Test
+    public void sourcesKeepTheirMigrants() {
+        // Every cell leaves, one to each coordinate, so an arrival that
+        // migrated again would run the picker out of coordinates.
+        int n = new_coords.size();
+        ols.getPopulationAt(coord).getSubpopulations().get(0).setSize(n);
+        MigrationRule everyone = new IndividualMigration(1.0, cp);
+        everyone.migrate(ols);
+
+        assertEquals("source depleted",
+                     n, ols.getPopulationAt(coord).getSize());
+        assertEquals("wrong number of locations",
+                     size_before+n, ols.getSize());
+        int arrived = 0;
+        for (Population p:ols.getList()) {
+            if (!p.getCoordinate().equals(coord)) arrived += p.getSize();
+        }
+        assertEquals("wrong number arrived", n, arrived);
+    }
+
+    @Test
+    public void aggregatedGlobalMigration() {
+        int size = 100000;
+        OccupiedLocations large = largeSource(size);
+        MigrationRule global =
+            new IndividualMigration(migration_rate,
+                                    new RandomPicker(rows, cols, true, rng));
+        global.migrate(large);
+
+        Population source = large.getPopulationAt(new Coordinate(5,5));
+        assertEquals("source depleted", size, source.getSize());
+        assertEquals("destinations missing", rows*cols, large.getSize());
+
+        int arrived = 0;
+        double per_patch = size*migration_rate/(rows*cols-1);
+        for (Population pop:large.getList()) {
+            if (pop == source) continue;
+            arrived += pop.getSize();
+            assertEquals("uneven dispersal", per_patch, pop.getSize(),
+                         6*Math.sqrt(per_patch));
+        }
+        double[] ci = IntegerEstimate.binomialEstimate(size, migration_rate,
+                                                       0.999).getCI();
+        assertTrue("wrong number of migrants: " + arrived,
+                   arrived >= ci[0] && arrived <= ci[1]);
+    }
+
+    @Test
+    public void aggregatedNeighborMigration() {
+        int size = 10000;
+        OccupiedLocations large = largeSource(size);
+        MigrationRule local =
+            new IndividualMigration(migration_rate,
+                new RandomNeighborPicker(rows, cols, true, 1, rng));
+        local.migrate(large);
+
+        assertEquals("wrong number of neighbours", 9, large.getSize());
+        for (Population pop:large.getList()) {
+            Coordinate c = pop.getCoordinate();
+            assertTrue("too far: " + c, Math.abs(c.getRow()-5) <= 1 &&
+                                        Math.abs(c.getCol()-5) <= 1);
+        }
+    }
+
+    @Test
+    public void wrappedNeighborsExcludeSource() {
+        // On a 2x2 grid, offsets of 2 wrap back onto the source.
+        int size = 10000;
+        Subpopulation big = new Subpopulation(size, fc, "subpop", rng);
+        Population source = new Population(Arrays.asList(big),
+                                           new Coordinate(1,1), 0.0, rng);
+        OccupiedLocations small =
+            new OccupiedLocations(Arrays.asList(source), 4);
+        MigrationRule local =
+            new IndividualMigration(1.0,
+                new RandomNeighborPicker(2, 2, true, 2, rng));
+        local.migrate(small);
+
+        int arrived = 0;
+        for (Population pop:small.getList()) arrived += pop.getSize();
+        assertEquals("migrants returned home", size,
+                     small.getPopulationAt(new Coordinate(1,1)).getSize());
+        assertEquals("migrants lost", 2*size, arrived);
+    }
 }
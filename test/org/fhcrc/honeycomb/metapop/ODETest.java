@@ -8,8 +8,13 @@ import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
 import org.fhcrc.honeycomb.metapop.fitness.MonodCalculator;
 
 import org.fhcrc.honeycomb.metapop.ode.ConsumptionODE;
+import org.fhcrc.honeycomb.metapop.ode.SolverPool;
+import org.fhcrc.honeycomb.metapop.ode.PopulationDynamicsSolver;
+import org.fhcrc.honeycomb.metapop.ode.BatchedSolver;
+import org.fhcrc.honeycomb.metapop.ode.RK45Solver;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Arrays;
 import java.util.ArrayList;
 
@@ -179,4 +184,181 @@ public class ODETest {
         System.out.println("resource: " + resource);
         assertTrue("resource < 0: " + resource, resource > 0.0);
     }
+
+    @Test
+    public void pooledSolvers() {
+        PopulationDynamicsSolver two = SolverPool.get(2);
+        PopulationDynamicsSolver five = SolverPool.get(5);
+        assertEquals("wrong dimension", 4, two.getDimension());
+        assertEquals("wrong dimension", 7, five.getDimension());
+        assertSame("not reused", two, SolverPool.get(2));
+    }
+
+    @Test
+    public void mixedDimensions() {
+        initial_anc_coops = 100;
+        initial_resource = 10;
+        makePops();
+
+        Population single = new Population(Arrays.asList(anc_coop),
+                                           new Coordinate(1,2),
+                                           initial_resource,
+                                           population_rng);
+        test_pop.grow();
+        single.grow();
+        assertTrue("resource < 0", single.getResource() >= 0.0);
+
+        single.mix(test_pop);
+        single.grow();
+        assertEquals("wrong number of subpops", 4,
+                     single.getNSubpopulations());
+    }
+
+    @Test
+    public void solversAgree() {
+        initial_anc_coops = 5000;
+        initial_anc_cheats = 3000;
+        initial_resource = 50;
+        makePops();
+
+        PopulationDynamicsSolver dp54 = SolverPool.create("dp54", 4, 1.0);
+        dp54.load(test_pop.getSubpopulations(), test_pop.getCapacity());
+        dp54.integrate(test_pop);
+        double expected = dp54.integrateResource();
+
+        for (String type:Arrays.asList("rk4", "rk45")) {
+            PopulationDynamicsSolver solver = SolverPool.create(type, 4, 1.0);
+            solver.load(test_pop.getSubpopulations(), test_pop.getCapacity());
+            solver.integrate(test_pop);
+            assertEquals(type + " mean resource", expected,
+                         solver.integrateResource(), 1e-3*expected);
+            assertEquals(type + " final resource", dp54.getFinalResource(),
+                         solver.getFinalResource(),
+                         1e-3*dp54.getFinalResource());
+        }
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() {
+        java.lang.management.ThreadMXBean bean =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        initial_anc_coops = 5000;
+        initial_anc_cheats = 3000;
+        initial_resource = 50;
+        makePops();
+        int[] counts = {5000, 0, 3000, 0};
+
+        for (String type:Arrays.asList("rk4", "rk45")) {
+            PopulationDynamicsSolver solver = SolverPool.create(type, 4, 1.0);
+            solver.load(test_pop.getSubpopulations(), test_pop.getCapacity());
+            for (int i=0; i<2000; i++) solver.integrate(counts, 0, 50.0);
+
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i=0; i<100; i++) solver.integrate(counts, 0, 50.0);
+            long after = threads.getThreadAllocatedBytes(thread);
+            assertEquals(type + " allocated", 0, after - before);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownSolver() {
+        SolverPool.setType("euler");
+    }
+
+    @Test
+    public void augmentedMatchesSampled() {
+        initial_anc_coops = 5000;
+        initial_anc_cheats = 3000;
+        initial_resource = 50;
+        makePops();
+
+        ConsumptionODE augmented = new ConsumptionODE(test_pop);
+        augmented.integrate(test_pop);
+
+        ConsumptionODE sampled = new ConsumptionODE(test_pop);
+        sampled.setSampled(true);
+        sampled.integrate(test_pop);
+
+        assertEquals("mean resource differs",
+                     sampled.integrateResource(),
+                     augmented.integrateResource(),
+                     1e-6*sampled.integrateResource());
+        assertEquals("final resource differs",
+                     sampled.getFinalResource(),
+                     augmented.getFinalResource(), 0.0);
+    }
+
+    @Test
+    public void batchedMatchesSingle() {
+        initial_anc_coops = 1;
+        makePops();
+
+        int n_patches = 6;
+        int[] counts = new int[4*n_patches];
+        double[] resource = new double[n_patches];
+        double[] capacity = new double[n_patches];
+        int[] patches = new int[n_patches];
+        for (int p=0; p<n_patches; p++) {
+            counts[4*p] = 1000*(p+1);
+            counts[4*p+1] = 500*p;
+            counts[4*p+3] = 10*p;
+            resource[p] = 20.0*p;
+            capacity[p] = 1e6;
+            patches[p] = n_patches-1-p;
+        }
+
+        BatchedSolver batched = new BatchedSolver(1.0);
+        batched.load(test_pop.getSubpopulations());
+        assertTrue("Monod fast path not used", batched.isMonod());
+        batched.integrate(counts, resource, capacity, patches, n_patches);
+
+        PopulationDynamicsSolver single = new RK45Solver(4, 1.0);
+        single.load(test_pop.getSubpopulations(), 1e6);
+        for (int b=0; b<n_patches; b++) {
+            single.integrate(counts, 4*patches[b], resource[patches[b]]);
+            assertEquals("mean resource differs in patch " + patches[b],
+                         single.integrateResource(),
+                         batched.getMeanResource(b), 1e-12);
+            assertEquals("final resource differs in patch " + patches[b],
+                         single.getFinalResource(),
+                         batched.getFinalResource(b), 1e-12);
+        }
+    }
+
+    @Test
+    public void starvedIsQuiescent() {
+        initial_anc_cheats = 1000;
+        initial_evo_cheats = 500;
+        initial_resource = 0;
+        makePops();
+
+        PopulationDynamicsSolver ode = new RK45Solver(4, 1.0);
+        ode.load(test_pop.getSubpopulations(), test_pop.getCapacity());
+        ode.integrate(test_pop);
+        assertTrue("starved population integrated", ode.wasSkipped());
+        assertEquals(0.0, ode.integrateResource(), 0.0);
+
+        PopulationDynamicsSolver full = new RK45Solver(4, 1.0);
+        full.setSkipQuiescent(false);
+        full.load(test_pop.getSubpopulations(), test_pop.getCapacity());
+        full.integrate(test_pop);
+        assertFalse("integration skipped", full.wasSkipped());
+        assertEquals(full.integrateResource(), ode.integrateResource(), 0.0);
+        Map<String, Double> closed = ode.getResult();
+        Map<String, Double> integrated = full.getResult();
+        for (String id:Arrays.asList(anc_cheat_id, evo_cheat_id)) {
+            assertEquals(id + " differs", integrated.get(id),
+                         closed.get(id), 1e-6*integrated.get(id));
+        }
+
+        initial_anc_coops = 10;
+        makePops();
+        ode.integrate(test_pop);
+        assertFalse("releasing population skipped", ode.wasSkipped());
+    }
 }
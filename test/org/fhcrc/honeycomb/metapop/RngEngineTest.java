@@ -0,0 +1,112 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.rng.PhiloxGenerator;
+import org.fhcrc.honeycomb.metapop.rng.SplitMix64;
+import org.fhcrc.honeycomb.metapop.rng.Xoshiro256StarStar;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the generator engines and splitting of {@link RandomNumberUser}s.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class RngEngineTest {
+    private int draws = 100000;
+
+    @Test
+    public void splitMixReference() {
+        assertEquals(0xE220A8397B1DCDAFL, new SplitMix64(0).nextLong());
+    }
+
+    @Test
+    public void philoxReference() {
+        int[] out = new int[4];
+        PhiloxGenerator.block(new int[4], 0, 0, out);
+        assertArrayEquals(new int[] {0x6627e8d5, 0xe169c58d,
+                                     0xbc57ac4c, 0x9b00dbd8}, out);
+    }
+
+    @Test
+    public void philoxCounter() {
+        PhiloxGenerator a = new PhiloxGenerator(9);
+        PhiloxGenerator b = new PhiloxGenerator(9);
+
+        a.setCounter(1000, 3, 1, PhiloxGenerator.DEATH);
+        long death = a.nextLong();
+        a.setCounter(1000, 3, 1, PhiloxGenerator.BIRTH);
+        long birth = a.nextLong();
+
+        b.setCounter(1000, 3, 1, PhiloxGenerator.BIRTH);
+        assertEquals(birth, b.nextLong());
+        b.nextInt();
+        b.setCounter(1000, 3, 1, PhiloxGenerator.DEATH);
+        assertEquals(death, b.nextLong());
+        assertNotEquals(birth, death);
+    }
+
+    @Test
+    public void uniformMean() {
+        String[] engines = {RandomNumberUser.WELL19937C,
+                            RandomNumberUser.XOSHIRO256SS,
+                            RandomNumberUser.SPLITMIX64,
+                            RandomNumberUser.PHILOX4X32};
+        for (String engine:engines) {
+            RandomNumberUser rng = new RandomNumberUser(7, engine);
+            double sum = 0.0;
+            for (int i=0; i<draws; i++) sum += rng.getNextDouble(0, 1);
+            assertEquals(engine, 0.5, sum/draws,
+                         5*Math.sqrt(1.0/12/draws));
+            assertEquals(engine, rng.getEngine());
+        }
+    }
+
+    @Test
+    public void jumpChangesStream() {
+        Xoshiro256StarStar a = new Xoshiro256StarStar(1);
+        Xoshiro256StarStar b = new Xoshiro256StarStar(1);
+        assertEquals(a.nextLong(), b.nextLong());
+        b.jump();
+        assertNotEquals(a.nextLong(), b.nextLong());
+    }
+
+    @Test
+    public void splitIsReproducible() {
+        RandomNumberUser first =
+            new RandomNumberUser(3, RandomNumberUser.XOSHIRO256SS);
+        RandomNumberUser second =
+            new RandomNumberUser(3, RandomNumberUser.XOSHIRO256SS);
+
+        RandomNumberUser a1 = first.split();
+        RandomNumberUser a2 = first.split();
+        RandomNumberUser b1 = second.split();
+
+        long x1 = a1.getGenerator().nextLong();
+        assertEquals(x1, b1.getGenerator().nextLong());
+        assertNotEquals(x1, a2.getGenerator().nextLong());
+        assertNotEquals(x1, first.getGenerator().nextLong());
+    }
+
+    @Test
+    public void streamsCarrySettings() {
+        RandomNumberUser master =
+            new RandomNumberUser(5, RandomNumberUser.SPLITMIX64);
+        master.setHybridThresholds(10, 20);
+        master.getNextDouble(0, 1);
+
+        RandomNumberUser s = master.stream(4);
+        assertEquals(RandomNumberUser.SPLITMIX64, s.getEngine());
+        assertEquals(10, s.getNormalThreshold(), 0.0);
+        assertEquals(RandomNumberUser.deriveSeed(5, 4), s.getSeed());
+        assertEquals(new RandomNumberUser(5, RandomNumberUser.SPLITMIX64)
+                         .stream(4).getGenerator().nextLong(),
+                     s.getGenerator().nextLong());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void unknownEngine() {
+        new RandomNumberUser(1, "mt");
+    }
+}
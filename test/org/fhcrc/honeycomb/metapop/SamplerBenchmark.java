@@ -0,0 +1,63 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.sampler.BinomialSampler;
+
+import org.apache.commons.math3.random.RandomDataGenerator;
+import org.apache.commons.math3.random.Well19937c;
+
+/**
+ * Times binomial draws through {@link BinomialSampler} against
+ * {@code RandomDataGenerator.nextBinomial}, for the sizes and probabilities
+ * typical of births, mutation and migration.  Run with
+ * {@code java org.fhcrc.honeycomb.metapop.SamplerBenchmark [draws]}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class SamplerBenchmark {
+    private static final int[] SIZES = {10, 1000, 100000, 10000000};
+    private static final double[] PROBS = {1e-7, 0.01, 0.3};
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int draws = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        System.out.printf("%10s %8s %14s %14s%n",
+                          "n", "p", "legacy ns", "sampler ns");
+        for (int n:SIZES) {
+            for (double p:PROBS) {
+                double legacy = 0.0;
+                double sampler = 0.0;
+                for (int round=0; round<=WARMUP_ROUNDS; round++) {
+                    legacy = timeLegacy(n, p, draws);
+                    sampler = timeSampler(n, p, draws);
+                }
+                System.out.printf("%10d %8.0e %14.1f %14.1f%n",
+                                  n, p, legacy, sampler);
+            }
+        }
+    }
+
+    private static double timeLegacy(int n, double p, int draws) {
+        RandomDataGenerator rng = new RandomDataGenerator(new Well19937c(1));
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i=0; i<draws; i++) sum += rng.nextBinomial(n, p);
+        return report(start, draws, sum);
+    }
+
+    private static double timeSampler(int n, double p, int draws) {
+        BinomialSampler sampler = new BinomialSampler(new Well19937c(1));
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i=0; i<draws; i++) sum += sampler.sample(n, p);
+        return report(start, draws, sum);
+    }
+
+    // Uses the sum so the draws can't be optimized away.
+    private static double report(long start, int draws, long sum) {
+        double ns = (System.nanoTime() - start)/(double) draws;
+        if (sum == Long.MIN_VALUE) System.out.println(sum);
+        return ns;
+    }
+}
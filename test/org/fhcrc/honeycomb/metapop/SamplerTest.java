@@ -0,0 +1,113 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.sampler.BinomialSampler;
+import org.fhcrc.honeycomb.metapop.sampler.PoissonSampler;
+
+import org.apache.commons.math3.random.Well19937c;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the binomial and Poisson samplers.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class SamplerTest {
+    private int draws = 20000;
+    private BinomialSampler binomial;
+    private PoissonSampler poisson;
+
+    @Before
+    public void setUp() {
+        binomial = new BinomialSampler(new Well19937c(1));
+        poisson = new PoissonSampler(new Well19937c(2));
+    }
+
+    private void checkBinomial(int n, double p) {
+        double sum = 0.0;
+        double sum_sq = 0.0;
+        for (int i=0; i<draws; i++) {
+            int x = binomial.sample(n, p);
+            assertTrue("draw out of range", x >= 0 && x <= n);
+            sum += x;
+            sum_sq += (double) x*x;
+        }
+        double mean = sum/draws;
+        double var = sum_sq/draws - mean*mean;
+        double expected_var = n*p*(1-p);
+
+        // Five standard errors of the mean and of the variance.
+        assertEquals("mean, n=" + n + " p=" + p, n*p, mean,
+                     5*Math.sqrt(expected_var/draws));
+        assertEquals("variance, n=" + n + " p=" + p, expected_var, var,
+                     5*expected_var*Math.sqrt(2.0/draws));
+    }
+
+    @Test
+    public void binomialMoments() {
+        checkBinomial(20, 0.3);           // inversion
+        checkBinomial(1000, 0.01);        // inversion
+        checkBinomial(1000, 0.4);         // BTPE
+        checkBinomial(1000, 0.9);         // BTPE, reflected
+        checkBinomial(10000000, 0.2);     // BTPE, large n
+    }
+
+    @Test
+    public void binomialEdges() {
+        assertEquals(0, binomial.sample(0, 0.5));
+        assertEquals(0, binomial.sample(1000, 0.0));
+        assertEquals(1000, binomial.sample(1000, 1.0));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void badProbability() {
+        binomial.sample(10, Double.NaN);
+    }
+
+    @Test
+    public void batchMatchesSingle() {
+        int[] n = {0, 5, 100, 5000, 200000};
+        double[] p = {0.5, 0.2, 0.7, 0.01, 0.3};
+        int[] batch = new int[n.length];
+        binomial.sample(n, p, batch);
+
+        BinomialSampler single = new BinomialSampler(new Well19937c(1));
+        for (int i=0; i<n.length; i++) {
+            assertEquals("draw " + i, single.sample(n[i], p[i]), batch[i]);
+        }
+    }
+
+    @Test
+    public void poissonMoments() {
+        double[] means = {0.5, 8.0, 50.0, 1e6};
+        for (double m:means) {
+            double sum = 0.0;
+            for (int i=0; i<draws; i++) sum += poisson.sample(m);
+            assertEquals("mean " + m, m, sum/draws, 5*Math.sqrt(m/draws));
+        }
+    }
+
+    @Test
+    public void legacySampling() {
+        RandomNumberUser legacy = new RandomNumberUser(3);
+        legacy.setLegacySampling(true);
+        RandomNumberUser reference = new RandomNumberUser(3);
+        for (int i=0; i<10; i++) {
+            assertEquals(reference.getRNG().nextBinomial(500, 0.3),
+                         legacy.getNextBinomial(500, 0.3));
+        }
+    }
+
+    @Test
+    public void legacyByDefault() {
+        RandomNumberUser rng = new RandomNumberUser(3);
+        RandomNumberUser reference = new RandomNumberUser(3);
+        assertTrue(rng.isLegacySampling());
+        for (int i=0; i<10; i++) {
+            assertEquals(reference.getRNG().nextPoisson(40.0),
+                         rng.getNextPoisson(40.0));
+        }
+    }
+}
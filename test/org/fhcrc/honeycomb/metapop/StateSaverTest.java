@@ -0,0 +1,230 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+
+import org.fhcrc.honeycomb.metapop.output.ChannelBuffer;
+import org.fhcrc.honeycomb.metapop.output.ColumnarReader;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing in the background with {@link StateSaver}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class StateSaverTest {
+    private FitnessCalculator fc = new SpecifiedCalculator(0.1, 0.05);
+
+    private World makeWorld(File data_path) {
+        RandomNumberUser rng = new RandomNumberUser(3);
+        Subpopulation coop = new Subpopulation(100, fc, "coop_save", rng);
+        Subpopulation cheat = new Subpopulation(40, fc, "cheat_save", rng);
+        List<Population> pops = new ArrayList<Population>();
+        pops.add(new Population(Arrays.asList(coop, cheat),
+                                new Coordinate(1,1), 1e4, rng));
+        pops.add(new Population(Arrays.asList(cheat),
+                                new Coordinate(2,3), 1e4, rng));
+        return new World(3, 3, pops, new StaticEnvironment(),
+                         new NoDilution(), new NoMutation(),
+                         new NoMigration(), new NoStop(), data_path);
+    }
+
+    private World run(File data_path, String format, int queue_size) {
+        StateSaver.setDefaultFormat(format);
+        StateSaver.setDefaultQueueSize(queue_size);
+        try {
+            World world = makeWorld(data_path);
+            world.iterate(20, 1);
+            return world;
+        } finally {
+            StateSaver.setDefaultFormat(StateSaver.TAB);
+            StateSaver.setDefaultQueueSize(0);
+        }
+    }
+
+    @Test
+    public void asyncTabMatchesSync() throws Exception {
+        File sync = new File("output_test/saver_sync");
+        File async = new File("output_test/saver_async");
+        run(sync, StateSaver.TAB, 0);
+        run(async, StateSaver.TAB, 2);
+
+        for (int step=0; step<=20; step++) {
+            String name = step + ".tab";
+            assertArrayEquals("files differ at step " + step,
+                Files.readAllBytes(new File(sync, name).toPath()),
+                Files.readAllBytes(new File(async, name).toPath()));
+        }
+    }
+
+    @Test
+    public void asyncColumnar() throws Exception {
+        File data_path = new File("output_test/saver_columnar");
+        World world = run(data_path, StateSaver.COLUMNAR, 1);
+
+        ColumnarReader reader = new ColumnarReader(
+            new File(data_path, StateSaver.COLUMNAR_FILENAME));
+        try {
+            assertEquals("lost snapshots", 21, reader.getNSnapshots());
+            Snapshot expected = new Snapshot();
+            world.capture(expected);
+            assertEquals(expected.getCount(0, 0),
+                         reader.getCount(reader.indexOf(20), 0, 0));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** the rows as World.getData wrote them before it streamed. */
+    private String legacyData(World world, int step) {
+        List<String> ids = new ArrayList<String>();
+        for (String header:world.getHeaders().split("\t")) ids.add(header);
+        ids = ids.subList(6, ids.size());
+
+        StringBuffer data = new StringBuffer(1000);
+        for (Population pop:world.getOccupiedLocations().getList()) {
+            String row = Integer.toString(pop.getCoordinate().getRow());
+            String col = Integer.toString(pop.getCoordinate().getCol());
+            data.append(Integer.toString(step)).append("\t");
+            data.append(0).append("\t");
+            data.append(row).append("\t");
+            data.append(col).append("\t");
+            data.append(row + "_" + col).append("\t");
+            data.append(Double.toString(pop.getResource())).append("\t");
+            for (String id:ids) {
+                data.append(pop.getSizeById(id)).append("\t");
+            }
+            data.deleteCharAt(data.lastIndexOf("\t"));
+            data.append("\n");
+        }
+        return data.toString();
+    }
+
+    @Test
+    public void streamedTabMatchesLegacy() throws Exception {
+        File data_path = new File("output_test/saver_stream");
+        World world = run(data_path, StateSaver.TAB, 0);
+
+        assertEquals(legacyData(world, world.getStep()), world.getData());
+
+        // The loop leaves the step one past the last one saved.
+        String expected = world.getHeaders() + "\n" + legacyData(world, 20);
+        assertArrayEquals(expected.getBytes("UTF-8"),
+            Files.readAllBytes(new File(data_path, "20.tab").toPath()));
+    }
+
+    private byte[] gunzip(File file) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) bytes.write(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void gzipHoldsTheTabFiles() throws Exception {
+        File tab = new File("output_test/saver_gz_tab");
+        File sync = new File("output_test/saver_gz_sync");
+        File async = new File("output_test/saver_gz_async");
+        run(tab, StateSaver.TAB, 0);
+        run(sync, StateSaver.GZIP, 0);
+        StateSaver.setDefaultGzipLevel(1);
+        try {
+            run(async, StateSaver.GZIP, 2);
+        } finally {
+            StateSaver.setDefaultGzipLevel(-1);
+        }
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int step=0; step<=20; step++) {
+            expected.write(Files.readAllBytes(
+                new File(tab, step + ".tab").toPath()));
+        }
+        assertArrayEquals("sync members differ", expected.toByteArray(),
+            gunzip(new File(sync, StateSaver.GZIP_FILENAME)));
+        assertArrayEquals("async members differ", expected.toByteArray(),
+            gunzip(new File(async, StateSaver.GZIP_FILENAME)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void badGzipLevel() {
+        StateSaver.setDefaultGzipLevel(10);
+    }
+
+    @Test
+    public void channelBuffer() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChannelBuffer out = new ChannelBuffer(24);
+        out.setChannel(Channels.newChannel(bytes));
+        int[] ints = {0, 7, -7, 1234567890, Integer.MAX_VALUE,
+                      Integer.MIN_VALUE};
+        StringBuilder expected = new StringBuilder();
+        for (int i:ints) {
+            out.putInt(i).put((byte) ' ');
+            expected.append(i).append(' ');
+        }
+        out.putDouble(0.1).put("\u00e9t\u00e9");
+        expected.append(0.1).append("\u00e9t\u00e9");
+        out.flush();
+        assertEquals(expected.toString(), bytes.toString("UTF-8"));
+    }
+
+    @Test
+    public void doublesMatchToString() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ChannelBuffer out = new ChannelBuffer(64);
+        out.setChannel(Channels.newChannel(bytes));
+        StringBuilder expected = new StringBuilder();
+
+        double[] special = {0.0, -0.0, 1.0, -1.0, 1e-3, 9.99e-4, 9999999.0,
+                            1e7, -1e7, 123456.0, 0.1, 1.0/3, Double.NaN,
+                            Double.POSITIVE_INFINITY, Double.MIN_VALUE,
+                            Double.MAX_VALUE, 2e23};
+        Random random = new Random(5);
+        List<Double> values = new ArrayList<Double>();
+        for (double d:special) values.add(d);
+        for (int i=0; i<2000; i++) {
+            double scale = Math.pow(10, random.nextInt(30) - 10);
+            values.add(random.nextDouble()*scale);
+            values.add(Math.rint(random.nextDouble()*scale));
+        }
+        for (double d:values) {
+            out.putDouble(d).put((byte) '\t');
+            expected.append(Double.toString(d)).append('\t');
+        }
+        out.flush();
+        assertEquals(expected.toString(), bytes.toString("UTF-8"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void negativeQueue() {
+        StateSaver.setDefaultQueueSize(-1);
+    }
+}
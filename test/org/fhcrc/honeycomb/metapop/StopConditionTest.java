@@ -0,0 +1,93 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+
+import org.fhcrc.honeycomb.metapop.stop.StopCondition;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+import org.fhcrc.honeycomb.metapop.stop.AllExtinctStop;
+import org.fhcrc.honeycomb.metapop.stop.CoopExtinctStop;
+import org.fhcrc.honeycomb.metapop.stop.CheatExtinctStop;
+import org.fhcrc.honeycomb.metapop.stop.CoopCheatExtinctStop;
+import org.fhcrc.honeycomb.metapop.stop.ExtinctOrGrowingStop;
+import org.fhcrc.honeycomb.metapop.stop.ThresholdStop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link StopCondition}s against the aggregates of a
+ * {@link World}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class StopConditionTest {
+    private RandomNumberUser rng = new RandomNumberUser(1);
+    private FitnessCalculator fc = new SpecifiedCalculator(0.0, 0.0);
+    private World world;
+
+    @Before
+    public void setUp() {
+        Subpopulation coop = new Subpopulation(50, fc, "coop_stop", rng);
+        Subpopulation cheat = new Subpopulation(0, fc, "cheat_stop", rng);
+        List<Population> pops = new ArrayList<Population>();
+        pops.add(new Population(Arrays.asList(coop, cheat),
+                                new Coordinate(1,1), 0.0, rng));
+        pops.add(new Population(Arrays.asList(coop),
+                                new Coordinate(2,2), 0.0, rng));
+        coop.setSize(10);
+        pops.add(new Population(Arrays.asList(coop),
+                                new Coordinate(3,3), 0.0, rng));
+
+        world = new World(3, 3, pops, new StaticEnvironment(),
+                          new NoDilution(), new NoMutation(),
+                          new NoMigration(), new NoStop(),
+                          new File("output_test/stop_test"));
+    }
+
+    private boolean met(StopCondition stop) {
+        stop.setWorld(world);
+        return stop.isMet();
+    }
+
+    @Test
+    public void types() {
+        assertEquals(110, world.getSizeByType("coop"));
+        assertFalse("coops extinct", met(new CoopExtinctStop()));
+        assertTrue("cheats not extinct", met(new CheatExtinctStop()));
+        assertTrue("neither extinct", met(new CoopCheatExtinctStop()));
+        assertFalse("world extinct", met(new AllExtinctStop()));
+    }
+
+    @Test
+    public void extinctOrGrowing() {
+        assertEquals(0, world.getNOccupiedBelow(10));
+        assertEquals(1, world.getNOccupiedBelow(11));
+        assertEquals(3, world.getNOccupied());
+        assertTrue("smallest not large enough",
+                   met(new ExtinctOrGrowingStop(10)));
+        assertFalse("smallest too large", met(new ExtinctOrGrowingStop(11)));
+    }
+
+    @Test
+    public void customThreshold() {
+        StopCondition crowded =
+            new ThresholdStop(ThresholdStop.AT_LEAST, 3, "crowded") {
+                @Override
+                protected long read() { return world.getNOccupied(); }
+            };
+        assertTrue(met(crowded));
+    }
+}
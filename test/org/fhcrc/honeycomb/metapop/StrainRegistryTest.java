@@ -0,0 +1,148 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link StrainRegistry}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class StrainRegistryTest {
+    private RandomNumberUser rng = new RandomNumberUser(1);
+    private FitnessCalculator fc = new SpecifiedCalculator(0.0, 0.0);
+
+    @Test
+    public void sharedHandles() {
+        Subpopulation a = new Subpopulation(10, fc, "coop_registry", rng);
+        Subpopulation b = new Subpopulation(a);
+        Subpopulation c = new Subpopulation(5, fc, "cheat_registry", rng);
+
+        assertEquals("copies differ", a.getStrain(), b.getStrain());
+        assertNotEquals("strains share a handle",
+                        a.getStrain(), c.getStrain());
+        StrainRegistry shared = StrainRegistry.shared();
+        assertEquals(a.getStrain(), shared.lookup("coop_registry"));
+        assertEquals(-1, shared.lookup("never_registered"));
+
+        StrainRegistry.Strain strain = shared.get(c.getStrain());
+        assertEquals("cheat_registry", strain.getId());
+        assertEquals("cheat", strain.getType());
+        assertEquals(StrainRegistry.NO_PARENT, strain.getParent());
+    }
+
+    @Test
+    public void parent() {
+        StrainRegistry registry = new StrainRegistry();
+        int parent = registry.register("coop_parent", 1.0, 0.0, fc,
+                                       StrainRegistry.NO_PARENT);
+        int child = registry.register("cheat_child", 1.0, 0.0, fc, parent);
+        assertEquals(parent, registry.get(child).getParent());
+        assertEquals("registered twice", child,
+                     registry.register("cheat_child", 1.0, 0.0,
+                                       new SpecifiedCalculator(0.0, 0.0),
+                                       StrainRegistry.NO_PARENT));
+
+        StrainRegistry other = new StrainRegistry();
+        StrainRegistry.Strain adopted = other.adopt(registry.get(child));
+        assertSame(other, adopted.getRegistry());
+        assertEquals("cheat_child", adopted.getId());
+        assertEquals("parent not adopted", "coop_parent",
+                     other.get(adopted.getParent()).getId());
+        assertEquals(2, other.size());
+    }
+
+    @Test
+    public void otherParameters() {
+        Subpopulation a = new Subpopulation(10, 2.0, 0.5, fc, "coop_other",
+                                            rng);
+        Subpopulation b = new Subpopulation(10, 3.0, 0.5, fc, "coop_other",
+                                            rng);
+
+        assertNotEquals("parameters ignored", a.getStrain(), b.getStrain());
+        StrainRegistry shared = StrainRegistry.shared();
+        assertEquals(b.getStrain(), shared.lookup("coop_other"));
+        assertEquals(a.getStrain(), shared.get(b.getStrain()).getPrevious());
+        assertEquals(2.0, a.getGamma(), 0.0);
+        assertEquals(3.0, b.getGamma(), 0.0);
+
+        Population pop = new Population(Arrays.asList(a),
+                                        new Coordinate(1,1), 0.0, rng);
+        assertEquals(10, pop.getSizeById("coop_other"));
+        assertSame(pop.getSubpopulations().get(0),
+                   pop.getSubpopById("coop_other"));
+    }
+
+    @Test
+    public void migrantsKeepParameters() {
+        Subpopulation a = new Subpopulation(100, 2.0, 0.5, fc,
+                                            "coop_migrant", rng);
+        Subpopulation migrants = a.retrieveMigrants(0.5);
+
+        assertEquals(a.getStrain(), migrants.getStrain());
+        assertEquals(2.0, migrants.getGamma(), 0.0);
+        assertEquals(0.5, migrants.getReleaseRate(), 0.0);
+    }
+
+    @Test
+    public void populationIndex() {
+        Subpopulation a = new Subpopulation(10, fc, "coop_index", rng);
+        Subpopulation b = new Subpopulation(5, fc, "cheat_index", rng);
+        Population pop = new Population(Arrays.asList(a),
+                                        new Coordinate(1,1), 0.0, rng);
+
+        assertNull("not added yet", pop.getSubpop(b.getStrain()));
+        pop.addMigrants(b, 3);
+        assertEquals(3, pop.getSubpop(b.getStrain()).getSize());
+        assertEquals(10, pop.getSubpopById("coop_index").getSize());
+
+        // Changes to the list from outside are picked up.
+        pop.getSubpopulations().add(0, new Subpopulation(b));
+        assertEquals(5, pop.getSubpop(b.getStrain()).getSize());
+        assertEquals(10, pop.getSubpop(a.getStrain()).getSize());
+    }
+
+    private World makeWorld(double gamma) {
+        Subpopulation sub = new Subpopulation(10, gamma, 0.0, fc,
+                                              "coop_world", rng);
+        Population pop = new Population(Arrays.asList(sub),
+                                        new Coordinate(1,1), 0.0, rng);
+        return new World(2, 2, Arrays.asList(pop), new StaticEnvironment(),
+                         new NoDilution(), new NoMutation(),
+                         new NoMigration(), new NoStop(),
+                         new File("output_test/registry_test"));
+    }
+
+    @Test
+    public void worldsHaveTheirOwnStrains() {
+        World first = makeWorld(1.0);
+        World second = makeWorld(2.0);
+
+        for (World world:Arrays.asList(first, second)) {
+            StrainRegistry registry = world.getStrainRegistry();
+            assertEquals("strains of other runs kept", 1, registry.size());
+            assertEquals(0, registry.lookup("coop_world"));
+            assertEquals(-1, registry.get(0).getPrevious());
+            assertEquals(10, world.getSizeById("coop_world"));
+
+            Subpopulation sub = world.getOccupiedLocations().getList()
+                                     .get(0).getSubpopulations().get(0);
+            assertSame(registry, sub.getDescriptor().getRegistry());
+            assertEquals(0, sub.getStrain());
+        }
+        assertEquals(2.0, second.getStrainRegistry().get(0).getGamma(), 0.0);
+    }
+}
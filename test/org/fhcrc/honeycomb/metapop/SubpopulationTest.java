@@ -46,6 +46,13 @@ public class SubpopulationTest {
         assertEquals("size wrong", sub.getSize(), copy.getSize());
     }
 
+    @Test
+    public void type() {
+        assertNull("id has no type", sub.getType());
+        assertEquals("coop",
+                     new Subpopulation(1, fc, "coop_anc", rng).getType());
+    }
+
     @Test
     public void grow() {
         int tests = 100;
@@ -139,4 +146,42 @@ public class SubpopulationTest {
         FailReport.report("[SubpopulationTest] migrate()", failed,
                           test_fractions.length, expect_fail);
     }
+
+    @Test
+    public void hybridSampling() {
+        RandomNumberUser hybrid = new RandomNumberUser(1);
+        hybrid.setHybridThresholds(100, 1e6);
+        fc = new SpecifiedCalculator(0.5, 0.1);
+
+        int small = 100;
+        int large = 1000000;
+        int huge = 100000000;
+        double large_mean = 0.0;
+        int draws = 200;
+        for (int i=0; i<draws; i++) {
+            new Subpopulation(small, fc, id, hybrid).getBirths(1.0);
+            large_mean += new Subpopulation(large, fc, id, hybrid)
+                              .getBirths(1.0);
+            int births = new Subpopulation(huge, fc, id, hybrid)
+                             .getBirths(1.0);
+            assertEquals("expectation too noisy", huge*0.5, births, 1.0);
+        }
+        large_mean /= draws;
+
+        assertEquals("exact draws", draws, hybrid.getExactDraws());
+        assertEquals("normal draws", draws, hybrid.getNormalDraws());
+        assertEquals("deterministic draws", draws,
+                     hybrid.getDeterministicDraws());
+
+        // Standard error of the mean is sqrt(250000/200) ~ 35.
+        assertEquals("normal draws biased", large*0.5, large_mean, 5*35.4);
+
+        hybrid.resetDrawCounts();
+        assertEquals(0, hybrid.getExactDraws());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void badHybridThresholds() {
+        rng.setHybridThresholds(10, 1);
+    }
 }
@@ -0,0 +1,145 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
+
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+
+import org.fhcrc.honeycomb.metapop.dilution.DilutionRule;
+import org.fhcrc.honeycomb.metapop.dilution.NoDilution;
+import org.fhcrc.honeycomb.metapop.dilution.PeriodicDilution;
+import org.fhcrc.honeycomb.metapop.dilution.GlobalThresholdDilution;
+
+import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
+import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.migration.IndividualMigration;
+import org.fhcrc.honeycomb.metapop.mutation.MutationRule;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.mutation.MutateCoopCheat;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+
+import java.io.File;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the multi-step {@link TauLeapWorld}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class TauLeapWorldTest {
+    private final File data_path =
+        new File("output_test/tauleap_test", UUID.randomUUID().toString());
+    private int rows = 4;
+    private int cols = 4;
+
+    private RandomNumberUser rng = new RandomNumberUser(1);
+
+    private TauLeapWorld makeWorld(FitnessCalculator fc, int size,
+                                   DilutionRule dilution_rule)
+    {
+        return makeWorld(fc, size, dilution_rule, new NoMutation(),
+                         new NoMigration());
+    }
+
+    private TauLeapWorld makeWorld(FitnessCalculator fc, int size,
+                                   DilutionRule dilution_rule,
+                                   MutationRule mutation_rule,
+                                   MigrationRule migration_rule)
+    {
+        Subpopulation sub = new Subpopulation(size, 1.0, 0.0, fc,
+                                              "coop_anc", rng);
+        List<Population> pops = new ArrayList<Population>();
+        pops.add(new Population(Arrays.asList(sub), new Coordinate(2,2),
+                                1e6, rng));
+        return new TauLeapWorld(rows, cols, pops, new StaticEnvironment(),
+                                dilution_rule, mutation_rule,
+                                migration_rule, new NoStop(), data_path, 1);
+    }
+
+    @Test
+    public void slowDeath() {
+        int initial = 100000;
+        double death_rate = 1e-4;
+        int steps = 2000;
+        TauLeapWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, death_rate), initial,
+                      new NoDilution());
+        world.iterate(steps, 500);
+
+        assertEquals(steps, world.getStep());
+        assertTrue("too many leaps: " + world.getLeaps(),
+                   world.getLeaps() < steps/10);
+        double expected = initial*Math.pow(1-death_rate, steps);
+        assertEquals("wrong survivors", expected, world.getSize(),
+                     0.01*expected);
+    }
+
+    @Test
+    public void leapsEndOnBoundaries() {
+        TauLeapWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, 1e-6), 1000,
+                      new PeriodicDilution(0.5, 7));
+        assertEquals("leap crosses dilution", 6, world.chooseLeap(1, 100, 10));
+        assertEquals("leap crosses dilution", 1, world.chooseLeap(6, 100, 10));
+        assertEquals("leap crosses save", 4, world.chooseLeap(7, 100, 10));
+        assertEquals("leap crosses end", 3, world.chooseLeap(98, 100, 10));
+
+        world.iterate(40, 10);
+        assertEquals(40, world.getStep());
+        for (int save=10; save<=40; save+=10) {
+            assertTrue("missing save at " + save,
+                       new File(data_path, save + ".tab").exists());
+        }
+        // Diluted at steps 7, 14, 21, 28 and 35.
+        assertEquals(1000/32.0, world.getSize(), 5*Math.sqrt(1000/32.0));
+    }
+
+    @Test
+    public void thresholdDilutionSingleSteps() {
+        TauLeapWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, 1e-6), 1000,
+                      new GlobalThresholdDilution(0.5, (int) 1e7));
+        assertEquals(1, world.chooseLeap(1, 100, 10));
+    }
+
+    @Test
+    public void mutationBoundsLeap() {
+        // Growth alone would allow 15000 steps; one mutant is expected
+        // every 10.
+        TauLeapWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, 1e-6), 100000,
+                      new NoDilution(),
+                      new MutateCoopCheat(1e-6, 0, 0, 0, rng),
+                      new NoMigration());
+        assertEquals(10, world.chooseLeap(1, 100000, 100000));
+    }
+
+    @Test
+    public void migrationBoundsLeap() {
+        // Migrants reach an empty patch at up to 1e-7*1e5*16/15 per step,
+        // so a leap may be 93.75 steps.
+        TauLeapWorld world =
+            makeWorld(new SpecifiedCalculator(0.0, 1e-6), 100000,
+                      new NoDilution(), new NoMutation(),
+                      new IndividualMigration(1e-7,
+                          new RandomPicker(rows, cols, true, rng)));
+        assertEquals(93, world.chooseLeap(1, 100000, 100000));
+    }
+
+    @Test
+    public void overSteps() {
+        assertEquals(0.1, RandomNumberUser.overSteps(0.1, 1), 0.0);
+        assertEquals(0.19, RandomNumberUser.overSteps(0.1, 2), 1e-12);
+        assertEquals(0.0, RandomNumberUser.overSteps(0.0, 50), 0.0);
+    }
+}
@@ -0,0 +1,369 @@
+package org.fhcrc.honeycomb.metapop;
+
+import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
+
+import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.SpecifiedCalculator;
+import org.fhcrc.honeycomb.metapop.fitness.MonodCalculator;
+
+import org.fhcrc.honeycomb.metapop.ode.SolverPool;
+
+import org.fhcrc.honeycomb.metapop.environment.StaticEnvironment;
+import org.fhcrc.honeycomb.metapop.dilution.PeriodicDilution;
+import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.migration.IndividualMigration;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
+import org.fhcrc.honeycomb.metapop.stop.NoStop;
+
+import java.io.File;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the dense {@link WorldState}.
+ *
+ * Created on 17 Oct, 2026
+ *
+ */
+public class WorldStateTest {
+    private int rows = 5;
+    private int cols = 5;
+    private double initial_resource = 1e4;
+
+    private RandomNumberUser rng = new RandomNumberUser(1);
+    private FitnessCalculator doubling = new SpecifiedCalculator(1.0, 0.0);
+    private FitnessCalculator dying = new SpecifiedCalculator(0.0, 1.0);
+
+    private List<Population> pops;
+    private OccupiedLocations ols;
+    private WorldState state;
+
+    @Before
+    public void setUp() {
+        Subpopulation grower = new Subpopulation(100, 1.0, 0.0, doubling,
+                                                 "grower", rng);
+        Subpopulation dier = new Subpopulation(50, 1.0, 0.0, dying,
+                                               "dier", rng);
+        pops = new ArrayList<Population>();
+        pops.add(new Population(Arrays.asList(grower, dier),
+                                new Coordinate(1,1), initial_resource, rng));
+        pops.add(new Population(Arrays.asList(dier),
+                                new Coordinate(3,2), initial_resource, rng));
+        pops.add(new Population(Arrays.asList(dier, grower),
+                                new Coordinate(5,5), initial_resource, rng));
+
+        ols = new OccupiedLocations(pops, rows*cols);
+        state = new WorldState(rows, cols);
+    }
+
+    @Test
+    public void index() {
+        assertEquals(0, state.index(new Coordinate(1,1)));
+        assertEquals(11, state.index(new Coordinate(3,2)));
+        assertEquals(rows*cols-1, state.index(new Coordinate(5,5)));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void outsideWorld() {
+        state.index(new Coordinate(6,1));
+    }
+
+    @Test
+    public void gather() {
+        state.gather(ols);
+
+        assertEquals("wrong number of strains", 2, state.getNStrains());
+        assertEquals("wrong number tracked", 3, state.getNTracked());
+        assertEquals(100, state.getCount(0, 0));
+        assertEquals(50, state.getCount(0, 1));
+        assertEquals(0, state.getCount(11, 0));
+        assertEquals(50, state.getCount(11, 1));
+        assertEquals(150, state.getPatchSize(24));
+        assertEquals(initial_resource, state.getResource(11), 0.0);
+    }
+
+    @Test
+    public void roundTrip() {
+        state.gather(ols);
+        state.setCount(24, 0, 7);
+        state.scatter(ols);
+
+        Population pop = ols.getPopulationAt(new Coordinate(5,5));
+        assertEquals("count not written back", 7, pop.getSizeById("grower"));
+        assertEquals("count changed", 50, pop.getSizeById("dier"));
+    }
+
+    @Test
+    public void grow() {
+        state.gather(ols);
+        state.grow();
+        state.scatter(ols);
+
+        Population pop = ols.getPopulationAt(new Coordinate(1,1));
+        assertEquals("grower didn't double", 200, pop.getSizeById("grower"));
+        assertEquals("dier didn't die", 0, pop.getSizeById("dier"));
+        assertTrue("resource not consumed",
+                   pop.getResource() < initial_resource);
+
+        Population no_growers = ols.getPopulationAt(new Coordinate(3,2));
+        assertEquals("dier didn't die", 0, no_growers.getSize());
+        assertEquals("resource consumed", initial_resource,
+                     no_growers.getResource(), 1e-9);
+    }
+
+    @Test
+    public void parallelGrowthIsDeterministic() throws Exception {
+        FitnessCalculator noisy = new SpecifiedCalculator(0.3, 0.1);
+        List<Population> many = new ArrayList<Population>();
+        for (int r=1; r<=rows; r++) {
+            for (int c=1; c<=cols; c++) {
+                Subpopulation sub = new Subpopulation(1000*r+c, 1.0, 0.0,
+                                                      noisy, "noisy", rng);
+                many.add(new Population(Arrays.asList(sub),
+                                        new Coordinate(r,c),
+                                        initial_resource, rng));
+            }
+        }
+
+        WorldState serial = new WorldState(rows, cols);
+        serial.usePatchStreams(42);
+        serial.gather(new OccupiedLocations(many, rows*cols));
+
+        WorldState parallel = new WorldState(rows, cols);
+        parallel.usePatchStreams(42);
+        parallel.gather(new OccupiedLocations(many, rows*cols));
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int step=0; step<5; step++) {
+                serial.grow();
+                parallel.grow(pool, 7);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int patch=0; patch<rows*cols; patch++) {
+            assertEquals("counts differ at " + patch,
+                         serial.getCount(patch, 0),
+                         parallel.getCount(patch, 0));
+            assertEquals("resource differs at " + patch,
+                         serial.getResource(patch),
+                         parallel.getResource(patch), 0.0);
+        }
+    }
+
+    @Test
+    public void batchedGrowthMatchesSerial() {
+        FitnessCalculator monod = new MonodCalculator(0.35, 10, 0.1, 100);
+        List<Population> many = new ArrayList<Population>();
+        for (int r=1; r<=rows; r++) {
+            for (int c=1; c<=cols; c++) {
+                Subpopulation sub = new Subpopulation(1000*r+c, 5.5, 0.024,
+                                                      monod, "monod", rng);
+                many.add(new Population(Arrays.asList(sub),
+                                        new Coordinate(r,c), 10*r*c, rng));
+            }
+        }
+
+        WorldState serial = new WorldState(rows, cols);
+        serial.usePatchStreams(42);
+        serial.gather(new OccupiedLocations(many, rows*cols));
+
+        WorldState batched = new WorldState(rows, cols);
+        batched.usePatchStreams(42);
+        batched.useBatchedSolver(true);
+        batched.gather(new OccupiedLocations(many, rows*cols));
+
+        // The batched solver uses the same method as rk45.
+        SolverPool.setType("rk45");
+        try {
+            for (int step=0; step<5; step++) {
+                serial.grow();
+                batched.grow();
+            }
+        } finally {
+            SolverPool.setType(SolverPool.DEFAULT_TYPE);
+        }
+
+        for (int patch=0; patch<rows*cols; patch++) {
+            assertEquals("counts differ at " + patch,
+                         serial.getCount(patch, 0),
+                         batched.getCount(patch, 0));
+            assertEquals("resource differs at " + patch,
+                         serial.getResource(patch),
+                         batched.getResource(patch), 1e-12);
+        }
+    }
+
+    @Test
+    public void counterStreamsReplayOneStep() {
+        FitnessCalculator noisy = new SpecifiedCalculator(0.3, 0.1);
+        List<Population> many = new ArrayList<Population>();
+        for (int r=1; r<=rows; r++) {
+            for (int c=1; c<=cols; c++) {
+                Subpopulation sub = new Subpopulation(1000*r+c, 1.0, 0.0,
+                                                      noisy, "noisy", rng);
+                many.add(new Population(Arrays.asList(sub),
+                                        new Coordinate(r,c),
+                                        initial_resource, rng));
+            }
+        }
+
+        WorldState full = new WorldState(rows, cols);
+        full.useCounterStreams(42);
+        full.gather(new OccupiedLocations(many, rows*cols));
+        int[] before = new int[rows*cols];
+        double[] before_resource = new double[rows*cols];
+        for (int step=1; step<=3; step++) {
+            if (step == 3) {
+                for (int patch=0; patch<rows*cols; patch++) {
+                    before[patch] = full.getCount(patch, 0);
+                    before_resource[patch] = full.getResource(patch);
+                }
+            }
+            full.setStep(step);
+            full.grow();
+        }
+
+        // Replay step 3 alone, growing the patches in reverse order.
+        WorldState replay = new WorldState(rows, cols);
+        replay.useCounterStreams(42);
+        replay.gather(new OccupiedLocations(many, rows*cols));
+        for (int patch=0; patch<rows*cols; patch++) {
+            replay.setCount(patch, 0, before[patch]);
+            replay.setResource(patch, before_resource[patch]);
+        }
+        replay.setStep(3);
+        for (int patch=rows*cols-1; patch>=0; patch--) replay.grow(patch);
+
+        for (int patch=0; patch<rows*cols; patch++) {
+            assertEquals("counts differ at " + patch,
+                         full.getCount(patch, 0), replay.getCount(patch, 0));
+        }
+    }
+
+    @Test
+    public void counterStreamsIgnoreStrainOrder() {
+        FitnessCalculator noisy = new SpecifiedCalculator(0.3, 0.1);
+        Subpopulation first = new Subpopulation(1000, 1.0, 0.0, noisy,
+                                                "first", rng);
+        Subpopulation second = new Subpopulation(2000, 1.0, 0.0, noisy,
+                                                 "second", rng);
+        Population one = new Population(Arrays.asList(first),
+                                        new Coordinate(1,1),
+                                        initial_resource, rng);
+        Population two = new Population(Arrays.asList(second, first),
+                                        new Coordinate(2,2),
+                                        initial_resource, rng);
+
+        WorldState forward = new WorldState(rows, cols);
+        forward.useCounterStreams(42);
+        forward.gather(new OccupiedLocations(Arrays.asList(one, two),
+                                             rows*cols));
+        WorldState backward = new WorldState(rows, cols);
+        backward.useCounterStreams(42);
+        backward.gather(new OccupiedLocations(Arrays.asList(two, one),
+                                              rows*cols));
+        assertFalse("strains seen in the same order",
+                    forward.getStrainIds().equals(backward.getStrainIds()));
+
+        forward.setStep(1);
+        forward.grow();
+        backward.setStep(1);
+        backward.grow();
+
+        int patch = forward.index(new Coordinate(2,2));
+        List<String> forward_ids = forward.getStrainIds();
+        List<String> backward_ids = backward.getStrainIds();
+        for (String id:Arrays.asList("first", "second")) {
+            assertEquals(id + " differs",
+                         forward.getCount(patch, forward_ids.indexOf(id)),
+                         backward.getCount(patch, backward_ids.indexOf(id)));
+        }
+    }
+
+    private ArrayWorld makeArrayWorld(int n_threads) {
+        RandomNumberUser pop_rng = new RandomNumberUser(7);
+        FitnessCalculator noisy = new MonodCalculator(0.3, 100, 0.05);
+        List<Subpopulation> subs = Arrays.asList(
+            new Subpopulation(1000, 1.0, 0.0, noisy, "grower", pop_rng),
+            new Subpopulation(500, 1.0, 0.0, noisy, "dier", pop_rng));
+        List<Population> start = new ArrayList<Population>();
+        for (Coordinate coord:Arrays.asList(new Coordinate(1,1),
+                                            new Coordinate(3,2),
+                                            new Coordinate(5,5)))
+        {
+            start.add(new Population(subs, coord, initial_resource,
+                                     pop_rng));
+        }
+        RandomNumberUser migration_rng = new RandomNumberUser(8);
+        return new ArrayWorld(rows, cols, start, new StaticEnvironment(),
+                              new PeriodicDilution(0.3, 2), new NoMutation(),
+                              new IndividualMigration(0.1,
+                                  new RandomPicker(rows, cols, true,
+                                                   migration_rng)),
+                              new NoStop(),
+                              new File("output_test/array_world"), 1,
+                              n_threads, 42);
+    }
+
+    @Test
+    public void arrayWorldPopulationsAreViews() {
+        ArrayWorld world = makeArrayWorld(1);
+        world.iterate(6, 6);
+        world.shutdown();
+
+        WorldState bound = world.getState();
+        OccupiedLocations locations = world.getOccupiedLocations();
+        assertTrue("nothing migrated", locations.getSize() > 3);
+        assertEquals("colonised patches not grown",
+                     locations.getSize(), bound.getNTracked());
+
+        int total = 0;
+        for (Population pop:locations.getList()) {
+            int patch = bound.index(pop.getCoordinate());
+            for (Subpopulation sub:pop.getSubpopulations()) {
+                int strain = bound.getStrainIds().indexOf(sub.getId());
+                assertEquals(bound.getCount(patch, strain), sub.getSize());
+            }
+            assertEquals(bound.getResource(patch), pop.getResource(), 0.0);
+            total += pop.getSize();
+        }
+        assertEquals("census differs", total, world.getSize());
+
+        Subpopulation sub = locations.getList().get(0)
+                                     .getSubpopulations().get(0);
+        sub.setSize(3);
+        int patch = bound.index(locations.getList().get(0).getCoordinate());
+        assertEquals("not written through", 3,
+                     bound.getCount(patch, bound.getStrainIds()
+                                                .indexOf(sub.getId())));
+    }
+
+    @Test
+    public void arrayWorldThreadsAgree() {
+        ArrayWorld serial = makeArrayWorld(1);
+        serial.iterate(6, 6);
+        serial.shutdown();
+        ArrayWorld parallel = makeArrayWorld(3);
+        parallel.iterate(6, 6);
+        parallel.shutdown();
+
+        assertEquals(serial.getSize(), parallel.getSize());
+        for (Population pop:serial.getOccupiedLocations().getList()) {
+            Population other = parallel.getOccupiedLocations()
+                                       .getPopulationAt(pop.getCoordinate());
+            assertEquals(pop.getSizeById("grower"),
+                         other.getSizeById("grower"));
+            assertEquals(pop.getSizeById("dier"), other.getSizeById("dier"));
+        }
+    }
+}
@@ -16,9 +16,11 @@ import org.fhcrc.honeycomb.metapop.dilution.PeriodicDilution;
 
 import org.fhcrc.honeycomb.metapop.migration.MigrationRule;
 import org.fhcrc.honeycomb.metapop.migration.NoMigration;
+import org.fhcrc.honeycomb.metapop.migration.IndividualMigration;
 
 import org.fhcrc.honeycomb.metapop.mutation.MutationRule;
 import org.fhcrc.honeycomb.metapop.mutation.NoMutation;
+import org.fhcrc.honeycomb.metapop.mutation.MutateAdaptive;
 
 import org.fhcrc.honeycomb.metapop.stop.StopCondition;
 import org.fhcrc.honeycomb.metapop.stop.NoStop;
@@ -27,6 +29,7 @@ import org.fhcrc.honeycomb.metapop.coordinate.Coordinate;
 import org.fhcrc.honeycomb.metapop.coordinate.CoordinateProvider;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.CoordinatePicker;
 import org.fhcrc.honeycomb.metapop.coordinate.picker.SpecifiedPicker;
+import org.fhcrc.honeycomb.metapop.coordinate.picker.RandomPicker;
 
 import org.fhcrc.honeycomb.metapop.fitness.FitnessCalculator;
 import org.fhcrc.honeycomb.metapop.fitness.IdentityCalculator;
@@ -152,6 +155,25 @@ public class WorldTest {
                    ols.isOccupied(initial_coords.get(0)));
     }
 
+    @Test
+    public void denseIndex() {
+        OccupiedLocations dense =
+            new OccupiedLocations(initial_populations, rows, cols);
+        Coordinate first = initial_coords.get(0);
+        assertTrue("should be dense", dense.isDense());
+        assertTrue("should be occupied", dense.isOccupied(first));
+        assertSame(dense.getPopulationAt(first),
+                   dense.getPopulationAt(dense.index(first)));
+        assertEquals(ols.getMap().keySet(), dense.getMap().keySet());
+
+        int row = 1;
+        while (dense.getPopulationAt(row, cols) != null) row++;
+        Population incoming = new Population(initial_populations.get(0));
+        incoming.setCoordinate(new Coordinate(row, cols));
+        dense.addOrMix(incoming);
+        assertSame(incoming, dense.getPopulationAt(row, cols));
+    }
+
     @Test
     public void mix() {
         Coordinate test_coord = initial_coords.get(0);
@@ -202,4 +224,62 @@ public class WorldTest {
                    world.getSizeById("small") > small_ci[0] && 
                    world.getSizeById("small") > small_ci[1]); 
     }
+
+    @Test
+    public void aggregates() {
+        world.iterate(3, 3);
+
+        int large = 0;
+        int occupied = 0;
+        for (Population pop:world.getOccupiedLocations().getList()) {
+            large += pop.getSizeById(id);
+            if (pop.getSize() > 0) occupied++;
+        }
+        assertEquals("wrong size by id", large, world.getSizeById(id));
+        assertEquals("wrong number occupied", occupied, world.getNOccupied());
+        assertEquals("unknown id", 0, world.getSizeById("missing"));
+    }
+
+    @Test
+    public void censusFollowsEveryChange() {
+        List<Subpopulation> typed = Arrays.asList(
+            new Subpopulation(500, fc, "coop_census", rng),
+            new Subpopulation(200, fc, "cheat_census", rng));
+        List<Population> pops = new ArrayList<Population>();
+        for (Coordinate coord:initial_coords) {
+            pops.add(new Population(typed, coord, no_resource, rng));
+        }
+        World changing = new World(rows, cols, pops, env_changer,
+                                   new PeriodicDilution(0.3, 2),
+                                   new MutateAdaptive(0.01, 0, 0, rng),
+                                   new IndividualMigration(0.1,
+                                       new RandomPicker(rows, cols, true,
+                                                        rng)),
+                                   stop_condition, data_path);
+        assertEquals("small before growth", 0, changing.getNOccupiedBelow(50));
+        changing.iterate(6, 6);
+
+        int total = 0;
+        int occupied = 0;
+        int small = 0;
+        int coops = 0;
+        for (Population pop:changing.getOccupiedLocations().getList()) {
+            total += pop.getSize();
+            coops += pop.getSizeByType("coop");
+            if (pop.getSize() > 0) {
+                occupied++;
+                if (pop.getSize() < 50) small++;
+            }
+        }
+        assertTrue("nothing migrated", occupied > initial_coords.size());
+        assertEquals("wrong total", total, changing.getSize());
+        assertEquals("wrong number occupied", occupied,
+                     changing.getNOccupied());
+        assertEquals("wrong number small", small,
+                     changing.getNOccupiedBelow(50));
+        assertEquals("wrong size by type", coops,
+                     changing.getSizeByType("coop"));
+        assertTrue("no mutants",
+                   coops > changing.getSizeById("coop_census"));
+    }
 }